@@ -0,0 +1,134 @@
+package pomdp.bench;
+
+import java.util.Random;
+
+import pomdp.utilities.datastructures.DenseKernels;
+import pomdp.utilities.datastructures.ScalarDenseKernels;
+
+/**
+ * 比较ScalarDenseKernels与VectorDenseKernels每个运算的耗时
+ *
+ * 用法：java --add-modules jdk.incubator.vector pomdp.bench.DenseKernelsBenchmark [长度] [重复次数]
+ * 不属于求解器，放在单独的bench源文件夹里，运行时类路径上需要有src-vector编译出的VectorDenseKernels。
+ * 每个运算先预热，再取多轮中最快的一轮，输出每次调用的纳秒数和加速比。
+ */
+public class DenseKernelsBenchmark {
+
+	private static final int WARMUP_ROUNDS = 5;
+	private static final int MEASURE_ROUNDS = 10;
+
+	// 防止JIT把结果没有被使用的调用消掉
+	private static double g_dSink = 0.0;
+
+	private interface Kernel {
+		void run(DenseKernels dkKernels);
+	}
+
+	public static void main(String[] args) {
+		int cLength = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+		int cRepeats = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+
+		DenseKernels dkScalar = new ScalarDenseKernels();
+		DenseKernels dkVector = DenseKernels.createVectorKernels();
+		if (dkVector == null) {
+			System.out.println("jdk.incubator.vector is not available, run with --add-modules jdk.incubator.vector");
+			return;
+		}
+		System.out.println("length = " + cLength + ", repeats = " + cRepeats + ", " + dkVector.getName());
+
+		Random rnd = new Random(0);
+		final double[] adX = new double[cLength], adY = new double[cLength];
+		final float[] afX = new float[cLength], afY = new float[cLength];
+		for (int i = 0; i < cLength; i++) {
+			adX[i] = rnd.nextDouble();
+			adY[i] = rnd.nextDouble();
+			afX[i] = (float) adX[i];
+			afY[i] = (float) adY[i];
+		}
+
+		compare("dot double", dkScalar, dkVector, cRepeats, new Kernel() {
+			public void run(DenseKernels dkKernels) {
+				g_dSink += dkKernels.dot(adX, adY);
+			}
+		});
+		compare("dot float", dkScalar, dkVector, cRepeats, new Kernel() {
+			public void run(DenseKernels dkKernels) {
+				g_dSink += dkKernels.dot(afX, afY);
+			}
+		});
+		compare("l1 double", dkScalar, dkVector, cRepeats, new Kernel() {
+			public void run(DenseKernels dkKernels) {
+				g_dSink += dkKernels.l1(adX, adY);
+			}
+		});
+		compare("l1 float", dkScalar, dkVector, cRepeats, new Kernel() {
+			public void run(DenseKernels dkKernels) {
+				g_dSink += dkKernels.l1(afX, afY);
+			}
+		});
+		compare("l2 double", dkScalar, dkVector, cRepeats, new Kernel() {
+			public void run(DenseKernels dkKernels) {
+				g_dSink += dkKernels.l2(adX, adY);
+			}
+		});
+		compare("l2 float", dkScalar, dkVector, cRepeats, new Kernel() {
+			public void run(DenseKernels dkKernels) {
+				g_dSink += dkKernels.l2(afX, afY);
+			}
+		});
+		// axpy会改写y，交替使用正负系数使y保持有界
+		compare("axpy double", dkScalar, dkVector, cRepeats, new Kernel() {
+			double m_dAlpha = 1.0;
+			public void run(DenseKernels dkKernels) {
+				m_dAlpha = -m_dAlpha;
+				dkKernels.axpy(m_dAlpha, adX, adY);
+			}
+		});
+		compare("axpy float", dkScalar, dkVector, cRepeats, new Kernel() {
+			float m_fAlpha = 1.0f;
+			public void run(DenseKernels dkKernels) {
+				m_fAlpha = -m_fAlpha;
+				dkKernels.axpy(m_fAlpha, afX, afY);
+			}
+		});
+		compare("max double", dkScalar, dkVector, cRepeats, new Kernel() {
+			public void run(DenseKernels dkKernels) {
+				g_dSink += dkKernels.max(adX);
+			}
+		});
+		compare("max float", dkScalar, dkVector, cRepeats, new Kernel() {
+			public void run(DenseKernels dkKernels) {
+				g_dSink += dkKernels.max(afX);
+			}
+		});
+		compare("maxAbsDiff double", dkScalar, dkVector, cRepeats, new Kernel() {
+			public void run(DenseKernels dkKernels) {
+				g_dSink += dkKernels.maxAbsDiff(adX, adY);
+			}
+		});
+		System.out.println("(sink = " + g_dSink + ")");
+	}
+
+	private static void compare(String sName, DenseKernels dkScalar, DenseKernels dkVector, int cRepeats, Kernel k) {
+		double dScalar = measure(dkScalar, cRepeats, k);
+		double dVector = measure(dkVector, cRepeats, k);
+		System.out.format("%-18s scalar %9.1f ns  vector %9.1f ns  speedup %5.2fx%n", sName, dScalar, dVector,
+				dScalar / dVector);
+	}
+
+	/**
+	 * @return 最快一轮中每次调用的纳秒数
+	 */
+	private static double measure(DenseKernels dkKernels, int cRepeats, Kernel k) {
+		double dBest = Double.POSITIVE_INFINITY;
+		for (int iRound = 0; iRound < WARMUP_ROUNDS + MEASURE_ROUNDS; iRound++) {
+			long lStart = System.nanoTime();
+			for (int i = 0; i < cRepeats; i++)
+				k.run(dkKernels);
+			double dTime = (double) (System.nanoTime() - lStart) / cRepeats;
+			if (iRound >= WARMUP_ROUNDS)
+				dBest = Math.min(dBest, dTime);
+		}
+		return dBest;
+	}
+}
@@ -0,0 +1,179 @@
+package pomdp.utilities.datastructures;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * DenseKernels的SIMD实现，使用jdk.incubator.vector（JDK 16+）
+ *
+ * 编译和运行都需要 --add-modules jdk.incubator.vector，所以放在单独的src-vector源文件夹里，src不加该参数也能编译。
+ * 只通过DenseKernels.getInstance()反射加载，其他类不直接引用它，没有该模块时整个程序仍然可以运行。
+ * 每个循环先按向量长度整段处理，剩下的尾部用标量处理。
+ */
+public class VectorDenseKernels extends DenseKernels {
+
+	private static final VectorSpecies<Double> DOUBLE_SPECIES = DoubleVector.SPECIES_PREFERRED;
+	private static final VectorSpecies<Float> FLOAT_SPECIES = FloatVector.SPECIES_PREFERRED;
+
+	public String getName() {
+		return "vector(" + DOUBLE_SPECIES.length() + "x double, " + FLOAT_SPECIES.length() + "x float)";
+	}
+
+	public double dot(double[] adValues1, double[] adValues2) {
+		int cEntries = Math.min(adValues1.length, adValues2.length);
+		int iUpper = DOUBLE_SPECIES.loopBound(cEntries), i = 0;
+		DoubleVector vSum = DoubleVector.zero(DOUBLE_SPECIES);
+		for (; i < iUpper; i += DOUBLE_SPECIES.length()) {
+			DoubleVector v1 = DoubleVector.fromArray(DOUBLE_SPECIES, adValues1, i);
+			DoubleVector v2 = DoubleVector.fromArray(DOUBLE_SPECIES, adValues2, i);
+			vSum = v1.fma(v2, vSum);
+		}
+		double dSum = vSum.reduceLanes(VectorOperators.ADD);
+		for (; i < cEntries; i++)
+			dSum += adValues1[i] * adValues2[i];
+		return dSum;
+	}
+
+	public float dot(float[] afValues1, float[] afValues2) {
+		int cEntries = Math.min(afValues1.length, afValues2.length);
+		int iUpper = FLOAT_SPECIES.loopBound(cEntries), i = 0;
+		FloatVector vSum = FloatVector.zero(FLOAT_SPECIES);
+		for (; i < iUpper; i += FLOAT_SPECIES.length()) {
+			FloatVector v1 = FloatVector.fromArray(FLOAT_SPECIES, afValues1, i);
+			FloatVector v2 = FloatVector.fromArray(FLOAT_SPECIES, afValues2, i);
+			vSum = v1.fma(v2, vSum);
+		}
+		float fSum = vSum.reduceLanes(VectorOperators.ADD);
+		for (; i < cEntries; i++)
+			fSum += afValues1[i] * afValues2[i];
+		return fSum;
+	}
+
+	public double l1(double[] adValues1, double[] adValues2, int iFrom, int iTo) {
+		int iUpper = iFrom + DOUBLE_SPECIES.loopBound(iTo - iFrom), i = iFrom;
+		DoubleVector vSum = DoubleVector.zero(DOUBLE_SPECIES);
+		for (; i < iUpper; i += DOUBLE_SPECIES.length()) {
+			DoubleVector v1 = DoubleVector.fromArray(DOUBLE_SPECIES, adValues1, i);
+			DoubleVector v2 = DoubleVector.fromArray(DOUBLE_SPECIES, adValues2, i);
+			vSum = vSum.add(v1.sub(v2).abs());
+		}
+		double dSum = vSum.reduceLanes(VectorOperators.ADD);
+		for (; i < iTo; i++)
+			dSum += Math.abs(adValues1[i] - adValues2[i]);
+		return dSum;
+	}
+
+	public float l1(float[] afValues1, float[] afValues2) {
+		int cEntries = Math.min(afValues1.length, afValues2.length);
+		int iUpper = FLOAT_SPECIES.loopBound(cEntries), i = 0;
+		FloatVector vSum = FloatVector.zero(FLOAT_SPECIES);
+		for (; i < iUpper; i += FLOAT_SPECIES.length()) {
+			FloatVector v1 = FloatVector.fromArray(FLOAT_SPECIES, afValues1, i);
+			FloatVector v2 = FloatVector.fromArray(FLOAT_SPECIES, afValues2, i);
+			vSum = vSum.add(v1.sub(v2).abs());
+		}
+		float fSum = vSum.reduceLanes(VectorOperators.ADD);
+		for (; i < cEntries; i++)
+			fSum += Math.abs(afValues1[i] - afValues2[i]);
+		return fSum;
+	}
+
+	public double l2(double[] adValues1, double[] adValues2) {
+		int cEntries = Math.min(adValues1.length, adValues2.length);
+		int iUpper = DOUBLE_SPECIES.loopBound(cEntries), i = 0;
+		DoubleVector vSum = DoubleVector.zero(DOUBLE_SPECIES);
+		for (; i < iUpper; i += DOUBLE_SPECIES.length()) {
+			DoubleVector vDiff = DoubleVector.fromArray(DOUBLE_SPECIES, adValues1, i)
+					.sub(DoubleVector.fromArray(DOUBLE_SPECIES, adValues2, i));
+			vSum = vDiff.fma(vDiff, vSum);
+		}
+		double dSum = vSum.reduceLanes(VectorOperators.ADD), dDiff = 0.0;
+		for (; i < cEntries; i++) {
+			dDiff = adValues1[i] - adValues2[i];
+			dSum += dDiff * dDiff;
+		}
+		return Math.sqrt(dSum);
+	}
+
+	public float l2(float[] afValues1, float[] afValues2) {
+		int cEntries = Math.min(afValues1.length, afValues2.length);
+		int iUpper = FLOAT_SPECIES.loopBound(cEntries), i = 0;
+		FloatVector vSum = FloatVector.zero(FLOAT_SPECIES);
+		for (; i < iUpper; i += FLOAT_SPECIES.length()) {
+			FloatVector vDiff = FloatVector.fromArray(FLOAT_SPECIES, afValues1, i)
+					.sub(FloatVector.fromArray(FLOAT_SPECIES, afValues2, i));
+			vSum = vDiff.fma(vDiff, vSum);
+		}
+		float fSum = vSum.reduceLanes(VectorOperators.ADD), fDiff = 0.0f;
+		for (; i < cEntries; i++) {
+			fDiff = afValues1[i] - afValues2[i];
+			fSum += fDiff * fDiff;
+		}
+		return (float) Math.sqrt(fSum);
+	}
+
+	public void axpy(double dAlpha, double[] adX, double[] adY) {
+		int cEntries = Math.min(adX.length, adY.length);
+		int iUpper = DOUBLE_SPECIES.loopBound(cEntries), i = 0;
+		DoubleVector vAlpha = DoubleVector.broadcast(DOUBLE_SPECIES, dAlpha);
+		for (; i < iUpper; i += DOUBLE_SPECIES.length()) {
+			DoubleVector vX = DoubleVector.fromArray(DOUBLE_SPECIES, adX, i);
+			DoubleVector vY = DoubleVector.fromArray(DOUBLE_SPECIES, adY, i);
+			vX.fma(vAlpha, vY).intoArray(adY, i);
+		}
+		for (; i < cEntries; i++)
+			adY[i] += dAlpha * adX[i];
+	}
+
+	public void axpy(float fAlpha, float[] afX, float[] afY) {
+		int cEntries = Math.min(afX.length, afY.length);
+		int iUpper = FLOAT_SPECIES.loopBound(cEntries), i = 0;
+		FloatVector vAlpha = FloatVector.broadcast(FLOAT_SPECIES, fAlpha);
+		for (; i < iUpper; i += FLOAT_SPECIES.length()) {
+			FloatVector vX = FloatVector.fromArray(FLOAT_SPECIES, afX, i);
+			FloatVector vY = FloatVector.fromArray(FLOAT_SPECIES, afY, i);
+			vX.fma(vAlpha, vY).intoArray(afY, i);
+		}
+		for (; i < cEntries; i++)
+			afY[i] += fAlpha * afX[i];
+	}
+
+	public double max(double[] adValues) {
+		int iUpper = DOUBLE_SPECIES.loopBound(adValues.length), i = 0;
+		DoubleVector vMax = DoubleVector.broadcast(DOUBLE_SPECIES, Double.NEGATIVE_INFINITY);
+		for (; i < iUpper; i += DOUBLE_SPECIES.length())
+			vMax = vMax.max(DoubleVector.fromArray(DOUBLE_SPECIES, adValues, i));
+		double dMax = vMax.reduceLanes(VectorOperators.MAX);
+		for (; i < adValues.length; i++)
+			dMax = Math.max(dMax, adValues[i]);
+		return dMax;
+	}
+
+	public float max(float[] afValues) {
+		int iUpper = FLOAT_SPECIES.loopBound(afValues.length), i = 0;
+		FloatVector vMax = FloatVector.broadcast(FLOAT_SPECIES, Float.NEGATIVE_INFINITY);
+		for (; i < iUpper; i += FLOAT_SPECIES.length())
+			vMax = vMax.max(FloatVector.fromArray(FLOAT_SPECIES, afValues, i));
+		float fMax = vMax.reduceLanes(VectorOperators.MAX);
+		for (; i < afValues.length; i++)
+			fMax = Math.max(fMax, afValues[i]);
+		return fMax;
+	}
+
+	public double maxAbsDiff(double[] adValues1, double[] adValues2) {
+		int cEntries = Math.min(adValues1.length, adValues2.length);
+		int iUpper = DOUBLE_SPECIES.loopBound(cEntries), i = 0;
+		DoubleVector vMax = DoubleVector.zero(DOUBLE_SPECIES);
+		for (; i < iUpper; i += DOUBLE_SPECIES.length()) {
+			DoubleVector v1 = DoubleVector.fromArray(DOUBLE_SPECIES, adValues1, i);
+			DoubleVector v2 = DoubleVector.fromArray(DOUBLE_SPECIES, adValues2, i);
+			vMax = vMax.max(v1.sub(v2).abs());
+		}
+		double dMax = vMax.reduceLanes(VectorOperators.MAX);
+		for (; i < cEntries; i++)
+			dMax = Math.max(dMax, Math.abs(adValues1[i] - adValues2[i]));
+		return dMax;
+	}
+}
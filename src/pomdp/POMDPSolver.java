@@ -11,6 +11,7 @@ public class POMDPSolver {
 		String sModelName = "hallway"; // model名
 		// String sModelName = "tagAvoid";
 		String sMethodName = "MDPT"; // 算法名
+		String sMetricName = NewMDPIteration.DISTANCE_METRIC; // 距离度量：L1、L2、LInf、Hellinger、SymmetricKL
 		Logger.getInstance().setOutput(true); // 允许输出
 		Logger.getInstance().setSilent(false); // 允许输出到控制台
 		try {
@@ -34,6 +35,7 @@ public class POMDPSolver {
 
 		try {
 			NewMDPIteration iteration = new NewMDPIteration(pomdp);
+			iteration.setDistanceMetric(sMetricName);
 			iteration.newIteration(pomdp); // 执行算法
 
 		} catch (Exception e) {
@@ -22,6 +22,7 @@ import pomdp.utilities.AlphaVector;
 import pomdp.utilities.BeliefState;
 import pomdp.utilities.Logger;
 import pomdp.utilities.RandomGenerator;
+import pomdp.utilities.datastructures.SparseVector;
 import pomdp.valuefunction.LinearValueFunctionApproximation;
 import pomdp.valuefunction.MDPValueFunction;
 
@@ -210,8 +211,7 @@ public abstract class ValueIteration extends PolicyStrategy{
 		AlphaVector av = null;
 		AlphaVector avNext = null;
 		double dMaxResidual = MAX_INF;
-		Entry<Integer,Double> entry = null;
-		Iterator<Entry<Integer,Double>> itNonZero = null;
+		SparseVector vNonZero = null;
 		LinearValueFunctionApproximation vMin = new LinearValueFunctionApproximation( m_dEpsilon, false );
 		//��ʼ��Ϊ��Сֵ
 		initValueFunctionToMin( vMin );
@@ -253,11 +253,10 @@ public abstract class ValueIteration extends PolicyStrategy{
 					dSum = 0.0;
 					//��������state action��ʼ��ת��
 					//state2
-					itNonZero = m_pPOMDP.getNonZeroTransitions( iState, iAction );
-					while( itNonZero.hasNext() ){
-						entry = itNonZero.next();
-						iEndState = entry.getKey().intValue();
-						dTr = entry.getValue().doubleValue();//ת���ĸ���ֵ
+					vNonZero = m_pPOMDP.getTransitionRow( iState, iAction );
+					for( int i = 0 ; i < vNonZero.nnz() ; i++ ){
+						iEndState = vNonZero.index( i );
+						dTr = vNonZero.value( i );//ת���ĸ���ֵ
 						dValue = av.valueAt( iEndState );//�������״̬�ĵ�value
 						dSum += dTr * dValue;//
 					}
@@ -0,0 +1,102 @@
+package pomdp.algorithms.pointbased;
+
+/**
+ * 闭包MDP，建立之后不再改变
+ *
+ * 转移函数T(i,a,j)按(i,a)分行压缩存储：第i个闭包、动作a的一行是下标rowStart(i,a)到rowEnd(i,a)之间的项，
+ * 终止闭包getEnd(k)在行内递增，概率为getTransition(k)，只存T > 0的项。
+ * 回报函数R(i,a)是稠密的N×|A|数组，没有写入回报的位置为0。
+ * 与N×|A|×N的SparseTabularFunction相比，按行遍历时只访问非零项，也不需要装箱和散列查找。
+ */
+public class ClosureMDP {
+
+	private final int stateCount;
+	private final int actionCount;
+	// 第(i,a)行从rowStarts[i * actionCount + a]开始，长度N·|A| + 1
+	private final int[] rowStarts;
+	private final int[] ends;
+	private final double[] transitions;
+	private final double[][] rewards;
+
+	ClosureMDP(int stateCount, int actionCount, int[] rowStarts, int[] ends, double[] transitions, double[][] rewards) {
+		this.stateCount = stateCount;
+		this.actionCount = actionCount;
+		this.rowStarts = rowStarts;
+		this.ends = ends;
+		this.transitions = transitions;
+		this.rewards = rewards;
+	}
+
+	public int getStateCount() {
+		return stateCount;
+	}
+
+	public int getActionCount() {
+		return actionCount;
+	}
+
+	/**
+	 * 所有行的非零项数
+	 */
+	public int getNonZeroCount() {
+		return ends.length;
+	}
+
+	public int rowStart(int begin, int action) {
+		return rowStarts[begin * actionCount + action];
+	}
+
+	public int rowEnd(int begin, int action) {
+		return rowStarts[begin * actionCount + action + 1];
+	}
+
+	public int getEnd(int entry) {
+		return ends[entry];
+	}
+
+	public double getTransition(int entry) {
+		return transitions[entry];
+	}
+
+	public double getReward(int begin, int action) {
+		return rewards[begin][action];
+	}
+
+	/**
+	 * 第(i,a)行与values的内积，按终止闭包递增的顺序累加
+	 */
+	public double dot(int begin, int action, double[] values) {
+		double sum = 0.0;
+		int rowEnd = rowEnd(begin, action);
+		for (int k = rowStart(begin, action); k < rowEnd; k++)
+			sum += transitions[k] * values[ends[k]];
+		return sum;
+	}
+
+	/**
+	 * 第(i,a)行的概率之和
+	 */
+	public double rowSum(int begin, int action) {
+		double sum = 0.0;
+		int rowEnd = rowEnd(begin, action);
+		for (int k = rowStart(begin, action); k < rowEnd; k++)
+			sum += transitions[k];
+		return sum;
+	}
+
+	/**
+	 * 每一行除以它的和，使每个(i,a)的转移概率之和为1，没有转移的行仍然为空；回报与这个MDP共用
+	 */
+	public ClosureMDP normalize() {
+		double[] normalized = new double[transitions.length];
+		for (int begin = 0; begin < stateCount; begin++) {
+			for (int action = 0; action < actionCount; action++) {
+				double sum = rowSum(begin, action);
+				int rowEnd = rowEnd(begin, action);
+				for (int k = rowStart(begin, action); k < rowEnd; k++)
+					normalized[k] = transitions[k] / sum;
+			}
+		}
+		return new ClosureMDP(stateCount, actionCount, rowStarts, ends, normalized, rewards);
+	}
+}
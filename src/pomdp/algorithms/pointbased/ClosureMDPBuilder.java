@@ -0,0 +1,322 @@
+package pomdp.algorithms.pointbased;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import pomdp.environments.POMDP;
+import pomdp.utilities.BeliefState;
+import pomdp.utilities.BeliefStateVector;
+import pomdp.utilities.distance.BeliefIndex;
+
+/**
+ * 由闭包中心点建立闭包MDP的转移函数T(i,a,j)和回报函数R(i,a)
+ *
+ * 逐对比较(begin, end)时每个起始闭包的每个(a,o)后继要计算N次，并与每个中心点算一次距离，共O(N²·|A|·|O|)。
+ * 这里每个起始闭包的每个(a,o)后继只计算一次，用中心点索引的allWithin找出包含它的所有终止闭包（距离不超过epsilon），
+ * 共O(N·|A|·|O|·查询)。
+ *
+ * 结果与逐对比较完全相同：
+ * T(i,a,j)是落在闭包j中的后继的P(o|b,a)按o的顺序累加的和，j不等于i；
+ * 对每个T(i,a,j) > 0的j，逐对比较都把R(i,a)设为立即回报累加“落在j中的观察数”次的和（大于0时），后写的覆盖先写的，
+ * 所以R(i,a)就是最大的这样的j对应的和，这里用同样的累加方式计算。
+ *
+ * 各起始闭包的行互不相关。parallelism > 1时按起始闭包划分给ForkJoinPool，每个线程用自己的RowBuilder，
+ * 最后按起始闭包的顺序合并成ClosureMDP。信念点缓存把相差在容差以内的信念点当作同一个，先放入的留下，
+ * 所以后继先并行计算，再按串行的顺序放入缓存，之后才并行查找终止闭包，结果与串行相同，与线程数无关。
+ */
+public class ClosureMDPBuilder {
+
+	// 每个任务至少处理这么多个起始闭包，再少就不再拆分
+	private static final int ROWS_PER_TASK = 16;
+	// 一次最多并行计算这么多个尚未放入缓存的后继，限制重复的信念点占用的内存
+	private static final int UNCACHED_SUCCESSORS_LIMIT = 4096;
+
+	private POMDP pomdp;
+	private BeliefStateVector<BeliefState> centres;
+	private BeliefIndex index;
+	private double epsilon;
+	private int parallelism = 1;
+
+	/**
+	 * @param index
+	 *            centres的精确索引，编号与centres相同
+	 */
+	public ClosureMDPBuilder(POMDP pomdp, BeliefStateVector<BeliefState> centres, BeliefIndex index, double epsilon) {
+		this.pomdp = pomdp;
+		this.centres = centres;
+		this.index = index;
+		this.epsilon = epsilon;
+	}
+
+	/**
+	 * 建立时使用的线程数，1表示串行
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism = Math.max(1, parallelism);
+	}
+
+	public ClosureMDP build() {
+		int n = centres.size();
+		Row[] rows = new Row[n];
+		if (parallelism > 1 && n > ROWS_PER_TASK) {
+			BeliefState[][] successors = new BeliefState[n][];
+			ThreadLocal<RowBuilder> builders = new ThreadLocal<RowBuilder>() {
+				protected RowBuilder initialValue() {
+					return new RowBuilder();
+				}
+			};
+			ForkJoinPool pool = new ForkJoinPool(parallelism);
+			try {
+				int successorCount = pomdp.getActionCount() * pomdp.getObservationCount();
+				int chunk = Math.max(parallelism, UNCACHED_SUCCESSORS_LIMIT / successorCount);
+				for (int from = 0; from < n; from += chunk) {
+					int to = Math.min(n, from + chunk);
+					pool.invoke(new RowTask(successors, null, from, to, builders));
+					for (int begin = from; begin < to; begin++)
+						cacheSuccessors(begin, successors[begin]);
+				}
+				pool.invoke(new RowTask(successors, rows, 0, n, builders));
+			} finally {
+				pool.shutdown();
+				builders.remove();
+			}
+		} else {
+			RowBuilder builder = new RowBuilder();
+			for (int begin = 0; begin < n; begin++)
+				rows[begin] = builder.build(begin, nextBeliefStates(begin));
+		}
+		return merge(rows);
+	}
+
+	/**
+	 * 起始闭包的各(a,o)后继，下标为a·|O| + o，P(o|b,a)为0时是null
+	 */
+	private BeliefState[] nextBeliefStates(int begin) {
+		BeliefState bs = centres.get(begin);
+		int observationCount = pomdp.getObservationCount();
+		BeliefState[] successors = new BeliefState[pomdp.getActionCount() * observationCount];
+		for (int iAction = 0; iAction < pomdp.getActionCount(); ++iAction)
+			for (int iObservation = 0; iObservation < observationCount; ++iObservation)
+				successors[iAction * observationCount + iObservation] = bs.nextBeliefState(iAction, iObservation);
+		return successors;
+	}
+
+	/**
+	 * 与nextBeliefStates相同，但新算出的后继不放入缓存，可以并行调用
+	 */
+	private BeliefState[] computeSuccessors(int begin) {
+		BeliefState bs = centres.get(begin);
+		int observationCount = pomdp.getObservationCount();
+		BeliefState[] successors = new BeliefState[pomdp.getActionCount() * observationCount];
+		for (int iAction = 0; iAction < pomdp.getActionCount(); ++iAction) {
+			for (int iObservation = 0; iObservation < observationCount; ++iObservation) {
+				BeliefState next = bs.getCachedSuccessor(iAction, iObservation);
+				if (next == null)
+					next = pomdp.getBeliefStateFactory().computeNextBeliefState(bs, iAction, iObservation);
+				successors[iAction * observationCount + iObservation] = next;
+			}
+		}
+		return successors;
+	}
+
+	/**
+	 * 把computeSuccessors算出的后继放入缓存，换成缓存中的信念点
+	 */
+	private void cacheSuccessors(int begin, BeliefState[] successors) {
+		BeliefState bs = centres.get(begin);
+		int observationCount = pomdp.getObservationCount();
+		for (int iAction = 0; iAction < pomdp.getActionCount(); ++iAction) {
+			for (int iObservation = 0; iObservation < observationCount; ++iObservation) {
+				int slot = iAction * observationCount + iObservation;
+				successors[slot] = bs.cacheSuccessor(iAction, iObservation, successors[slot]);
+			}
+		}
+	}
+
+	/**
+	 * 按起始闭包的顺序把各行拼接起来
+	 */
+	private ClosureMDP merge(Row[] rows) {
+		int n = rows.length;
+		int actionCount = pomdp.getActionCount();
+		int[] rowStarts = new int[n * actionCount + 1];
+		for (int begin = 0; begin < n; begin++) {
+			for (int iAction = 0; iAction < actionCount; iAction++) {
+				int row = begin * actionCount + iAction;
+				rowStarts[row + 1] = rowStarts[row] + rows[begin].lengths[iAction];
+			}
+		}
+		int[] ends = new int[rowStarts[n * actionCount]];
+		double[] transitions = new double[ends.length];
+		double[][] rewards = new double[n][];
+		for (int begin = 0; begin < n; begin++) {
+			Row row = rows[begin];
+			int offset = rowStarts[begin * actionCount];
+			System.arraycopy(row.ends, 0, ends, offset, row.ends.length);
+			System.arraycopy(row.transitions, 0, transitions, offset, row.transitions.length);
+			rewards[begin] = row.rewards;
+			rows[begin] = null;
+		}
+		return new ClosureMDP(n, actionCount, rowStarts, ends, transitions, rewards);
+	}
+
+	/**
+	 * 一个起始闭包的所有转移，按动作分段，段内终止闭包递增
+	 */
+	private static class Row {
+		int[] lengths;
+		int[] ends;
+		double[] transitions;
+		double[] rewards;
+	}
+
+	/**
+	 * rows为null时计算successors，否则由successors计算rows
+	 */
+	private class RowTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private BeliefState[][] successors;
+		private Row[] rows;
+		private int begin, end;
+		private ThreadLocal<RowBuilder> builders;
+
+		RowTask(BeliefState[][] successors, Row[] rows, int begin, int end, ThreadLocal<RowBuilder> builders) {
+			this.successors = successors;
+			this.rows = rows;
+			this.begin = begin;
+			this.end = end;
+			this.builders = builders;
+		}
+
+		protected void compute() {
+			// 计算后继时每次只有一小段起始闭包，拆分到单个闭包
+			if (end - begin > (rows == null ? 1 : ROWS_PER_TASK)) {
+				int middle = (begin + end) / 2;
+				invokeAll(new RowTask(successors, rows, begin, middle, builders),
+						new RowTask(successors, rows, middle, end, builders));
+				return;
+			}
+			if (rows == null) {
+				for (int i = begin; i < end; i++)
+					successors[i] = computeSuccessors(i);
+				return;
+			}
+			RowBuilder builder = builders.get();
+			for (int i = begin; i < end; i++) {
+				rows[i] = builder.build(i, successors[i]);
+				successors[i] = null;
+			}
+		}
+	}
+
+	/**
+	 * 计算一个起始闭包的行，数组在各行之间复用，每个线程一个
+	 */
+	private class RowBuilder {
+		// transitions[a][j]：落在闭包j中的后继的P(o|b,a)之和；counts[a][j]：这样的观察数
+		private double[][] transitions;
+		private int[][] counts;
+		// 这一行出现过的终止闭包
+		private boolean[] touched;
+		private int[] ends;
+		private int endCount;
+
+		RowBuilder() {
+			int n = centres.size();
+			int actionCount = pomdp.getActionCount();
+			transitions = new double[actionCount][n];
+			counts = new int[actionCount][n];
+			touched = new boolean[n];
+			ends = new int[n];
+			endCount = 0;
+		}
+
+		/**
+		 * @param successors
+		 *            起始闭包的各(a,o)后继，见nextBeliefStates
+		 */
+		Row build(int begin, BeliefState[] successors) {
+			compute(begin, successors);
+			return collect(begin);
+		}
+
+		private void compute(int begin, BeliefState[] successors) {
+			BeliefState bs = centres.get(begin);
+			int observationCount = pomdp.getObservationCount();
+			for (int iAction = 0; iAction < pomdp.getActionCount(); ++iAction) {
+				for (int iObservation = 0; iObservation < observationCount; ++iObservation) {
+					BeliefState next = successors[iAction * observationCount + iObservation];
+					if (next == null)
+						continue;
+					ArrayList<Integer> within = index.allWithin(next, epsilon);
+					if (within.isEmpty())
+						continue;
+					double probability = bs.probabilityOGivenA(iAction, iObservation);
+					for (int end : within) {
+						// 起始闭包和终止闭包不能是同一个闭包
+						if (end == begin)
+							continue;
+						if (!touched[end]) {
+							touched[end] = true;
+							ends[endCount++] = end;
+						}
+						transitions[iAction][end] += probability;
+						counts[iAction][end]++;
+					}
+				}
+			}
+		}
+
+		/**
+		 * 取出这一行T > 0的项，并清空数组供下一行使用
+		 */
+		private Row collect(int begin) {
+			int actionCount = pomdp.getActionCount();
+			Arrays.sort(ends, 0, endCount);
+			Row row = new Row();
+			row.lengths = new int[actionCount];
+			row.rewards = new double[actionCount];
+			int nonZeros = 0;
+			for (int iAction = 0; iAction < actionCount; ++iAction) {
+				for (int i = 0; i < endCount; i++) {
+					if (transitions[iAction][ends[i]] > 0.0)
+						row.lengths[iAction]++;
+				}
+				nonZeros += row.lengths[iAction];
+			}
+			row.ends = new int[nonZeros];
+			row.transitions = new double[nonZeros];
+			int k = 0;
+			for (int iAction = 0; iAction < actionCount; ++iAction) {
+				// 最大的T > 0的终止闭包对应的观察数，决定R(i,a)
+				int lastCount = 0;
+				for (int i = 0; i < endCount; i++) {
+					int end = ends[i];
+					double transition = transitions[iAction][end];
+					if (transition > 0.0) {
+						row.ends[k] = end;
+						row.transitions[k] = transition;
+						k++;
+						lastCount = counts[iAction][end];
+					}
+					transitions[iAction][end] = 0.0;
+					counts[iAction][end] = 0;
+				}
+				if (lastCount > 0) {
+					double immediateReward = pomdp.immediateReward(centres.get(begin), iAction);
+					double reward = 0.0;
+					for (int c = 0; c < lastCount; c++)
+						reward += immediateReward;
+					if (reward > 0.0)
+						row.rewards[iAction] = reward;
+				}
+			}
+			for (int i = 0; i < endCount; i++)
+				touched[ends[i]] = false;
+			endCount = 0;
+			return row;
+		}
+	}
+}
@@ -6,10 +6,16 @@ import pomdp.algorithms.ValueIteration;
 import pomdp.environments.POMDP;
 import pomdp.utilities.BeliefState;
 import pomdp.utilities.BeliefStateVector;
+import pomdp.utilities.BeliefStateVectorStore;
 import pomdp.utilities.Expander;
-import pomdp.utilities.SparseTabularFunction;
-import pomdp.utilities.datastructures.Function;
-import pomdp.utilities.distance.L1Distance;
+import pomdp.utilities.ExpansionStatistics;
+import pomdp.utilities.datastructures.DenseKernels;
+import pomdp.utilities.distance.BeliefIndex;
+import pomdp.utilities.distance.CauchyLSHIndex;
+import pomdp.utilities.distance.ClosureLookup;
+import pomdp.utilities.distance.DistanceMetric;
+import pomdp.utilities.distance.DistanceMetricFactory;
+import pomdp.utilities.distance.PairwiseDistanceEngine;
 
 public class NewMDPIteration extends ValueIteration {
 
@@ -20,9 +26,13 @@ public class NewMDPIteration extends ValueIteration {
 
 	public BeliefStateVector<BeliefState> vBeliefPoints; // 闭包代表点集合
 	public int maxAction[]; // 保存代表点所对应的动作
+	protected volatile BeliefIndex m_biCentres; // 闭包中心点的度量索引
+	protected volatile ClosureLookup m_clLookup; // 执行策略时查找闭包用
+	protected Expander m_expander; // 扩张中心点用的Expander，验证闭包时用它的索引
+	protected DistanceMetric m_dmMetric; // 判断信念点是否在闭包内的距离度量
+	protected double m_dEpsilon; // 实际使用的闭包半径，默认EPSILON，自适应扩张时是搜索得到的值
 
-	protected Function m_fTransition;
-	protected Function m_fReward;
+	protected ClosureMDP m_closureMDP; // 闭包间的转移概率和动作的立即回报值
 
 	protected int m_cStates;
 	protected int m_cActions;
@@ -31,6 +41,36 @@ public class NewMDPIteration extends ValueIteration {
 	public static final double EPSILON = 0.5; // 闭包半径
 	public static final int MAX_SIZE = 8000; // 最大闭包个数
 	public static final int MAX_LEVEL = 200; // 探索点的最深层数
+	public static final double BELIEF_CACHE_HEAP_FRACTION = 0.25; // 信念点缓存最多占用的堆内存比例
+	public static final String BELIEF_STORE_DIRECTORY = null; // 扩张结果和检查点的保存目录（例如"logs/beliefs"），null表示不保存
+	public static final int CHECKPOINT_INTERVAL_SECONDS = 60; // 扩张检查点的保存间隔，检查点也保存在BELIEF_STORE_DIRECTORY中
+	public static final int LSH_BANDS = 0; // LSH近似索引的散列表个数，0表示使用精确索引
+	public static final int LSH_ROWS = 4; // 每个散列表的键由几个散列值组成
+	public static final int LSH_RECALL_SAMPLE = 100; // 每多少次查询核对一次召回率
+	public static final boolean PROVE_CLOSURE_WITH_INDEX = false; // 验证闭包时只用扩张的索引查找重叠，不统计最小距离和直方图
+	public static final int DISTANCE_HISTOGRAM_BINS = 20; // 验证闭包时中心点间距离直方图的桶数
+	public static final double HISTOGRAM_MAX_DISTANCE = 2.0; // 直方图的上界，L1距离不超过2
+	public static final String DISTANCE_METRIC = "L1"; // 默认的距离度量，见DistanceMetricFactory
+	public static final boolean BEST_FIRST_EXPANSION = false; // 按到达概率最优先扩张，而不是R-BFS
+	public static final Expander.ExpansionPriority BEST_FIRST_PRIORITY = Expander.ExpansionPriority.DISCOUNTED_REACHABILITY; // 最优先扩张的权重
+	public static final boolean CLUSTERED_EXPANSION = false; // 先收集可达信念点再用完全链接聚类生成闭包，而不是R-BFS
+	public static final int CLUSTERING_REACHABLE_SIZE = 4 * MAX_SIZE; // 聚类前最多收集的可达信念点数
+	public static final double OBSERVATION_PRUNING_THRESHOLD = 0; // P(o|b,a)小于它的后继不生成，0表示不剪枝
+	public static final double PATH_PRUNING_THRESHOLD = 0; // 路径概率小于它的后继不生成，0表示不剪枝
+	public static final boolean SAMPLED_EXPANSION = false; // 沿模拟轨迹生成闭包，而不是生成每个信念点的全部后继
+	public static final int SAMPLED_TRAJECTORIES = 2000; // 采样扩张的轨迹数
+	public static final int SAMPLED_HORIZON = 100; // 每条轨迹的最大步数
+	public static final Expander.SamplingPolicy SAMPLING_POLICY = Expander.SamplingPolicy.LEAST_TRIED; // 采样扩张选择动作的策略
+	public static final double SAMPLING_EXPLORATION_RATE = 0.1; // REWARD_GREEDY的探索率
+	public static final String EXPANSION_STATISTICS_FILE = null; // 扩张按层的统计写入这个前缀（例如"logs/expansion"）的.csv和.json，null表示不写
+	public static final boolean ADAPTIVE_EPSILON = false; // 自动选择epsilon：闭包数不超过ADAPTIVE_TARGET_SIZE时尽量小，从EPSILON开始搜索
+	public static final int ADAPTIVE_TARGET_SIZE = MAX_SIZE; // 自适应epsilon的目标闭包数
+	public static final int ADAPTIVE_TIME_BUDGET_SECONDS = 0; // 搜索epsilon的时间预算，0表示不限制
+	public static final int ADAPTIVE_MAX_ROUNDS = 12; // 搜索epsilon的最多轮数
+	public static final double DENSE_ROW_FILL_RATIO = 0.5; // 值迭代中非零项超过这个比例的MDP行展开成稠密数组
+	public static final double ADAPTIVE_TOLERANCE = 0.02; // 可行和不可行的epsilon之比不超过1加上它时停止搜索
+	public static final int EXPANSION_THREADS = Runtime.getRuntime().availableProcessors(); // 并行扩张的线程数，1表示串行
+	public static final int CLOSURE_MDP_THREADS = EXPANSION_THREADS; // 并行建立闭包MDP的线程数，1表示串行
 
 	/**
 	 * 两个构造函数
@@ -38,25 +78,48 @@ public class NewMDPIteration extends ValueIteration {
 	public NewMDPIteration(POMDP pomdp) {
 		super(pomdp);
 
-		m_fTransition = null;
-		m_fReward = null;
+		m_closureMDP = null;
 		m_cStates = 0;
 		m_cActions = 0;
 		m_itCurrentIterationPoints = null;
+		m_expander = null;
+		m_dmMetric = DistanceMetricFactory.getMetric(DISTANCE_METRIC);
+		m_dEpsilon = EPSILON;
 		m_bRandomizedActions = true;
 	}
 
 	public NewMDPIteration(POMDP pomdp, boolean bRandomizedActionExpansion) {
 		super(pomdp);
 
-		m_fTransition = null;
-		m_fReward = null;
+		m_closureMDP = null;
 		m_cStates = 0;
 		m_cActions = 0;
 		m_itCurrentIterationPoints = null;
+		m_expander = null;
+		m_dmMetric = DistanceMetricFactory.getMetric(DISTANCE_METRIC);
+		m_dEpsilon = EPSILON;
 		m_bRandomizedActions = bRandomizedActionExpansion;
 	}
 
+	/**
+	 * 按名字选择距离度量（L1、L2、LInf、Hellinger、SymmetricKL），扩张、验证、建立转移和执行策略都使用它。
+	 * EPSILON的含义随度量改变，比较不同度量时可能需要相应调整。
+	 */
+	public void setDistanceMetric(String sMetricName) {
+		m_dmMetric = DistanceMetricFactory.getMetric(sMetricName);
+	}
+
+	public DistanceMetric getDistanceMetric() {
+		return m_dmMetric;
+	}
+
+	/**
+	 * 实际使用的闭包半径
+	 */
+	public double getEpsilon() {
+		return m_dEpsilon;
+	}
+
 	@Override
 	public int getAction(BeliefState bsCurrent) {
 		return m_vValueFunction.getBestAction(bsCurrent);
@@ -66,20 +129,50 @@ public class NewMDPIteration extends ValueIteration {
 	 * 执行算法的函数
 	 */
 	public void newIteration(POMDP pomdp) {
+		// 限制信念点缓存的大小，闭包中心点在扩张时被pin住，不会被淘汰
+		pomdp.getBeliefStateFactory().setCacheLimits(0,
+				(long) (Runtime.getRuntime().maxMemory() * BELIEF_CACHE_HEAP_FRACTION));
+
 		// 点集扩张，生成闭包
+		pomdp.getBeliefStateFactory().setDistanceMetric(m_dmMetric);
 		Expander expander = new Expander(pomdp);
+		expander.setMetric(m_dmMetric);
+		expander.setLSH(LSH_BANDS, LSH_ROWS, LSH_RECALL_SAMPLE);
+		expander.setParallelism(EXPANSION_THREADS);
+		expander.setPruning(OBSERVATION_PRUNING_THRESHOLD, PATH_PRUNING_THRESHOLD);
+		expander.setSampling(SAMPLING_POLICY, SAMPLING_EXPLORATION_RATE, 0);
+		m_expander = expander;
+		if (BELIEF_STORE_DIRECTORY != null) {
+			expander.setStore(new BeliefStateVectorStore(pomdp, BELIEF_STORE_DIRECTORY));
+			expander.setCheckpoint(BELIEF_STORE_DIRECTORY, CHECKPOINT_INTERVAL_SECONDS * 1000L);
+		}
+		if (EXPANSION_STATISTICS_FILE != null)
+			expander.addListener(new ExpansionStatistics.Writer(EXPANSION_STATISTICS_FILE));
 		// vBeliefPoints = expander.expand(EPSILON, MAX_SIZE, MAX_LEVEL);
-		vBeliefPoints = expander.expandRBFS(EPSILON, MAX_SIZE, MAX_LEVEL);
+		if (ADAPTIVE_EPSILON) {
+			vBeliefPoints = expander.expandAdaptive(EPSILON, ADAPTIVE_TARGET_SIZE, MAX_LEVEL,
+					ADAPTIVE_TIME_BUDGET_SECONDS * 1000L, ADAPTIVE_MAX_ROUNDS, ADAPTIVE_TOLERANCE);
+			m_dEpsilon = expander.getLastEpsilon();
+		} else if (BEST_FIRST_EXPANSION)
+			vBeliefPoints = expander.expandBestFirst(EPSILON, MAX_SIZE, MAX_LEVEL, BEST_FIRST_PRIORITY);
+		else if (SAMPLED_EXPANSION)
+			vBeliefPoints = expander.expandSampled(EPSILON, MAX_SIZE, SAMPLED_TRAJECTORIES, SAMPLED_HORIZON);
+		else if (CLUSTERED_EXPANSION)
+			vBeliefPoints = expander.expandClustered(EPSILON, CLUSTERING_REACHABLE_SIZE, MAX_LEVEL);
+		else
+			vBeliefPoints = expander.expandRBFS(EPSILON, MAX_SIZE, MAX_LEVEL);
+		m_biCentres = null;
+		m_clLookup = null;
+		for (BeliefState bs : vBeliefPoints) {
+			pomdp.getBeliefStateFactory().pinBeliefState(bs);
+		}
 
 		proveClosure();
 
 		m_cStates = vBeliefPoints.size();
 		m_cActions = pomdp.getActionCount();
-		// 初始化Function类
-		initDynamicsFunctions();
 
-		// 生成闭包间的转移概率，并存入m_fTransition中
-		// 生成动作的立即回报值，并存入m_fReward中
+		// 生成闭包间的转移概率和动作的立即回报值，存入m_closureMDP中
 		setTransitionsAndRewards(pomdp);
 
 		// MDP求解
@@ -91,26 +184,34 @@ public class NewMDPIteration extends ValueIteration {
 
 		// 计算ADR，在某个闭包内的信念点，动作就取闭包中心点的动作
 		testADR(pomdp);
+		if (m_clLookup != null) {
+			System.out.println(m_clLookup.getStatistics());
+		}
 
 	}
 
 	/**
-	 * 验证获得的闭包是否有重叠
+	 * 验证获得的闭包是否有重叠：报告所有距离小于EPSILON的中心点对、最小距离和距离直方图。
+	 * PROVE_CLOSURE_WITH_INDEX为true且扩张时建立了精确索引时，只用索引查找重叠的点对。
 	 */
 	private void proveClosure() {
-		L1Distance distancer = new L1Distance();
-		for (BeliefState bs1 : vBeliefPoints) {
-			for (BeliefState bs2 : vBeliefPoints) {
-				if (vBeliefPoints.indexOf(bs1) == vBeliefPoints.indexOf(bs2)) {
-					continue;
-				}
-				if (distancer.distance(bs1, bs2) < EPSILON) {
-					System.out.println("闭包相交！");
-					return;
-				}
+		PairwiseDistanceEngine engine = new PairwiseDistanceEngine(vBeliefPoints, m_dmMetric);
+		BeliefIndex centres = m_expander != null ? m_expander.getLastCentreIndex() : null;
+		PairwiseDistanceEngine.Result result = null;
+		// LSH索引可能漏掉重叠的点对，不能用来验证
+		if (PROVE_CLOSURE_WITH_INDEX && centres != null && !(centres instanceof CauchyLSHIndex)
+				&& centres.size() == vBeliefPoints.size()) {
+			result = engine.computeOverlaps(centres, m_dEpsilon);
+		} else {
+			result = engine.computeAllPairs(m_dEpsilon, DISTANCE_HISTOGRAM_BINS, HISTOGRAM_MAX_DISTANCE);
+		}
+		if (!result.getOverlaps().isEmpty()) {
+			System.out.println("闭包相交！相交的中心点对数：" + result.getOverlaps().size());
+			for (int[] pair : result.getOverlaps()) {
+				System.out.println("  " + pair[0] + " - " + pair[1]);
 			}
 		}
-		return;
+		System.out.println("闭包验证：" + result);
 	}
 
 	/**
@@ -124,16 +225,59 @@ public class NewMDPIteration extends ValueIteration {
 	 * 根据所给信念点，寻找所有闭包，在闭包半径内返回中心点对应的动作
 	 */
 	public int getBestAction(BeliefState bs) {
-		L1Distance distancer = new L1Distance();
+		return getBestAction(bs, -1);
+	}
 
-		for (int i = 0; i < m_cStates; i++) {
-			if (distancer.distance(bs, vBeliefPoints.get(i)) <= EPSILON) {
-				return maxAction[i];
-			}
+	/**
+	 * @param iTrajectory - 模拟轨迹的编号，同一条轨迹上相邻的信念点先检查上一步所在的闭包；小于0时不缓存
+	 */
+	public int getBestAction(BeliefState bs, int iTrajectory) {
+		// 编号最小的、距离不超过EPSILON的中心点，与原来按顺序查找的结果相同
+		int i = getClosureLookup().lookup(bs, iTrajectory);
+		if (i >= 0 && i < m_cStates) {
+			return maxAction[i];
 		}
 		return 0;
 	}
 
+	/**
+	 * 运行时的闭包查找结构，建立在中心点索引之上，第一次使用时建立
+	 */
+	protected ClosureLookup getClosureLookup() {
+		ClosureLookup clLookup = m_clLookup;
+		if (clLookup == null) {
+			synchronized (this) {
+				clLookup = m_clLookup;
+				if (clLookup == null) {
+					clLookup = new ClosureLookup(getCentreIndex(), m_pPOMDP.getStateCount(), m_dEpsilon);
+					m_clLookup = clLookup;
+				}
+			}
+		}
+		return clLookup;
+	}
+
+	/**
+	 * 闭包中心点的精确度量索引，第一次使用时建立；建好之后只读，可以多线程查询
+	 * 扩张时即使用了LSH近似索引，这里也不用：查找闭包和建立转移都需要精确的结果，漏掉的闭包会使动作变成0
+	 */
+	protected BeliefIndex getCentreIndex() {
+		BeliefIndex biCentres = m_biCentres;
+		if (biCentres == null) {
+			synchronized (this) {
+				biCentres = m_biCentres;
+				if (biCentres == null) {
+					biCentres = DistanceMetricFactory.newExactIndex(m_dmMetric);
+					for (BeliefState bsCentre : vBeliefPoints) {
+						biCentres.add(bsCentre);
+					}
+					m_biCentres = biCentres;
+				}
+			}
+		}
+		return biCentres;
+	}
+
 	/**
 	 * MDP求解算法
 	 */
@@ -154,29 +298,13 @@ public class NewMDPIteration extends ValueIteration {
 			maxAction[i] = 0;
 		}
 
-		//		 验证delta(s')是否为1
-		for (int i = 0; i < cStates; i++) {
-			for (int j = 0; j < cActions; j++) {
-				double sum = 0.0;
-				for (int k = 0; k < cStates; k++) {
-					if (i == k) continue;
-					sum += m_fTransition.valueAt(i, j, k);
-				}
-				for (int k = 0; k < cStates; k++) {
-					if (i == k) continue;
-					m_fTransition.setValue(i, j, k, m_fTransition.valueAt(i, j, k) / sum);
-				}
-			}
-		}
+		// 每行除以它的和，使转移概率之和为1
+		ClosureMDP mdp = m_closureMDP.normalize();
 
 //		 验证delta(s')是否为1
 		 for (int i = 0; i < cStates; i++) {
 			 for (int j = 0; j < cActions; j++) {
-				 double sum = 0.0;
-				 for (int k = 0; k < cStates; k++) {
-					 if (i == k) continue;
-					 sum += m_fTransition.valueAt(i, j, k);
-				 }
+				 double sum = mdp.rowSum(i, j);
 				 if (sum >= 1.0) System.out.format("T()sum = " + sum);
 			 }
 		 }
@@ -184,52 +312,60 @@ public class NewMDPIteration extends ValueIteration {
 		double t_maxReward = 0;
 		for (int i = 0; i < cStates; i++) {
 			for (int j = 0; j < cActions; j++) {
-				if (m_fReward.valueAt(i, j) > t_maxReward) {
-					t_maxReward = m_fReward.valueAt(i, j);
+				if (mdp.getReward(i, j) > t_maxReward) {
+					t_maxReward = mdp.getReward(i, j);
 				}
 			}
 		}
 		System.out.println("Max reward in R(s,a): " + t_maxReward);
 
-		do {
-			for (int i = 0; i < cStates; i++) {
-				utility[i] = utilityTemp[i];
+		// 非零项超过一定比例的行展开成稠密数组，用DenseKernels的向量化内积，其余的行直接遍历ClosureMDP中的非零项
+		DenseKernels dkKernels = DenseKernels.getInstance();
+		double[][] adDenseRows = new double[cStates * cActions][];
+		int cDenseRows = 0;
+		for (int i = 0; i < cStates; i++) {
+			for (int j = 0; j < cActions; j++) {
+				if (mdp.rowEnd(i, j) - mdp.rowStart(i, j) > cStates * DENSE_ROW_FILL_RATIO) {
+					double[] adRow = new double[cStates];
+					for (int k = mdp.rowStart(i, j); k < mdp.rowEnd(i, j); k++) {
+						adRow[mdp.getEnd(k)] = mdp.getTransition(k);
+					}
+					adDenseRows[i * cActions + j] = adRow;
+					cDenseRows++;
+				}
 			}
-			delta = 0.0;
+		}
+		System.out.println("Dense kernels: " + dkKernels.getName() + ", dense rows = " + cDenseRows + "/" + cStates * cActions);
+
+		do {
+			System.arraycopy(utilityTemp, 0, utility, 0, cStates);
 			// 遍历所有s
 			for (int i = 0; i < cStates; i++) {
 				double maxReward = 0.0;
 				// 寻找能使值函数最大的动作a
 				for (int j = 0; j < cActions; j++) {
+					// 没有转移的动作不参与选择（原来归一化时0/0得到NaN，同样不会被选中）
+					if (mdp.rowStart(i, j) == mdp.rowEnd(i, j)) {
+						continue;
+					}
 					double transitionReward = 0.0;
 					// 累加期望和，i是s，j是a，k是s'
-					for (int k = 0; k < cStates; k++) {
-						transitionReward = transitionReward + m_fTransition.valueAt(i, j, k) * utility[k];
-						// if(m_fTransition.valueAt(i, j, k) > 0.0) System.out.println("Transition = " +
-						// m_fTransition.valueAt(i, j, k));
+					if (adDenseRows[i * cActions + j] != null) {
+						transitionReward = dkKernels.dot(adDenseRows[i * cActions + j], utility);
+					} else {
+						transitionReward = mdp.dot(i, j, utility);
 					}
-//					if (i == 0) {
-//						System.out.println("s=0, a=" + j + " transitionReward: " + transitionReward);
-//					}
 					transitionReward = transitionReward * gama;
-					transitionReward = transitionReward + m_fReward.valueAt(i, j);
-					// if(m_fReward.valueAt(i, j) > 0.0) System.out.println("Reward = " +
-					// m_fReward.valueAt(i, j));
-					// System.out.println("transitionReward = " + transitionReward);
+					transitionReward = transitionReward + mdp.getReward(i, j);
 					if (transitionReward > maxReward) {
 						maxAction[i] = j; // 更替最佳动作
 						maxReward = transitionReward;
 					}
 				}
 				utilityTemp[i] = maxReward;
-				// 赋值给delta
-				delta = Math.max(delta, Math.abs(utilityTemp[i] - utility[i]));
-
-//				double utilityDiff = utilityTemp[i] - utility[i];
-//				System.out.println("utility[" + i + "] = " + utilityDiff + " ");
-
-//				System.out.println("delta = " + delta);
 			}
+			// 赋值给delta
+			delta = dkKernels.maxAbsDiff(utilityTemp, utility);
 
 			System.out.println("delta = " + delta);
 			double t = epsilon * (1 - gama) / gama;
@@ -244,49 +380,20 @@ public class NewMDPIteration extends ValueIteration {
 	}
 
 	/**
-	 * 生成闭包间的转移概率，并存入m_fTransition中 生成动作的立即回报值，并存入m_fReward中
+	 * 生成闭包间的转移概率和动作的立即回报值，存入m_closureMDP中
 	 */
 	private void setTransitionsAndRewards(POMDP pomdp) {
 		int actionCount = pomdp.getActionCount();
 		int observationCount = pomdp.getObservationCount();
-		L1Distance distancer = new L1Distance();
-		BeliefState beginNext = null;
 
 		System.out.println("actionCount = " + actionCount + ", observationCount = " + observationCount);
 
-		for (BeliefState begin : vBeliefPoints) {
-			for (BeliefState end : vBeliefPoints) {
-				// 起始闭包和终止闭包不能是同一个闭包
-				if (vBeliefPoints.indexOf(begin) == vBeliefPoints.indexOf(end)) {
-					continue;
-				}
-				for (int iAction = 0; iAction < actionCount; ++iAction) {
-					// 相同action的转移概率进行叠加
-					double transitionSumGivenA = 0.0;
-					// 回报值叠加
-					double rewardSumGivenA = 0.0;
-					for (int iObservation = 0; iObservation < observationCount; ++iObservation) {
-						beginNext = begin.nextBeliefState(iAction, iObservation);
-						// 注意beginNext有可能是null，所以要增加一个判断
-						if (beginNext != null && distancer.distance(beginNext, end) <= EPSILON) {
-							transitionSumGivenA += begin.probabilityOGivenA(iAction, iObservation);
-							rewardSumGivenA += pomdp.immediateReward(begin, iAction);
-						}
-					}
-					if (transitionSumGivenA > 0.0) {
-						// System.out.println("transitionSumGivenA = " + transitionSumGivenA);
-						// 设置T(s,a,s')
-						m_fTransition.setValue(vBeliefPoints.indexOf(begin), iAction, vBeliefPoints.indexOf(end),
-								transitionSumGivenA);
-						// 设置R(s,a)
-						if (rewardSumGivenA > 0.0) {
-							// System.out.println("rewardSumGivenA = " + rewardSumGivenA);
-							m_fReward.setValue(vBeliefPoints.indexOf(begin), iAction, rewardSumGivenA);
-						}
-					}
-				}
-			}
-		}
+		// 每个后继只计算一次，通过中心点索引找到包含它的闭包
+		ClosureMDPBuilder builder = new ClosureMDPBuilder(pomdp, vBeliefPoints, getCentreIndex(), m_dEpsilon);
+		builder.setParallelism(CLOSURE_MDP_THREADS);
+		m_closureMDP = builder.build();
+		System.out.println("Closure MDP: " + m_closureMDP.getStateCount() + " closures, "
+				+ m_closureMDP.getNonZeroCount() + " transitions");
 	}
 
 	/**
@@ -314,22 +421,4 @@ public class NewMDPIteration extends ValueIteration {
 		}
 		System.out.println();
 	}
-
-	/**
-	 * 根据状态、动作、观察值的数量初始化Function类，主要是初始化Function类里面的数据结构的长度
-	 */
-	private void initDynamicsFunctions() {
-		int[] aDims = new int[3];
-		aDims[0] = m_cStates;
-		aDims[1] = m_cActions;
-		aDims[2] = m_cStates;
-		// 实例化转移函数，三维
-		m_fTransition = new SparseTabularFunction(aDims);
-
-		aDims = new int[2];
-		aDims[0] = m_cStates;
-		aDims[1] = m_cActions;
-		// 实例化值函数，二维
-		m_fReward = new SparseTabularFunction(aDims);
-	}
 }
@@ -1,6 +1,8 @@
 package pomdp.environments;
 
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.Serializable;
 import java.util.AbstractCollection;
 import java.util.Collection;
@@ -22,6 +24,7 @@ import pomdp.utilities.RandomGenerator;
 import pomdp.utilities.SparseTabularFunction;
 import pomdp.utilities.TabularAlphaVector;
 import pomdp.utilities.datastructures.Function;
+import pomdp.utilities.datastructures.SparseVector;
 import pomdp.utilities.datastructures.TabularFunction;
 import pomdp.valuefunction.MDPValueFunction;
 
@@ -57,6 +60,7 @@ public class POMDP implements Serializable {
 	protected RandomGenerator m_rndGenerator;
 	protected long m_iRandomSeed;
 	protected String m_sName;
+	protected long m_lModelHash;
 	protected RewardType m_rtReward;
 	protected BeliefStateFactory m_bsFactory;
 	protected MDPValueFunction m_vfMDP;
@@ -85,6 +89,7 @@ public class POMDP implements Serializable {
 		m_iRandomSeed = 0;
 		m_rndGenerator = new RandomGenerator("POMDP");
 		m_sName = "";
+		m_lModelHash = 0;
 		m_rtReward = RewardType.StateAction;
 
 		m_bsFactory = null;
@@ -100,6 +105,7 @@ public class POMDP implements Serializable {
 			InvalidModelFileFormatException {
 		m_sName = sFileName.substring(sFileName.lastIndexOf("/") + 1,
 				sFileName.lastIndexOf("."));
+		m_lModelHash = computeFileHash(sFileName);
 		POMDPLoader p = new POMDPLoader(this);
 		p.load(sFileName);
 		if (m_rtReward == RewardType.StateActionState)
@@ -111,6 +117,27 @@ public class POMDP implements Serializable {
 		Logger.getInstance().logln();
 	}
 
+	/**
+	 * 模型文件内容的64位FNV-1a散列，用来判断保存下来的扩张结果是否属于同一个模型
+	 */
+	protected static long computeFileHash(String sFileName) throws IOException {
+		long lHash = 0xcbf29ce484222325L;
+		byte[] aBuffer = new byte[1 << 16];
+		int cRead = 0;
+		InputStream is = new FileInputStream(sFileName);
+		try {
+			while ((cRead = is.read(aBuffer)) > 0) {
+				for (int i = 0; i < cRead; i++) {
+					lHash ^= (aBuffer[i] & 0xff);
+					lHash *= 0x100000001b3L;
+				}
+			}
+		} finally {
+			is.close();
+		}
+		return lHash;
+	}
+
 	public BeliefStateFactory getBeliefStateFactory() {
 		return m_bsFactory;
 	}
@@ -195,8 +222,7 @@ public class POMDP implements Serializable {
 		int iEndState = 0;
 		double dReward = 0.0, dSumReward = 0.0;
 		double dTr = 0.0;
-		Iterator<Entry<Integer, Double>> itNonZeroEntries = null;
-		Entry<Integer, Double> e = null;
+		SparseVector vNonZeroEntries = null;
 
 		if (m_rtReward == RewardType.StateAction)
 			dReward = m_fReward.valueAt(iStartState, iAction);
@@ -209,17 +235,14 @@ public class POMDP implements Serializable {
 
 				dSumReward = m_fReward.valueAt(iStartState, iAction);
 				if (dSumReward == 0) {
-					itNonZeroEntries = m_fReward.getNonZeroEntries(iStartState,
+					vNonZeroEntries = m_fReward.getNonZeroRow(iStartState,
 							iAction);
-					if (itNonZeroEntries != null) {
-						while (itNonZeroEntries.hasNext()) {
-							e = itNonZeroEntries.next();
-							iEndState = ((Number) e.getKey()).intValue();
-							dReward = ((Number) e.getValue()).doubleValue();
-							dTr = tr(iStartState, iAction, iEndState);
-							if (dTr > 0)
-								dSumReward += dReward * dTr;
-						}
+					for (int i = 0; i < vNonZeroEntries.nnz(); i++) {
+						iEndState = vNonZeroEntries.index(i);
+						dReward = vNonZeroEntries.value(i);
+						dTr = tr(iStartState, iAction, iEndState);
+						if (dTr > 0)
+							dSumReward += dReward * dTr;
 					}
 				}
 
@@ -365,14 +388,13 @@ public class POMDP implements Serializable {
 		int iNextState = -1;
 		double dProb = m_rndGenerator.nextDouble();
 		double dTr = 0.0;
-		Iterator<Entry<Integer, Double>> itNonZero = getNonZeroTransitions(
-				iState, iAction);
-		Entry<Integer, Double> e = null;
+		SparseVector vNonZero = getTransitionRow(iState, iAction);
+		int i = 0;
 		while (dProb > 0) {
-			e = itNonZero.next();
-			iNextState = e.getKey();
-			dTr = e.getValue();
+			iNextState = vNonZero.index(i);
+			dTr = vNonZero.value(i);
 			dProb -= dTr;
+			i++;
 		}
 		return iNextState;
 	}
@@ -386,14 +408,13 @@ public class POMDP implements Serializable {
 	public int observe(int iAction, int iState) {
 		int iObservation = -1;
 		double dProb = m_rndGenerator.nextDouble(), dO = 0.0;
-		Iterator<Entry<Integer, Double>> itNonZeroObservations = m_fObservation
-				.getNonZeroEntries(iAction, iState);
-		Entry<Integer, Double> e = null;
+		SparseVector vNonZeroObservations = getObservationRow(iAction, iState);
+		int i = 0;
 		while (dProb > 0) {
-			e = itNonZeroObservations.next();
-			iObservation = e.getKey();
-			dO = e.getValue();
+			iObservation = vNonZeroObservations.index(i);
+			dO = vNonZeroObservations.value(i);
 			dProb -= dO;
+			i++;
 		}
 		if (iObservation == m_cObservations)
 			throw new Error("Corrupted observation function - O( "
@@ -421,7 +442,7 @@ public class POMDP implements Serializable {
 
 		//m_cSteps = 0;
 		for (iTest = 0; (iTest < cTests) && (dStandardError > 0.01 * dADR); iTest++) {
-			dDiscountedReward = computeDiscountedRewardII(cMaxStepsToGoal, aiActionCount, newMDP);
+			dDiscountedReward = computeDiscountedRewardII(cMaxStepsToGoal, aiActionCount, newMDP, iTest);
 			dSumSquares += (dDiscountedReward * dDiscountedReward);
 			dSumDiscountedRewards += dDiscountedReward;
 
@@ -468,6 +489,14 @@ public class POMDP implements Serializable {
 	 * @return
 	 */
 	public double computeDiscountedRewardII(int cMaxStepsToGoal, int[] aiActionCount, NewMDPIteration newMDP) {
+		return computeDiscountedRewardII(cMaxStepsToGoal, aiActionCount, newMDP, -1);
+	}
+
+	/**
+	 * @param iTrajectory - 轨迹编号，查找闭包时同一条轨迹共用上一步匹配的闭包；小于0时不使用
+	 */
+	public double computeDiscountedRewardII(int cMaxStepsToGoal, int[] aiActionCount, NewMDPIteration newMDP,
+			int iTrajectory) {
 		double dDiscountedReward = 0.0, dCurrentReward = 0.0, dDiscountFactor = 1.0;
 
 		int iStep = 0, iAction = 0, iObservation = 0;
@@ -482,7 +511,7 @@ public class POMDP implements Serializable {
 		for (iStep = 0; (iStep < cMaxStepsToGoal) && !bDone; iStep++) {
 
 			// 2018-5-13
-			iAction = newMDP.getBestAction(bsCurrentBelief);
+			iAction = newMDP.getBestAction(bsCurrentBelief, iTrajectory);
 
 			// iAction = m_rndGenerator.nextInt(m_cActions);
 
@@ -601,12 +630,12 @@ public class POMDP implements Serializable {
 	}
 
 	protected double computeImmediateReward(BeliefState bs, int iAction) {
-		int iState = 0;
+		int iState = 0, cNonZero = bs.nnz();
 		double dReward = 0.0, dPr = 0.0, dValue = 0.0;
 
-		for (Entry<Integer, Double> e : bs.getNonZeroEntries()) {
-			iState = e.getKey();
-			dPr = e.getValue();
+		for (int i = 0; i < cNonZero; i++) {
+			iState = bs.index(i);
+			dPr = bs.value(i);
 			dValue = R(iState, iAction);
 			dReward += dPr * dValue;
 		}
@@ -623,6 +652,17 @@ public class POMDP implements Serializable {
 		return m_fTransition.getNonZeroEntries(iStartState, iAction);
 	}
 
+	/**
+	 * 与getNonZeroTransitions内容和顺序相同，遍历时不分配对象
+	 */
+	public SparseVector getTransitionRow(int iStartState, int iAction) {
+		return m_fTransition.getNonZeroRow(iStartState, iAction);
+	}
+
+	public SparseVector getObservationRow(int iAction, int iEndState) {
+		return m_fObservation.getNonZeroRow(iAction, iEndState);
+	}
+
 	public Iterator<Entry<Integer, Double>> getNonZeroObservations(int iAction,
 			int iEndState) {
 		return m_fObservation.getNonZeroEntries(iAction, iEndState);
@@ -726,6 +766,10 @@ public class POMDP implements Serializable {
 		return m_sName;
 	}
 
+	public long getModelHash() {
+		return m_lModelHash;
+	}
+
 	public Vector<Integer> getObservationRelevantStates() {
 		return m_vObservationStates;
 	}
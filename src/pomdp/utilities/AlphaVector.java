@@ -16,6 +16,8 @@ import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
 
 import pomdp.environments.POMDP;
+import pomdp.utilities.datastructures.SparseVector;
+import pomdp.utilities.datastructures.VectorKernels;
 
 /**
  * @author Guy Shani
@@ -24,7 +26,7 @@ import pomdp.environments.POMDP;
  */
 
 
-public abstract class AlphaVector implements Serializable{
+public abstract class AlphaVector implements SparseVector, Serializable{
 	/**
 	 * 
 	 */
@@ -139,43 +141,12 @@ public abstract class AlphaVector implements Serializable{
 		return avResult;
 	}
 	
-	@SuppressWarnings({ "rawtypes", "unchecked" })
 	public AlphaVector copy(){
 		AlphaVector avCopy = newAlphaVector();
-			
-		int iState = 0;
-		double dValue = 0.0;
-		
-		Iterator<Entry<Integer, Double>> itNonZero = getNonZeroEntries();
-		if( itNonZero != null ){
-
-			Pair<Integer,Double> p = null;
-			Map.Entry e = null;
-			Object oElement = null;
-			
-			while( itNonZero.hasNext() ){
-				oElement = itNonZero.next();
-				if( oElement instanceof Pair ){
-					p = (Pair) oElement;
-					iState = ((Number)p.m_first).intValue();
-					dValue = ((Number)p.m_second).doubleValue();
-					avCopy.setValue( iState, dValue );
-				}
-				else if( oElement instanceof Map.Entry ){
-					e = (Map.Entry) oElement;
-					iState = ((Number)e.getKey()).intValue();
-					dValue = ((Number)e.getValue()).doubleValue();
-					avCopy.setValue( iState, dValue );
-				}
-			}
-		}
-		else{
-			for( int iValidState : m_pPOMDP.getValidStates() ){
-				dValue = valueAt( iValidState );
-				avCopy.setValue( iValidState, dValue );
-			}
+		int cNonZero = nnz();
+		for( int i = 0 ; i < cNonZero ; i++ ){
+			avCopy.setValue( index( i ), value( i ) );
 		}
-		
 		return avCopy;
 	}
 	
@@ -190,24 +161,23 @@ public abstract class AlphaVector implements Serializable{
 	}
 	
 	protected synchronized AlphaVector computeG( int iAction, int iObservation ){
-		int iStartState = 0, iEndState = 0;
+		int iStartState = 0, iEndState = 0, iTransition = 0, cTransitions = 0;
 		double dObservation = 0.0, dTr = 0.0, dValue = 0.0, dSum = 0.0;
 
 		AlphaVector avResult = newAlphaVector();
 		avResult.setAction( iAction );
 
-		Iterator<Entry<Integer,Double>> itNonZeroEntries = null;//第一个参数是转移后的状态，第二个参数是概率
-		Entry<Integer,Double> eValue = null;
+		SparseVector vTransitions = null;//下标是转移后的状态，值是概率
 		
 		for( iStartState = 0 ; iStartState < m_cStates ; iStartState++ ){
 			dSum = 0.0;
-			itNonZeroEntries = m_pPOMDP.getNonZeroTransitions( iStartState, iAction );//状态转移
+			vTransitions = m_pPOMDP.getTransitionRow( iStartState, iAction );//状态转移
+			cTransitions = vTransitions.nnz();
 			
-			while( itNonZeroEntries.hasNext() ){
-				eValue = itNonZeroEntries.next();
-				iEndState = eValue.getKey();
+			for( iTransition = 0 ; iTransition < cTransitions ; iTransition++ ){
+				iEndState = vTransitions.index( iTransition );
 				dValue = valueAt( iEndState );
-				dTr = eValue.getValue();//概率
+				dTr = vTransitions.value( iTransition );//概率
 				if( dValue != 0 ){
 					dObservation = m_pPOMDP.O( iAction, iEndState, iObservation );
 					dSum += dObservation * dTr * dValue;
@@ -228,44 +198,28 @@ public abstract class AlphaVector implements Serializable{
 		
 		int cBeliefNonZeroEntries = bs.getNonZeroEntriesCount();
 		int cAlphaNonZeroEntries = getNonZeroEntriesCount();
-		double dSum = 0.0, dProb = 0.0, dValue = 0.0;
-		int iState = 0;
-		Entry<Integer,Double> e = null;
 		
-		Iterator<Entry<Integer,Double>> iter;
-		if( cBeliefNonZeroEntries < cAlphaNonZeroEntries ){
-			iter = bs.getNonZeroEntries().iterator();
-			if( iter != null ){
-				while( iter.hasNext() ){
-					e =  iter.next();
-					iState = e.getKey().intValue();//状态
-					dProb = e.getValue().doubleValue();//在该状态的概率
-					dValue = valueAt( iState );//在该状态的值
-					dSum += dValue * dProb;
-				}
-			}
-		}
-		else{
-			iter = getNonZeroEntries();
-			if( iter != null ){
-				while( iter.hasNext() ){
-					e = iter.next();
-					iState = ((Integer) e.getKey()).intValue();
-					dValue = ((Double) e.getValue()).doubleValue();
-					dProb = bs.valueAt( iState );
-					dSum += dValue * dProb;
-				}
-			}			
-		}
+		//与原来一样，信念点的非零项不少于alpha时先把alpha整理成稀疏形式
+		if( cBeliefNonZeroEntries >= cAlphaNonZeroEntries )
+			nnz();
 		
-		if( iter == null ){
-			for( iState = 0 ; iState < m_cStates ; ++iState ){
-				dProb = bs.valueAt( iState );
-				dValue = valueAt( iState );
-				dSum += dValue * dProb;
-			}
+		//再按两边的表示方式选择内积实现
+		double[] adAlpha = getDenseValues(), adBelief = bs.getDenseValues();
+		if( adAlpha != null ){
+			if( adBelief != null )
+				return VectorKernels.dot( adBelief, adAlpha );
+			return VectorKernels.dot( bs, adAlpha );
 		}
-		return dSum;
+		if( adBelief != null )
+			return VectorKernels.dot( this, adBelief );
+		return VectorKernels.dot( this, bs );
+	}
+	
+	/**
+	 * 稠密表示的值数组，只读；已整理成稀疏形式时返回null
+	 */
+	public double[] getDenseValues(){
+		return null;
 	}
 	
 	public void parseValuesXML( Element eFunction ){
@@ -12,20 +12,26 @@ import java.util.Comparator;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.TreeMap;
-import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import pomdp.utilities.datastructures.PriorityQueueElement;
+import pomdp.utilities.datastructures.SparseVector;
 
-public abstract class BeliefState extends PriorityQueueElement implements Serializable{
+public abstract class BeliefState extends PriorityQueueElement implements SparseVector, Serializable{
 
 	private static final long serialVersionUID = 8715715835544313266L;
+	protected static final double FINGERPRINT_QUANTUM_INVERSE = 1.0E6;
+	private static final long FINGERPRINT_OFFSET = 0xcbf29ce484222325L;
+	private static final long FINGERPRINT_PRIME = 0x100000001b3L;
 	protected double[][] m_aCachedObservationProbabilities;
 	protected int m_cStates;
-	private Vector<BeliefState> m_vPredecessors;
 	protected Map<BeliefState, Pair<Double, Integer>> m_mProbCurrentGivenPred;
-	protected Map<Integer,Pair<BeliefState, Double>>[] m_amSuccessors;
-	private Vector<BeliefState> m_vAllSuccessors;
+	/*
+	 * 后继缓存，下标为iAction * m_cObservations + iObservation。
+	 * 多个线程可以同时扩张同一个信念点，不需要加锁。
+	 */
+	protected AtomicReferenceArray<BeliefState> m_aSuccessors;
 	protected int m_cActions;
 	protected int m_cObservations;
 	protected boolean m_bCacheBeliefStates;
@@ -38,10 +44,13 @@ public abstract class BeliefState extends PriorityQueueElement implements Serial
 	protected int m_iMaxBeliefState;
 	protected double m_dMaxBelief;
 	protected double[] m_aStateProbabilities; // 状态概率
+	protected long m_lFingerprint;
+	protected boolean m_bFingerprintValid;
+	protected boolean m_bMaxBeliefValid;
 	private boolean marked;
+	private boolean pinned;
 	private int level = 1;
 	
-	@SuppressWarnings({ "unchecked", "rawtypes" })
 	public BeliefState( int cStates, int cActions, int cObservations, int id, boolean bCacheBeliefStates, BeliefStateFactory bsFactory ){
 		super();
 		m_bCacheBeliefStates = bCacheBeliefStates;
@@ -54,16 +63,16 @@ public abstract class BeliefState extends PriorityQueueElement implements Serial
 		m_dMaxBelief = 0.0;
 		
 		marked = false;
+		pinned = false;
 
+		m_bFingerprintValid = false;
+		m_bMaxBeliefValid = false;
 
 		if( m_bCacheBeliefStates ){
-			m_amSuccessors = new TreeMap[m_cActions];
-			for( int iAction = 0 ; iAction < m_cActions ; iAction++ ){
-				m_amSuccessors[iAction] = new TreeMap( );
-			}
+			m_aSuccessors = new AtomicReferenceArray<BeliefState>( m_cActions * m_cObservations );
 		}
 		else{
-			m_amSuccessors = null;
+			m_aSuccessors = null;
 		}
 		m_aCachedObservationProbabilities = new double[m_cActions][m_cObservations];
 		for( int i = 0 ; i< m_cActions ; i++ ){
@@ -72,10 +81,8 @@ public abstract class BeliefState extends PriorityQueueElement implements Serial
 			}
 		}
 
-		m_vPredecessors = new Vector<BeliefState>();
-
 		m_dComputedValue = 0;
-		m_mProbCurrentGivenPred = new TreeMap<BeliefState, Pair<Double, Integer>>( getComparator() );
+		m_mProbCurrentGivenPred = new ConcurrentHashMap<BeliefState, Pair<Double, Integer>>();
 
 		m_dLastMaxValue = 0.0;
 		m_avLastMaxAlpha = null;
@@ -85,10 +92,6 @@ public abstract class BeliefState extends PriorityQueueElement implements Serial
 			m_adActionImmediateReward[iAction] = Double.NEGATIVE_INFINITY;
 		}
 		m_dImmediateReward = Double.NEGATIVE_INFINITY;
-
-
-		m_vAllSuccessors = new Vector<BeliefState>();
-
 	}
 	
 	public int getLevel()
@@ -114,11 +117,40 @@ public abstract class BeliefState extends PriorityQueueElement implements Serial
 		marked = false;
 	}
 	
+	/**
+	 * 被pin住的信念点不会被BeliefStateCache淘汰
+	 */
+	public boolean isPinned()
+	{
+		return pinned;
+	}
+	
+	public void setPinned( boolean bPinned )
+	{
+		pinned = bPinned;
+	}
+	
 	public double[] getStatePro()
 	{
 		return m_aStateProbabilities;
 	}
 	
+	/**
+	 * 信念点是否以稠密数组保存（由finalizeValues时的填充率决定）
+	 */
+	public boolean isDense()
+	{
+		return false;
+	}
+	
+	/**
+	 * 稠密表示的概率数组，只读；稀疏表示的信念点返回null
+	 */
+	public double[] getDenseValues()
+	{
+		return null;
+	}
+	
 	public void setMaxAlpha( AlphaVector avMax){
 		m_avLastMaxAlpha = avMax;
 	}
@@ -141,10 +173,9 @@ public abstract class BeliefState extends PriorityQueueElement implements Serial
 		return m_bsFactory;
 	}
 
-	public synchronized void addPredecessor( BeliefState bs, double dProb, int iAction ){
-		if( m_bCacheBeliefStates && !m_vPredecessors.contains( bs ) ){
-			m_vPredecessors.add( bs );
-			m_mProbCurrentGivenPred.put( bs, new Pair<Double, Integer>( new Double( dProb ), new Integer( iAction ) ) );
+	public void addPredecessor( BeliefState bs, double dProb, int iAction ){
+		if( m_bCacheBeliefStates && !m_mProbCurrentGivenPred.containsKey( bs ) ){
+			m_mProbCurrentGivenPred.putIfAbsent( bs, new Pair<Double, Integer>( new Double( dProb ), new Integer( iAction ) ) );
 		}
 	}
 	
@@ -159,19 +190,22 @@ public abstract class BeliefState extends PriorityQueueElement implements Serial
 	 * @param iObservation
 	 * @return
 	 */
-	public synchronized BeliefState nextBeliefState( int iAction, int iObservation ){
+	public BeliefState nextBeliefState( int iAction, int iObservation ){
 		BeliefState bsNext = null;
 		if( m_bCacheBeliefStates && getBeliefStateFactory().isCachingBeliefStates() ){
 
-			Integer iKey = new Integer( iObservation );
-			Pair<BeliefState, Double> pEntry = m_amSuccessors[iAction].get( iKey );
-			if( pEntry == null ){
+			int iSlot = iAction * m_cObservations + iObservation;
+			bsNext = m_aSuccessors.get( iSlot );
+			if( bsNext == null ){
 				bsNext = getBeliefStateFactory().nextBeliefState( this, iAction, iObservation );
-				if( ( bsNext != null ) && ( getBeliefStateFactory().isCachingBeliefStates() ) )
-					addSuccessor( iAction, iObservation, bsNext );//添加到后继点集合中
-			}
-			else{
-				bsNext = (BeliefState) pEntry.m_first;
+				if( ( bsNext != null ) && ( getBeliefStateFactory().isCachingBeliefStates() ) ){
+					//添加到后继点集合中，若其他线程已经先填好了这个位置就用它的结果
+					if( !m_aSuccessors.compareAndSet( iSlot, null, bsNext ) ){
+						BeliefState bsOther = m_aSuccessors.get( iSlot );
+						if( bsOther != null )
+							bsNext = bsOther;
+					}
+				}
 			}
 		}
 		else{
@@ -180,13 +214,85 @@ public abstract class BeliefState extends PriorityQueueElement implements Serial
 		return bsNext;
 	}
 
-	public synchronized void addSuccessor( int iAction, int iObservation, BeliefState bsSuccessor ){
-		Integer iKey = new Integer( iObservation );
-		double dProb = probabilityOGivenA( iAction, iObservation );
-		Pair<BeliefState, Double> pEntry = new Pair<BeliefState, Double>( bsSuccessor, new Double( dProb ) );
-		m_amSuccessors[iAction].put( iKey, pEntry );
-		if( !m_vAllSuccessors.contains( bsSuccessor ) )
-			m_vAllSuccessors.add( bsSuccessor );
+	/**
+	 * 放入用BeliefStateFactory.computeNextBeliefState算出的后继，返回nextBeliefState会返回的信念点
+	 * 按固定的顺序调用时，结果与按这个顺序依次调用nextBeliefState相同
+	 * @param bsComputed - 算出的后继，P(o|b,a)为0时是null
+	 */
+	public BeliefState cacheSuccessor( int iAction, int iObservation, BeliefState bsComputed ){
+		if( bsComputed == null )
+			return null;
+		BeliefStateFactory bsf = getBeliefStateFactory();
+		if( m_bCacheBeliefStates && bsf.isCachingBeliefStates() ){
+			int iSlot = iAction * m_cObservations + iObservation;
+			BeliefState bsNext = m_aSuccessors.get( iSlot );
+			if( bsNext != null )
+				return bsNext;
+			bsNext = bsf.cacheNextBeliefState( this, iAction, iObservation, bsComputed );
+			if( !m_aSuccessors.compareAndSet( iSlot, null, bsNext ) ){
+				BeliefState bsOther = m_aSuccessors.get( iSlot );
+				if( bsOther != null )
+					bsNext = bsOther;
+			}
+			return bsNext;
+		}
+		return bsf.cacheNextBeliefState( this, iAction, iObservation, bsComputed );
+	}
+
+	/**
+	 * 已经计算过的后继，不触发计算
+	 * @return 后继信念点，尚未计算、概率为0或不缓存后继时返回null
+	 */
+	public BeliefState getCachedSuccessor( int iAction, int iObservation ){
+		if( m_aSuccessors == null )
+			return null;
+		return m_aSuccessors.get( iAction * m_cObservations + iObservation );
+	}
+	
+	public void addSuccessor( int iAction, int iObservation, BeliefState bsSuccessor ){
+		m_aSuccessors.set( iAction * m_cObservations + iObservation, bsSuccessor );
+	}
+	
+	protected void removeSuccessor( BeliefState bsSuccessor ){
+		if( m_aSuccessors != null ){
+			for( int iSlot = 0 ; iSlot < m_aSuccessors.length() ; iSlot++ ){
+				m_aSuccessors.compareAndSet( iSlot, bsSuccessor, null );
+			}
+		}
+	}
+	
+	protected void removePredecessor( BeliefState bsPredecessor ){
+		m_mProbCurrentGivenPred.remove( bsPredecessor );
+	}
+	
+	/**
+	 * 断开与前驱、后继之间的引用，在信念点被缓存淘汰时调用。
+	 */
+	public void clearLinks(){
+		for( BeliefState bsPredecessor : m_mProbCurrentGivenPred.keySet() ){
+			if( bsPredecessor != this )
+				bsPredecessor.removeSuccessor( this );
+		}
+		m_mProbCurrentGivenPred.clear();
+		if( m_aSuccessors != null ){
+			for( int iSlot = 0 ; iSlot < m_aSuccessors.length() ; iSlot++ ){
+				BeliefState bsSuccessor = m_aSuccessors.getAndSet( iSlot, null );
+				if( bsSuccessor != null && bsSuccessor != this )
+					bsSuccessor.removePredecessor( this );
+			}
+		}
+	}
+	
+	/**
+	 * 估计该信念点占用的字节数，用于BeliefStateCache的字节预算
+	 */
+	public long getEstimatedSize(){
+		long cBytes = 256;
+		cBytes += 12L * getNonZeroEntriesCount();
+		cBytes += 8L * m_cActions * m_cObservations; // 观察概率缓存
+		if( m_bCacheBeliefStates )
+			cBytes += 8L * m_cActions * m_cObservations; // 后继缓存的引用数组
+		return cBytes;
 	}
 	
 	/*
@@ -205,6 +311,16 @@ public abstract class BeliefState extends PriorityQueueElement implements Serial
 		return dValue;
 	}
 	
+	/**
+	 * 已缓存的P(o|b,a)，不触发计算
+	 * @return 尚未计算时返回负数
+	 */
+	public double getCachedProbabilityOGivenA( int iAction, int iObservation ){
+		if( m_aCachedObservationProbabilities == null )
+			return -1.0;
+		return m_aCachedObservationProbabilities[iAction][iObservation];
+	}
+	
 	public void setProbabilityOGivenA( int iAction, int iObservation, double dValue ){
 		if( m_aCachedObservationProbabilities != null )
 			m_aCachedObservationProbabilities[iAction][iObservation] = dValue;
@@ -213,6 +329,116 @@ public abstract class BeliefState extends PriorityQueueElement implements Serial
 	public abstract double valueAt( int iState );
 
 	public abstract void setValueAt( int iState, double dValue );
+	
+	/**
+	 * 在所有概率都设置好之后调用，整理内部存储并计算指纹。
+	 * 之后信念点可以安全地在多个线程之间共享。
+	 */
+	public void finalizeValues(){
+		computeMaxBelief();
+		getFingerprint();
+	}
+	
+	/**
+	 * 按最终的概率重新计算最大概率和对应的状态（相同时取下标最小的）。
+	 * setValueAt过程中记录的最大值可能是归一化之前的值。
+	 */
+	protected void computeMaxBelief(){
+		int cNonZero = nnz();
+		m_dMaxBelief = 0.0;
+		m_iMaxBeliefState = -1;
+		for( int i = 0 ; i < cNonZero ; i++ ){
+			if( value( i ) > m_dMaxBelief ){
+				m_dMaxBelief = value( i );
+				m_iMaxBeliefState = index( i );
+			}
+		}
+		m_bMaxBeliefValid = true;
+	}
+	
+	/**
+	 * 最大的概率，finalizeValues之后才有效
+	 */
+	public double getMaxBelief(){
+		return m_dMaxBelief;
+	}
+	
+	/**
+	 * finalizeValues之后概率没有再改变过时为true，此时getMaxBelief和getMostLikelyState可以用于距离下界
+	 */
+	public boolean isMaxBeliefValid(){
+		return m_bMaxBeliefValid;
+	}
+	
+	/**
+	 * 量化后的概率分布指纹，用于BeliefStateCache分桶。
+	 * 量化步长远大于比较器的epsilon，但靠近量化边界的项在epsilon之内也可能量化成相邻的值，
+	 * 所以相等的信念点不一定得到相同的指纹，查找时还要用getNeighbourFingerprints检查相邻的量化值。
+	 */
+	public long getFingerprint(){
+		if( !m_bFingerprintValid ){
+			m_lFingerprint = computeFingerprint();
+			m_bFingerprintValid = true;
+		}
+		return m_lFingerprint;
+	}
+	
+	protected long computeFingerprint(){
+		long lHash = FINGERPRINT_OFFSET;
+		int cNonZero = nnz();
+		for( int i = 0 ; i < cNonZero ; i++ ){
+			lHash = hashFingerprintEntry( lHash, index( i ), Math.round( value( i ) * FINGERPRINT_QUANTUM_INVERSE ) );
+		}
+		return lHash;
+	}
+	
+	private static long hashFingerprintEntry( long lHash, int iState, long lQuantized ){
+		if( lQuantized == 0 )
+			return lHash;
+		lHash = ( lHash ^ iState ) * FINGERPRINT_PRIME;
+		return ( lHash ^ lQuantized ) * FINGERPRINT_PRIME;
+	}
+	
+	/**
+	 * 与这个信念点在dEpsilon之内相等（见BeliefStateComparator）的信念点可能得到的所有指纹。
+	 * 相等的信念点每一项的量化值只能是value-dEpsilon和value+dEpsilon量化后的两个值之一，
+	 * 只有靠近量化边界的项有两种可能，所以通常只有getFingerprint()一个。
+	 * @return 第一个是getFingerprint()；可能的指纹超过cMaxFingerprints个时返回null
+	 */
+	public long[] getNeighbourFingerprints( double dEpsilon, int cMaxFingerprints ){
+		int cNonZero = nnz(), cAmbiguous = 0, i = 0;
+		// 放宽一倍，抵消value±dEpsilon的舍入误差
+		double dMargin = 2 * dEpsilon * FINGERPRINT_QUANTUM_INVERSE, dScaled = 0.0;
+		for( i = 0 ; i < cNonZero ; i++ ){
+			dScaled = value( i ) * FINGERPRINT_QUANTUM_INVERSE;
+			if( Math.round( dScaled - dMargin ) != Math.round( dScaled + dMargin ) )
+				cAmbiguous++;
+		}
+		if( cAmbiguous == 0 )
+			return new long[]{ getFingerprint() };
+		if( cAmbiguous >= 31 || ( 1 << cAmbiguous ) > cMaxFingerprints )
+			return null;
+		// 第iMask个指纹中，第k个有两种可能的项在iMask的第k位为1时取另一个量化值，所以第0个就是getFingerprint()
+		long[] alFingerprints = new long[1 << cAmbiguous];
+		for( int iMask = 0 ; iMask < alFingerprints.length ; iMask++ ){
+			long lHash = FINGERPRINT_OFFSET, lQuantized = 0, lLow = 0, lHigh = 0;
+			int iAmbiguous = 0;
+			for( i = 0 ; i < cNonZero ; i++ ){
+				dScaled = value( i ) * FINGERPRINT_QUANTUM_INVERSE;
+				lQuantized = Math.round( dScaled );
+				lLow = Math.round( dScaled - dMargin );
+				lHigh = Math.round( dScaled + dMargin );
+				if( lLow != lHigh ){
+					if( ( ( iMask >> iAmbiguous ) & 1 ) != 0 )
+						lQuantized = ( lQuantized == lLow ) ? lHigh : lLow;
+					iAmbiguous++;
+				}
+				lHash = hashFingerprintEntry( lHash, index( i ), lQuantized );
+			}
+			alFingerprints[iMask] = lHash;
+		}
+		return alFingerprints;
+	}
 
 	public int getMostLikelyState(){
 		return m_iMaxBeliefState;
@@ -229,4 +455,15 @@ public abstract class BeliefState extends PriorityQueueElement implements Serial
 	}
 	public abstract int getNonZeroEntriesCount();
 	
+	/*
+	 * SparseVector游标，按状态下标升序访问非零项
+	 */
+	public int nnz(){
+		return getNonZeroEntriesCount();
+	}
+	
+	public abstract int index( int i );
+	
+	public abstract double value( int i );
+	
 }
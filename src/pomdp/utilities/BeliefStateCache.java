@@ -0,0 +1,407 @@
+package pomdp.utilities;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * BeliefStateFactory使用的有界信念点缓存
+ *
+ * 按条目数或估计字节数限制缓存大小，超出后按LRU或CLOCK策略淘汰。
+ * 被pin住的信念点（闭包中心点）永远不会被淘汰。
+ * 淘汰时会断开该点与前驱、后继之间的引用，使其可以被回收。
+ *
+ * 缓存按信念点的量化指纹分成多个stripe，每个stripe有自己的锁，
+ * 多个线程可以同时查找和插入，不需要全局锁。
+ * 指纹相同的信念点再用比较器（epsilon之内相等）确认。
+ *
+ * 相等的信念点可能落在相邻的量化值上，指纹不同，所以查找时检查BeliefState.getNeighbourFingerprints
+ * 给出的所有指纹（通常只有一个），putIfAbsent同时锁住这些指纹所在的stripe，保证相等的信念点只缓存一个。
+ * 可能的指纹太多时（很多项同时靠近量化边界，极少见）逐个检查所有条目。
+ */
+public class BeliefStateCache {
+
+	public enum EvictionPolicy {
+		LRU, CLOCK;
+	}
+
+	protected static final int STRIPE_COUNT = 64;
+	// 一次查找最多检查的指纹数，再多就检查所有条目
+	protected static final int MAX_NEIGHBOUR_FINGERPRINTS = 64;
+
+	protected Comparator<BeliefState> m_cmpBeliefStates;
+	protected double m_dEpsilon;
+	protected Stripe[] m_aStripes;
+	protected EvictionPolicy m_epPolicy;
+	protected int m_cMaxEntries;
+	protected long m_cMaxBytes;
+
+	/**
+	 * @param dEpsilon
+	 *            比较器认为相等的两个信念点每一项最多相差多少
+	 */
+	public BeliefStateCache( Comparator<BeliefState> cmpBeliefStates, double dEpsilon, EvictionPolicy epPolicy, int cMaxEntries, long cMaxBytes ){
+		m_cmpBeliefStates = cmpBeliefStates;
+		m_dEpsilon = dEpsilon;
+		m_epPolicy = epPolicy;
+		m_aStripes = new Stripe[STRIPE_COUNT];
+		for( int iStripe = 0 ; iStripe < STRIPE_COUNT ; iStripe++ )
+			m_aStripes[iStripe] = new Stripe();
+		setLimits( cMaxEntries, cMaxBytes );
+	}
+
+	public BeliefStateCache( Comparator<BeliefState> cmpBeliefStates, double dEpsilon ){
+		this( cmpBeliefStates, dEpsilon, EvictionPolicy.LRU, 0, 0 );
+	}
+
+	protected Stripe getStripe( long lFingerprint ){
+		return m_aStripes[getStripeIndex( lFingerprint )];
+	}
+
+	protected int getStripeIndex( long lFingerprint ){
+		int iHash = (int)( lFingerprint ^ ( lFingerprint >>> 32 ) );
+		iHash ^= ( iHash >>> 16 );
+		return iHash & ( STRIPE_COUNT - 1 );
+	}
+
+	/**
+	 * 查找与bs相等（在比较器的epsilon之内）的已缓存信念点
+	 * @param bs
+	 * @return 已缓存的信念点，不存在时返回null
+	 */
+	public BeliefState get( BeliefState bs ){
+		long[] alFingerprints = bs.getNeighbourFingerprints( m_dEpsilon, MAX_NEIGHBOUR_FINGERPRINTS );
+		if( alFingerprints == null )
+			return scan( bs );
+		for( long lFingerprint : alFingerprints ){
+			Stripe stripe = getStripe( lFingerprint );
+			synchronized( stripe ){
+				BeliefState bsExisting = stripe.get( bs, lFingerprint );
+				if( bsExisting != null )
+					return bsExisting;
+			}
+		}
+		return null;
+	}
+
+	public void put( BeliefState bs ){
+		putIfAbsent( bs );
+	}
+
+	/**
+	 * 原子地查找并插入
+	 * @param bs
+	 * @return 已存在的相等信念点，若不存在则插入bs并返回null
+	 */
+	public BeliefState putIfAbsent( BeliefState bs ){
+		long[] alFingerprints = bs.getNeighbourFingerprints( m_dEpsilon, MAX_NEIGHBOUR_FINGERPRINTS );
+		if( alFingerprints != null && alFingerprints.length == 1 ){
+			long lFingerprint = alFingerprints[0];
+			Stripe stripe = getStripe( lFingerprint );
+			synchronized( stripe ){
+				BeliefState bsExisting = stripe.get( bs, lFingerprint );
+				if( bsExisting != null )
+					return bsExisting;
+				stripe.put( bs, lFingerprint );
+				return null;
+			}
+		}
+		// 按下标递增的顺序锁住所有相关的stripe，避免死锁
+		boolean[] abLocked = new boolean[STRIPE_COUNT];
+		int cLocked = 0;
+		if( alFingerprints == null ){
+			Arrays.fill( abLocked, true );
+			cLocked = STRIPE_COUNT;
+		}
+		else{
+			for( long lFingerprint : alFingerprints ){
+				int iStripe = getStripeIndex( lFingerprint );
+				if( !abLocked[iStripe] ){
+					abLocked[iStripe] = true;
+					cLocked++;
+				}
+			}
+		}
+		int[] aiStripes = new int[cLocked];
+		cLocked = 0;
+		for( int iStripe = 0 ; iStripe < STRIPE_COUNT ; iStripe++ ){
+			if( abLocked[iStripe] )
+				aiStripes[cLocked++] = iStripe;
+		}
+		return putIfAbsent( bs, alFingerprints, aiStripes, 0 );
+	}
+
+	private BeliefState putIfAbsent( BeliefState bs, long[] alFingerprints, int[] aiStripes, int iNextStripe ){
+		if( iNextStripe < aiStripes.length ){
+			synchronized( m_aStripes[aiStripes[iNextStripe]] ){
+				return putIfAbsent( bs, alFingerprints, aiStripes, iNextStripe + 1 );
+			}
+		}
+		BeliefState bsExisting = null;
+		if( alFingerprints == null ){
+			for( Stripe stripe : m_aStripes ){
+				bsExisting = stripe.scan( bs );
+				if( bsExisting != null )
+					return bsExisting;
+			}
+		}
+		else{
+			for( long lFingerprint : alFingerprints ){
+				bsExisting = getStripe( lFingerprint ).get( bs, lFingerprint );
+				if( bsExisting != null )
+					return bsExisting;
+			}
+		}
+		long lFingerprint = bs.getFingerprint();
+		getStripe( lFingerprint ).put( bs, lFingerprint );
+		return null;
+	}
+
+	/**
+	 * 逐个检查所有条目，bs可能的指纹太多时使用
+	 */
+	private BeliefState scan( BeliefState bs ){
+		for( Stripe stripe : m_aStripes ){
+			synchronized( stripe ){
+				BeliefState bsExisting = stripe.scan( bs );
+				if( bsExisting != null )
+					return bsExisting;
+			}
+		}
+		return null;
+	}
+
+	public void setLimits( int cMaxEntries, long cMaxBytes ){
+		m_cMaxEntries = cMaxEntries;
+		m_cMaxBytes = cMaxBytes;
+		for( Stripe stripe : m_aStripes ){
+			synchronized( stripe ){
+				stripe.m_cMaxEntries = cMaxEntries > 0 ? ( cMaxEntries + STRIPE_COUNT - 1 ) / STRIPE_COUNT : 0;
+				stripe.m_cMaxBytes = cMaxBytes > 0 ? ( cMaxBytes + STRIPE_COUNT - 1 ) / STRIPE_COUNT : 0;
+				stripe.evict();
+			}
+		}
+	}
+
+	public int size(){
+		int cEntries = 0;
+		for( Stripe stripe : m_aStripes ){
+			synchronized( stripe ){
+				cEntries += stripe.m_mEntries.size();
+			}
+		}
+		return cEntries;
+	}
+
+	public long getEstimatedBytes(){
+		long cBytes = 0;
+		for( Stripe stripe : m_aStripes ){
+			synchronized( stripe ){
+				cBytes += stripe.m_cBytes;
+			}
+		}
+		return cBytes;
+	}
+
+	public long getEvictionCount(){
+		long cEvictions = 0;
+		for( Stripe stripe : m_aStripes ){
+			synchronized( stripe ){
+				cEvictions += stripe.m_cEvictions;
+			}
+		}
+		return cEvictions;
+	}
+
+	/**
+	 * 淘汰所有未被pin住的信念点，在内存不足时使用
+	 * @return 淘汰的数量
+	 */
+	public int evictAll(){
+		int cEvicted = 0;
+		for( Stripe stripe : m_aStripes ){
+			synchronized( stripe ){
+				cEvicted += stripe.evictAll();
+			}
+		}
+		return cEvicted;
+	}
+
+	/**
+	 * 一个stripe：指纹到条目链表的散列表，以及LRU顺序或CLOCK环。
+	 * 所有方法都要在持有该stripe的锁时调用。
+	 */
+	protected class Stripe {
+		protected HashMap<Long, CacheEntry> m_mByFingerprint;
+		protected LinkedHashMap<BeliefState, CacheEntry> m_mEntries;
+		protected ArrayList<CacheEntry> m_vClock;
+		protected int m_iClockHand;
+		protected int m_cMaxEntries;
+		protected long m_cMaxBytes;
+		protected long m_cBytes;
+		protected long m_cEvictions;
+
+		public Stripe(){
+			m_mByFingerprint = new HashMap<Long, CacheEntry>();
+			// LRU依赖LinkedHashMap的访问顺序，CLOCK只需要插入顺序
+			m_mEntries = new LinkedHashMap<BeliefState, CacheEntry>( 16, 0.75f, m_epPolicy == EvictionPolicy.LRU );
+			m_vClock = new ArrayList<CacheEntry>();
+			m_iClockHand = 0;
+			m_cBytes = 0;
+			m_cEvictions = 0;
+		}
+
+		protected BeliefState get( BeliefState bs, long lFingerprint ){
+			CacheEntry ce = m_mByFingerprint.get( lFingerprint );
+			while( ce != null ){
+				if( ce.m_bsBelief == bs || m_cmpBeliefStates.compare( ce.m_bsBelief, bs ) == 0 ){
+					m_mEntries.get( ce.m_bsBelief ); // LRU下更新访问顺序
+					ce.m_bReferenced = true;
+					return ce.m_bsBelief;
+				}
+				ce = ce.m_ceNext;
+			}
+			return null;
+		}
+
+		protected BeliefState scan( BeliefState bs ){
+			for( CacheEntry ce : m_mByFingerprint.values() ){
+				BeliefState bsExisting = get( bs, ce.m_lFingerprint );
+				if( bsExisting != null )
+					return bsExisting;
+			}
+			return null;
+		}
+
+		protected void put( BeliefState bs, long lFingerprint ){
+			CacheEntry ce = new CacheEntry( bs, lFingerprint );
+			ce.m_ceNext = m_mByFingerprint.get( lFingerprint );
+			m_mByFingerprint.put( lFingerprint, ce );
+			m_mEntries.put( bs, ce );
+			if( m_epPolicy == EvictionPolicy.CLOCK )
+				m_vClock.add( ce );
+			m_cBytes += ce.m_cBytes;
+			evict();
+		}
+
+		protected boolean overBudget(){
+			if( m_cMaxEntries > 0 && m_mEntries.size() > m_cMaxEntries )
+				return true;
+			if( m_cMaxBytes > 0 && m_cBytes > m_cMaxBytes )
+				return true;
+			return false;
+		}
+
+		protected void evict(){
+			if( !overBudget() )
+				return;
+			if( m_epPolicy == EvictionPolicy.LRU )
+				evictLRU();
+			else
+				evictClock();
+		}
+
+		private void evictLRU(){
+			Iterator<CacheEntry> it = m_mEntries.values().iterator();
+			while( overBudget() && it.hasNext() ){
+				CacheEntry ce = it.next();
+				if( !ce.m_bsBelief.isPinned() ){
+					it.remove();
+					remove( ce );
+				}
+			}
+		}
+
+		private void evictClock(){
+			// 最多扫描两圈：第一圈清除引用位，第二圈必然能找到可淘汰的点（除非全部被pin住）
+			int cSteps = 2 * m_vClock.size();
+			while( overBudget() && cSteps > 0 && !m_vClock.isEmpty() ){
+				if( m_iClockHand >= m_vClock.size() )
+					m_iClockHand = 0;
+				CacheEntry ce = m_vClock.get( m_iClockHand );
+				if( ce.m_bEvicted ){
+					m_vClock.remove( m_iClockHand );
+					continue;
+				}
+				if( !ce.m_bsBelief.isPinned() ){
+					if( ce.m_bReferenced ){
+						ce.m_bReferenced = false;
+					}
+					else{
+						m_mEntries.remove( ce.m_bsBelief );
+						remove( ce );
+					}
+				}
+				m_iClockHand++;
+				cSteps--;
+			}
+			if( m_vClock.size() > 2 * m_mEntries.size() + 16 )
+				compactClock();
+		}
+
+		protected int evictAll(){
+			int cEvicted = 0;
+			Iterator<CacheEntry> it = m_mEntries.values().iterator();
+			while( it.hasNext() ){
+				CacheEntry ce = it.next();
+				if( !ce.m_bsBelief.isPinned() ){
+					it.remove();
+					remove( ce );
+					cEvicted++;
+				}
+			}
+			compactClock();
+			return cEvicted;
+		}
+
+		private void compactClock(){
+			Iterator<CacheEntry> it = m_vClock.iterator();
+			while( it.hasNext() ){
+				if( it.next().m_bEvicted )
+					it.remove();
+			}
+			m_iClockHand = 0;
+		}
+
+		private void remove( CacheEntry ce ){
+			CacheEntry ceHead = m_mByFingerprint.get( ce.m_lFingerprint );
+			if( ceHead == ce ){
+				if( ce.m_ceNext == null )
+					m_mByFingerprint.remove( ce.m_lFingerprint );
+				else
+					m_mByFingerprint.put( ce.m_lFingerprint, ce.m_ceNext );
+			}
+			else{
+				while( ceHead != null && ceHead.m_ceNext != ce )
+					ceHead = ceHead.m_ceNext;
+				if( ceHead != null )
+					ceHead.m_ceNext = ce.m_ceNext;
+			}
+			m_cBytes -= ce.m_cBytes;
+			m_cEvictions++;
+			ce.m_bEvicted = true;
+			ce.m_bsBelief.clearLinks();
+		}
+	}
+
+	protected static class CacheEntry {
+		protected BeliefState m_bsBelief;
+		protected long m_lFingerprint;
+		protected CacheEntry m_ceNext;
+		protected long m_cBytes;
+		protected boolean m_bReferenced;
+		protected boolean m_bEvicted;
+
+		public CacheEntry( BeliefState bs, long lFingerprint ){
+			m_bsBelief = bs;
+			m_lFingerprint = lFingerprint;
+			m_ceNext = null;
+			m_cBytes = bs.getEstimatedSize();
+			m_bReferenced = true;
+			m_bEvicted = false;
+		}
+	}
+}
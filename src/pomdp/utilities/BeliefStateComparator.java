@@ -1,7 +1,5 @@
 package pomdp.utilities;
 import java.util.Comparator;
-import java.util.Iterator;
-import java.util.Map.Entry;
 
 public class BeliefStateComparator implements Comparator<BeliefState> {
 	protected double m_dEpsilon;
@@ -31,60 +29,38 @@ public class BeliefStateComparator implements Comparator<BeliefState> {
 	public int compare( BeliefState bs1, BeliefState bs2 ){
 					
 		//Non deterministic belief states
-		Iterator<Entry<Integer, Double>> itFirstNonZero = bs1.getNonZeroEntries().iterator();
-		Iterator<Entry<Integer, Double>> itSecondNonZero = bs2.getNonZeroEntries().iterator();
-		int iState1 = -1, iState2 = -1;
+		int cNonZero1 = bs1.nnz(), cNonZero2 = bs2.nnz();
+		int i1 = 0, i2 = 0;
+		int iState1 = 0, iState2 = 0;
 		double dValue1 = 0.0, dValue2 = 0.0;
-		Belief b = null;
 				
-		while( ( iState1 < Integer.MAX_VALUE ) || ( iState2 < Integer.MAX_VALUE ) ){
+		while( ( i1 < cNonZero1 ) || ( i2 < cNonZero2 ) ){
+			iState1 = ( i1 < cNonZero1 ) ? bs1.index( i1 ) : Integer.MAX_VALUE;
+			iState2 = ( i2 < cNonZero2 ) ? bs2.index( i2 ) : Integer.MAX_VALUE;
 			if( iState1 == iState2 ){
+				dValue1 = bs1.value( i1 );
+				dValue2 = bs2.value( i2 );
 				if( Math.abs( dValue1 - dValue2 ) > m_dEpsilon ){
 					if( dValue1 > dValue2 )
 						return 1;
 					else
 						return -1;
 				}
-				b = new Belief( itFirstNonZero );
-				iState1 = b.iState;
-				dValue1 = b.dValue;
-				b = new Belief( itSecondNonZero );
-				iState2 = b.iState;
-				dValue2 = b.dValue;
+				i1++;
+				i2++;
 			}
 			else if( iState1 < iState2 ){
-				if( dValue1 > m_dEpsilon )
+				if( bs1.value( i1 ) > m_dEpsilon )
 					return 1;
-				b = new Belief( itFirstNonZero );
-				iState1 = b.iState;
-				dValue1 = b.dValue;
+				i1++;
 			}
-			else if( iState2 < iState1 ){
-				if( dValue2 > m_dEpsilon )
+			else{
+				if( bs2.value( i2 ) > m_dEpsilon )
 					return -1;
-				b = new Belief( itSecondNonZero );
-				iState2 = b.iState;
-				dValue2 = b.dValue;
+				i2++;
 			}			
 		}
 		
 		return 0;
 	}
-
-	public class Belief{
-		public int iState;
-		public double dValue;
-		
-		public Belief( Iterator<Entry<Integer, Double>> it ){
-			if( it.hasNext() ){
-				Entry<Integer, Double> e = (Entry<Integer, Double>)it.next();
-				iState = ((Integer) e.getKey()).intValue();
-				dValue = ((Double) e.getValue()).doubleValue();
-			}
-			else{
-				iState = Integer.MAX_VALUE;
-				dValue = -1.0;
-			}
-		}
-	}
 }
@@ -3,14 +3,15 @@ package pomdp.utilities;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.Iterator;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.TreeMap;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import pomdp.environments.POMDP;
+import pomdp.utilities.datastructures.SparseVector;
+import pomdp.utilities.distance.BeliefIndex;
 import pomdp.utilities.distance.DistanceMetric;
 import pomdp.utilities.distance.L1Distance;
+import pomdp.utilities.distance.LinearScanIndex;
 
 public class BeliefStateFactory{
 
@@ -18,16 +19,22 @@ public class BeliefStateFactory{
 	/*
 	 * m_bCacheBeliefStates为true时，
 	 * 各种计算出来的b，都会在这里缓存着。
+	 * 缓存可以设置条目数或字节数上限，超出后淘汰未被pin住的信念点。
 	 */
-	protected TreeMap<BeliefState,BeliefState> m_hmCachedBeliefStates;
+	protected BeliefStateCache m_bcCachedBeliefStates;
+	protected BeliefStateCache.EvictionPolicy m_epEvictionPolicy = BeliefStateCache.EvictionPolicy.LRU;
+	protected int m_cMaxCachedBeliefStates = 0;
+	protected long m_cMaxCachedBytes = 0;
 	protected int m_cDiscretizationLevels;
-	protected int m_cBeliefPoints;//记录信念点的数量
+	protected AtomicInteger m_cBeliefPoints;//记录信念点的数量
 	protected boolean m_bCacheBeliefStates;
 	protected boolean m_bSparseBeliefStates = true;
 	protected BeliefState m_bsInitialState;
 	public static double m_dEpsilon = 0.000000001;
 	protected BeliefState m_bsUniformState;
 	protected RandomGenerator m_rndGenerator = new RandomGenerator( "BeliefStateFactory" );
+	protected DistanceMetric m_dmDistance = L1Distance.getInstance();
+	protected volatile Runnable m_rOutOfMemoryHandler = null;
 
 	public long m_cBeliefStateSize;
 	public BeliefStateFactory( POMDP pomdp, int cDiscretizationLevels ){
@@ -37,8 +44,9 @@ public class BeliefStateFactory{
 	}
 
 	private void init(){
-		m_hmCachedBeliefStates = new TreeMap<BeliefState,BeliefState>(getBeliefStateComparator(m_dEpsilon));
-		m_cBeliefPoints = 0;
+		m_bcCachedBeliefStates = new BeliefStateCache( getBeliefStateComparator( m_dEpsilon ), m_dEpsilon, m_epEvictionPolicy,
+				m_cMaxCachedBeliefStates, m_cMaxCachedBytes );
+		m_cBeliefPoints = new AtomicInteger( 0 );
 		m_bsInitialState = null;
 		m_bsUniformState = null;
 		m_cBeliefStateSize = 0;
@@ -52,19 +60,16 @@ public class BeliefStateFactory{
 	//b_a,o(s') = O(a,s',o)\sum_s tr(s,a,s')b(s)
 		protected double nextBeliefValue( BeliefState bs, int iAction, int iEndState, int iObservation ){
 			double dProb = 0.0, dO = 0.0, dTr = 0.0, dBelief = 0.0;
-			int iStartState = 0;
-
-			Logger.getInstance().log( "BeliefStateFactory", 11, "nextBeliefValue", " s' = " + iEndState );
+			int iStartState = 0, cNonZero = 0;
 
 			dO = m_pPOMDP.O( iAction, iEndState, iObservation );
 			if( dO == 0.0 )
 				return 0.0;
 
-			Collection<Entry<Integer,Double>> colBSNonZero = bs.getNonZeroEntries();
-			
-			for( Entry<Integer, Double> e : colBSNonZero ){
-				iStartState = e.getKey();
-				dBelief = e.getValue();
+			cNonZero = bs.nnz();
+			for( int i = 0 ; i < cNonZero ; i++ ){
+				iStartState = bs.index( i );
+				dBelief = bs.value( i );
 				dTr = m_pPOMDP.tr( iStartState, iAction, iEndState );//执行动作iAction，iStartState转移到iEndState的概率
 				dProb += dTr * dBelief;
 			}
@@ -73,6 +78,32 @@ public class BeliefStateFactory{
 			return dProb;
 		}
 
+		/**
+		 * 稠密信念点的预测步：按起始状态顺序把b(s)*tr(s,a,s')累加到每个s'上。
+		 * 累加顺序与对每个s'逐个调用nextBeliefValue相同，结果逐位一致，
+		 * 但只遍历转移矩阵的非零项，不再对每一对(s,s')查找tr。
+		 * @return 长度为|S|的数组，第s'项为sum_s b(s)tr(s,a,s')
+		 */
+		protected double[] forwardTransitions( BeliefState bs, int iAction ){
+			double[] adValues = new double[m_pPOMDP.getStateCount()];
+			double[] adBelief = bs.getDenseValues();
+			double dBelief = 0.0;
+			SparseVector vTransitions = null;
+			int cTransitions = 0, iTransition = 0;
+
+			for( int iStartState = 0 ; iStartState < adBelief.length ; iStartState++ ){
+				dBelief = adBelief[iStartState];
+				if( dBelief != 0.0 ){
+					vTransitions = m_pPOMDP.getTransitionRow( iStartState, iAction );
+					cTransitions = vTransitions.nnz();
+					for( iTransition = 0 ; iTransition < cTransitions ; iTransition++ ){
+						adValues[vTransitions.index( iTransition )] += vTransitions.value( iTransition ) * dBelief;
+					}
+				}
+			}
+			return adValues;
+		}
+
 	public BeliefStateFactory( POMDP pomdp ){
 		this( pomdp, -1 );
 	}
@@ -87,22 +118,69 @@ public class BeliefStateFactory{
 		return bFormerValue;
 	}
 	
+	/**
+	 * 设置信念点缓存的上限，<=0表示不限制
+	 * @param cMaxBeliefStates - 最多缓存的信念点个数
+	 * @param cMaxBytes - 缓存估计占用的最大字节数
+	 */
+	public void setCacheLimits( int cMaxBeliefStates, long cMaxBytes ){
+		m_cMaxCachedBeliefStates = cMaxBeliefStates;
+		m_cMaxCachedBytes = cMaxBytes;
+		m_bcCachedBeliefStates.setLimits( cMaxBeliefStates, cMaxBytes );
+	}
+	
+	/**
+	 * 设置淘汰策略，会清空当前缓存
+	 */
+	public void setEvictionPolicy( BeliefStateCache.EvictionPolicy epPolicy ){
+		m_epEvictionPolicy = epPolicy;
+		m_bcCachedBeliefStates = new BeliefStateCache( getBeliefStateComparator( m_dEpsilon ), m_dEpsilon, m_epEvictionPolicy,
+				m_cMaxCachedBeliefStates, m_cMaxCachedBytes );
+	}
+	
+	/**
+	 * distance(Collection, BeliefState)使用的距离度量，默认L1
+	 */
+	public void setDistanceMetric( DistanceMetric dmDistance ){
+		m_dmDistance = dmDistance;
+	}
+	
+	public DistanceMetric getDistanceMetric(){
+		return m_dmDistance;
+	}
+	
+	public BeliefStateCache getBeliefStateCache(){
+		return m_bcCachedBeliefStates;
+	}
+	
+	/**
+	 * pin住的信念点不会被缓存淘汰，用于闭包中心点
+	 */
+	public void pinBeliefState( BeliefState bs ){
+		bs.setPinned( true );
+	}
+	
+	public void unpinBeliefState( BeliefState bs ){
+		bs.setPinned( false );
+	}
+	
 	protected BeliefState newBeliefState(){
-		return newBeliefState( m_cBeliefPoints );
+		return newBeliefState( m_cBeliefPoints.get() );
 	}
 	
-	public BeliefState getUniformBeliefState(){
+	public synchronized BeliefState getUniformBeliefState(){
 		if( m_bsUniformState == null ){
 			int iState = 0, cStates = m_pPOMDP.getStateCount();
 			double dUnifomValue = 1.0 / cStates;
 			m_bsUniformState = newBeliefState();
 			for( iState = 0 ; iState < cStates ; iState++ )
 				m_bsUniformState.setValueAt( iState, dUnifomValue );
+			m_bsUniformState.finalizeValues();
 
-			BeliefState bsExisting = m_hmCachedBeliefStates.get( m_bsUniformState );
+			BeliefState bsExisting = m_bcCachedBeliefStates.get( m_bsUniformState );
 			if( bsExisting == null ){
 				//cacheBeliefState( m_bsUniformState );
-				m_cBeliefPoints++;
+				m_cBeliefPoints.incrementAndGet();
 			}
 			else{
 				m_bsUniformState = bsExisting;
@@ -124,10 +202,10 @@ public class BeliefStateFactory{
 		return bs;
 	}
 	
-	public BeliefState getInitialBeliefState(){
+	public synchronized BeliefState getInitialBeliefState(){
 		if( m_bsInitialState == null ){
 			BeliefState bsInitial = newBeliefState();
-			m_cBeliefPoints++;
+			m_cBeliefPoints.incrementAndGet();
 			int iState = 0, cStates = m_pPOMDP.getStateCount();
 			double dSum = 0.0, dValue = 0.0;
 			Logger.getInstance().logln(m_pPOMDP.probStartState(0));
@@ -138,6 +216,7 @@ public class BeliefStateFactory{
 			}
 			if( dSum < 0.99999 || dSum > 1.000001 )
 				Logger.getInstance().log( "BeliefStateFactory", 0, "getInitialBeliefState", "Corrupted initial belief state " + m_bsInitialState.toString() );
+			bsInitial.finalizeValues();
 			cacheBeliefState( bsInitial );
 			m_bsInitialState = bsInitial;
 			Logger.getInstance().log( "BeliefStateFactory", 11, "getInitialBeliefState", m_bsInitialState.toString() );
@@ -145,24 +224,45 @@ public class BeliefStateFactory{
 		return m_bsInitialState;
 	}
 	
+	/**
+	 * 用保存下来的稀疏概率重建信念点，并放入缓存
+	 * 若缓存中已有相等的信念点（例如初始信念点）就返回已有的那个，保证同一个信念点只有一个对象
+	 * @param aiStates - 非零项的状态，升序
+	 * @param adValues - 对应的概率
+	 * @return 缓存中的信念点
+	 */
+	public BeliefState restoreBeliefState( int[] aiStates, double[] adValues ){
+		BeliefState bs = newBeliefState();
+		for( int i = 0 ; i < aiStates.length ; i++ ){
+			bs.setValueAt( aiStates[i], adValues[i] );
+		}
+		bs.finalizeValues();
+		if( !m_bCacheBeliefStates ){
+			m_cBeliefPoints.incrementAndGet();
+			return bs;
+		}
+		BeliefState bsExisting = m_bcCachedBeliefStates.putIfAbsent( bs );
+		if( bsExisting != null )
+			return bsExisting;
+		m_cBeliefPoints.incrementAndGet();
+		return bs;
+	}
+	
 	public double calcNormalizingFactor( BeliefState bs, int iAction, int iObservation ){//计算bs执行动作action，得到观察observation的概率
 
 		double dProb = 0.0, dO = 0.0, dBelief = 0.0, dTr = 0.0, dSum = 0.0;
-		int iStartState = 0, iEndState = 0;
-		Iterator<Entry<Integer,Double>> itNonZeroTransitions = null;
-		Iterator<Entry<Integer,Double>> itNonZeroBeliefs = bs.getNonZeroEntries().iterator();
-		Map.Entry<Integer,Double> eTransition = null, eBelief = null;
-
-		while( itNonZeroBeliefs.hasNext() ){
-			eBelief = itNonZeroBeliefs.next();
-			iStartState = (eBelief.getKey()).intValue();//获得状态
-			dBelief = (eBelief.getValue()).doubleValue();//得到每个状态的概率
+		int iStartState = 0, iEndState = 0, cNonZeroBeliefs = bs.nnz(), cTransitions = 0;
+		SparseVector vTransitions = null;
+
+		for( int iBelief = 0 ; iBelief < cNonZeroBeliefs ; iBelief++ ){
+			iStartState = bs.index( iBelief );//获得状态
+			dBelief = bs.value( iBelief );//得到每个状态的概率
 			dSum = 0.0;
-			itNonZeroTransitions = m_pPOMDP.getNonZeroTransitions( iStartState, iAction );//在状态s下，执行动作a所能够转移到的状态
-			while( itNonZeroTransitions.hasNext() ){
-				eTransition = itNonZeroTransitions.next();
-				iEndState = (eTransition.getKey()).intValue();
-				dTr = (eTransition.getValue()).doubleValue();//转移到iEndState的概率
+			vTransitions = m_pPOMDP.getTransitionRow( iStartState, iAction );//在状态s下，执行动作a所能够转移到的状态
+			cTransitions = vTransitions.nnz();
+			for( int iTransition = 0 ; iTransition < cTransitions ; iTransition++ ){
+				iEndState = vTransitions.index( iTransition );
+				dTr = vTransitions.value( iTransition );//转移到iEndState的概率
 				dO = m_pPOMDP.O( iAction, iEndState, iObservation );//已知执行动作a并转移到状态s，得到观察o的概率
 				dSum += dO * dTr;
 			}
@@ -177,8 +277,20 @@ public class BeliefStateFactory{
 	 * @param iObservation - observation
 	 * @return next belief state
 	 */
-	@SuppressWarnings("rawtypes")
 	public BeliefState nextBeliefState( BeliefState bs, int iAction, int iObservation ){//计算下一个信念点
+		BeliefState bsNext = computeNextBeliefState( bs, iAction, iObservation );
+		if( bsNext == null )
+			return null;
+		return cacheNextBeliefState( bs, iAction, iObservation, bsNext );
+	}
+
+	/**
+	 * 计算下一个信念点但不放入缓存，可以在多个线程中同时调用
+	 * 之后再用cacheNextBeliefState放入缓存。缓存把相差在容差以内的信念点当作同一个，先放入的留下，
+	 * 所以按固定的顺序放入时，得到的信念点与按这个顺序依次调用nextBeliefState相同，与计算的顺序无关。
+	 * @return 未放入缓存的信念点，P(o|b,a)为0时返回null
+	 */
+	public BeliefState computeNextBeliefState( BeliefState bs, int iAction, int iObservation ){
 		try{
 			BeliefState bsNext = newBeliefState();//new一个信念点
 
@@ -186,29 +298,32 @@ public class BeliefStateFactory{
 			double dBelief = 0.0, dTr = 0.0, dOb = 0.0;
 			int iEndState = 0, iStartState = 0;
 			int cStates = m_pPOMDP.getStateCount();
-			Collection<Entry<Integer, Double>> cNonZeroBeliefs = bs.getNonZeroEntries();
-			Iterator<Entry<Integer, Double>> itNonZeroTransitions = null;
-			Entry<Integer, Double> eTr = null;
+			int cNonZeroBeliefs = bs.nnz(), cTransitions = 0;
+			SparseVector vTransitions = null;
 
 			dNormalizingFactor = 0.0;
 
-			if( cNonZeroBeliefs.size() > m_pPOMDP.getStateCount() / 2.0 ){	//sparse beliefs
+			if( bs.isDense() ){	//dense beliefs
+				double[] adNextValues = forwardTransitions( bs, iAction );
 				for( iEndState = 0 ; iEndState < cStates ; iEndState++ ){
-					dNextValue = nextBeliefValue( bs, iAction, iEndState, iObservation );
+					dNextValue = 0.0;
+					dOb = m_pPOMDP.O( iAction, iEndState, iObservation );
+					if( dOb != 0.0 )
+						dNextValue = adNextValues[iEndState] * dOb;
 					bsNext.setValueAt( iEndState, dNextValue );//设置信念点在每一个状态的概率
 					dNormalizingFactor += dNextValue;
 				}
 			}
 			else
 			{
-				for( Entry<Integer, Double> eBelief : cNonZeroBeliefs ){ //dense beliefs
-					iStartState = eBelief.getKey();
-					dBelief = eBelief.getValue();
-					itNonZeroTransitions = m_pPOMDP.getNonZeroTransitions( iStartState, iAction );
-					while( itNonZeroTransitions.hasNext() ){
-						eTr = itNonZeroTransitions.next();
-						iEndState = eTr.getKey();
-						dTr = eTr.getValue();
+				for( int iBelief = 0 ; iBelief < cNonZeroBeliefs ; iBelief++ ){ //sparse beliefs
+					iStartState = bs.index( iBelief );
+					dBelief = bs.value( iBelief );
+					vTransitions = m_pPOMDP.getTransitionRow( iStartState, iAction );
+					cTransitions = vTransitions.nnz();
+					for( int iTransition = 0 ; iTransition < cTransitions ; iTransition++ ){
+						iEndState = vTransitions.index( iTransition );
+						dTr = vTransitions.value( iTransition );
 						dOb = m_pPOMDP.O( iAction, iEndState, iObservation );
 						if( dOb > 0.0 ){
 							dNextValue = bsNext.valueAt( iEndState );
@@ -227,48 +342,81 @@ public class BeliefStateFactory{
 
 
 
-			Iterator itNonZeroEntries = bsNext.getNonZeroEntries().iterator();
-			Map.Entry e = null;
-			while( itNonZeroEntries.hasNext() ){
-				e = (Entry) itNonZeroEntries.next();
-				iEndState = ((Number) e.getKey()).intValue();
-				dNextValue = ((Number) e.getValue()).doubleValue();
+			int cNextNonZero = bsNext.nnz();
+			for( int i = 0 ; i < cNextNonZero ; i++ ){
+				iEndState = bsNext.index( i );
+				dNextValue = bsNext.value( i );
 				bsNext.setValueAt( iEndState, dNextValue / dNormalizingFactor );//同样设置状态的概率值
 			}
-
-			
-
-			if( m_bCacheBeliefStates ){
-				BeliefState bsExisting = m_hmCachedBeliefStates.get( bsNext );
-				if( bsExisting == null ){
-					cacheBeliefState( bsNext );
-					m_cBeliefPoints++;
-				}
-				else{
-					bsNext = bsExisting;
-				}
-
-				if( bsNext != bs )
-					bsNext.addPredecessor( bs, dNormalizingFactor, iAction );
-			}
+			bsNext.finalizeValues();
 
 			return bsNext;
 		}
+		catch( OutOfMemoryError err ){
+			//先淘汰所有未pin住的缓存再重试一次，仍然不够时按原来的方式退出
+			int cEvicted = m_bcCachedBeliefStates.evictAll();
+			if( cEvicted > 0 ){
+				Logger.getInstance().logln( "|BeliefSpace| " + m_cBeliefPoints + ", " + err + ", evicted " + cEvicted + " cached belief states" );
+				return computeNextBeliefState( bs, iAction, iObservation );
+			}
+			reportOutOfMemory( err );
+		}
 		catch( Error err ){
-			Runtime rtRuntime = Runtime.getRuntime();
-			Logger.getInstance().logln( "|BeliefSpace| " + m_cBeliefPoints + ", " + err +
-					" allocated " + ( rtRuntime.totalMemory() - rtRuntime.freeMemory() ) / 1000000 +
-					" free " + rtRuntime.freeMemory() / 1000000 +
-					" max " + rtRuntime.maxMemory() / 1000000 );
-
-			err.printStackTrace();
-			System.exit( 0 );
+			reportOutOfMemory( err );
 		}
 		return null;
 	}
 	
-	protected synchronized void cacheBeliefState( BeliefState bs ){
-		m_hmCachedBeliefStates.put( bs, bs );
+	/**
+	 * 把computeNextBeliefState算出的bs的后继放入缓存
+	 * @return 缓存中已有相等的信念点时返回已有的那个，否则返回bsNext
+	 */
+	public BeliefState cacheNextBeliefState( BeliefState bs, int iAction, int iObservation, BeliefState bsNext ){
+		if( !m_bCacheBeliefStates )
+			return bsNext;
+		//查找和插入是原子的，两个线程同时算出同一个信念点时只会缓存一个
+		BeliefState bsExisting = m_bcCachedBeliefStates.putIfAbsent( bsNext );
+		if( bsExisting == null ){
+			m_cBeliefPoints.incrementAndGet();
+		}
+		else{
+			bsNext = bsExisting;
+		}
+
+		if( bsNext != bs )
+			bsNext.addPredecessor( bs, bs.getCachedProbabilityOGivenA( iAction, iObservation ), iAction );
+		return bsNext;
+	}
+
+	/**
+	 * 设置内存耗尽、程序退出之前执行的操作，例如保存扩张的检查点；null表示不执行
+	 */
+	public void setOutOfMemoryHandler( Runnable rHandler ){
+		m_rOutOfMemoryHandler = rHandler;
+	}
+
+	private void reportOutOfMemory( Error err ){
+		Runtime rtRuntime = Runtime.getRuntime();
+		Logger.getInstance().logln( "|BeliefSpace| " + m_cBeliefPoints + ", " + err +
+				" allocated " + ( rtRuntime.totalMemory() - rtRuntime.freeMemory() ) / 1000000 +
+				" free " + rtRuntime.freeMemory() / 1000000 +
+				" max " + rtRuntime.maxMemory() / 1000000 );
+
+		err.printStackTrace();
+		Runnable rHandler = m_rOutOfMemoryHandler;
+		if( rHandler != null ){
+			try{
+				rHandler.run();
+			}
+			catch( Throwable t ){
+				Logger.getInstance().logln( "out of memory handler failed: " + t );
+			}
+		}
+		System.exit( 0 );
+	}
+	
+	protected void cacheBeliefState( BeliefState bs ){
+		m_bcCachedBeliefStates.put( bs );
 	}
 	
 	public void clear() {
@@ -288,6 +436,17 @@ public class BeliefStateFactory{
 	 * @return
 	 */
 	public BeliefState computeRandomFarthestSuccessor( Vector<BeliefState> vBeliefPoints, BeliefState bs )
+	{
+		LinearScanIndex biBeliefPoints = new LinearScanIndex();
+		for( BeliefState bsPoint : vBeliefPoints )
+			biBeliefPoints.add( bsPoint );
+		return computeRandomFarthestSuccessor( biBeliefPoints, bs );
+	}
+	
+	/**
+	 * 同上，点集以度量索引给出，求后继到点集的距离时用索引找最近点
+	 */
+	public BeliefState computeRandomFarthestSuccessor( BeliefIndex biBeliefPoints, BeliefState bs )
 	{
 		int cObservations = m_pPOMDP.getObservationCount();
 		int iAction = 0, iObservation = 0;
@@ -310,7 +469,7 @@ public class BeliefStateFactory{
 				bsNext = bs.nextBeliefState(iAction, iObservation);
 				if(bsNext!=null)
 				{
-					dDist = distance(vBeliefPoints, bsNext);
+					dDist = distance(biBeliefPoints, bsNext);
 					if( dDist > dMaxDist )//哪个后继距离信念点集合vBeliefPoints最远就取哪个
 					{
 						dMaxDist = dDist;
@@ -340,7 +499,7 @@ public class BeliefStateFactory{
 		double dMinDist = 10000.0;
 		BeliefState bsCurrent = null;
 		
-		DistanceMetric dmDistance = L1Distance.getInstance();
+		DistanceMetric dmDistance = m_dmDistance;
 		
 		while(it.hasNext())
 		{
@@ -353,4 +512,19 @@ public class BeliefStateFactory{
 		}
 		return dMinDist;
 	}
+	
+	/**
+	 * 与上面相同，但用度量索引找最近的信念点，不必与集合中每个点都计算距离
+	 * 
+	 * @param biBeliefStates
+	 * @param bs
+	 * @return
+	 */
+	public double distance(BeliefIndex biBeliefStates, BeliefState bs)
+	{
+		int iNearest = biBeliefStates.nearest(bs);
+		if(iNearest < 0)
+			return 10000.0;
+		return Math.min(10000.0, biBeliefStates.getMetric().distance(bs, biBeliefStates.get(iNearest)));
+	}
 }
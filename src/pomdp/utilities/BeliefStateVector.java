@@ -1,7 +1,12 @@
 package pomdp.utilities;
 
+import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Vector;
 
 public class BeliefStateVector<E> extends Vector<E> 
@@ -20,10 +25,30 @@ public class BeliefStateVector<E> extends Vector<E>
 	
 	private boolean notComplete = false;
 	
+	/**
+	 * 树中每个信念点（按对象）所在的层和在这一层中的位置，同一个信念点加入多次时记录层数最小的一次
+	 */
+	private IdentityHashMap<E, TreePosition> treeIndex = null;
+	
+	private static class TreePosition implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+		
+		int level;
+		int position;
+		
+		TreePosition(int level, int position)
+		{
+			this.level = level;
+			this.position = position;
+		}
+	}
+	
 	public BeliefStateVector()
 	{
 		super();
 		treeLevelInfo = new ArrayList<ArrayList<E>>();
+		treeIndex = new IdentityHashMap<E, TreePosition>();
 	}
 	
 	public BeliefStateVector(Vector<E> vector)
@@ -36,10 +61,14 @@ public class BeliefStateVector<E> extends Vector<E>
 		super(beliefStateVector);
 		ArrayList<ArrayList<E>> treeLevelInfoIn = beliefStateVector.getTreeLevelInfo();
 		treeLevelInfo = new ArrayList<ArrayList<E>>();
+		treeIndex = new IdentityHashMap<E, TreePosition>();
 		for(int i = 0; i < treeLevelInfoIn.size(); i++)
 		{
 			treeLevelInfo.add(new ArrayList<E>());
-			treeLevelInfo.get(i).addAll(treeLevelInfoIn.get(i));
+			for(E e : treeLevelInfoIn.get(i))
+			{
+				index(e, i);
+			}
 		}
 	}
 	
@@ -55,9 +84,10 @@ public class BeliefStateVector<E> extends Vector<E>
 		if(parent==null)
 		{
 			treeLevelInfo.clear();
+			treeIndex.clear();
 			ArrayList<E> levelOne = new ArrayList<E>();
 			treeLevelInfo.add(levelOne);
-			levelOne.add(current);
+			index(current, 0);
 		}
 		else//�Ǹ�
 		{
@@ -80,7 +110,7 @@ public class BeliefStateVector<E> extends Vector<E>
 						treeLevelInfoComplete.add(newLevel2);
 					}
 				}
-				treeLevelInfo.get(pLevelNum).add(current);//�ҵ��������
+				index(current, pLevelNum);//�ҵ��������
 				if(notComplete)
 				{
 					treeLevelInfoComplete.get(pLevelNum).add(current);
@@ -89,6 +119,20 @@ public class BeliefStateVector<E> extends Vector<E>
 		}
 	}
 	
+	/**
+	 * 把e加到第level层的末尾并记录它的位置
+	 */
+	private void index(E e, int level)
+	{
+		ArrayList<E> levelList = treeLevelInfo.get(level);
+		TreePosition position = treeIndex.get(e);
+		if(position == null || position.level > level)
+		{
+			treeIndex.put(e, new TreePosition(level, levelList.size()));
+		}
+		levelList.add(e);
+	}
+	
 	/**
 	 * ��ѯһ��b�Ĳ���
 	 * 
@@ -97,27 +141,32 @@ public class BeliefStateVector<E> extends Vector<E>
 	 */
 	public synchronized int getLevelNum(E e)
 	{
-		if(notComplete)
-		{
-			for(int i=0;i<treeLevelInfoComplete.size();i++)
-			{
-				if(treeLevelInfoComplete.get(i).contains(e))
-				{
-					return i;
-				}
-			}
-		}
-		else
-		{
-			for(int i=0;i<treeLevelInfo.size();i++)
-			{
-				if(treeLevelInfo.get(i).contains(e))
-				{
-					return i;
-				}
-			}
-		}
-		return -1;
+		TreePosition position = treeIndex.get(e);
+		return position == null ? -1 : position.level;
+	}
+	
+	/**
+	 * e在它所在的层中的位置，与getLevelNum一起用getLevel(level).get(position)可以取回e
+	 * 
+	 * @return -1: not found
+	 */
+	public synchronized int getLevelPosition(E e)
+	{
+		TreePosition position = treeIndex.get(e);
+		return position == null ? -1 : position.position;
+	}
+	
+	public synchronized int getLevelCount()
+	{
+		return treeLevelInfo.size();
+	}
+	
+	/**
+	 * 第level层的只读视图，不复制
+	 */
+	public synchronized List<E> getLevel(int level)
+	{
+		return Collections.unmodifiableList(treeLevelInfo.get(level));
 	}
 	
 	/**
@@ -127,11 +176,30 @@ public class BeliefStateVector<E> extends Vector<E>
 	 */
 	public Iterator<E> getTreeDownUpIterator() 
 	{
-		ArrayList<E> resultList = new ArrayList<E>();
-		for (int i = treeLevelInfo.size() - 1; i >= 0; i--) 
+		// 直接遍历各层，不复制；遍历期间不能再加入信念点
+		return new Iterator<E>()
 		{
-			resultList.addAll(treeLevelInfo.get(i));//addAll(E),����E��һ������,��ô�ὫE�����е�Ԫ�ض�����list��
-		}
-		return resultList.iterator();
+			private int level = treeLevelInfo.size() - 1;
+			private int position = 0;
+			
+			public boolean hasNext()
+			{
+				while(level >= 0 && position >= treeLevelInfo.get(level).size())
+				{
+					level--;
+					position = 0;
+				}
+				return level >= 0;
+			}
+			
+			public E next()
+			{
+				if(!hasNext())
+				{
+					throw new NoSuchElementException();
+				}
+				return treeLevelInfo.get(level).get(position++);
+			}
+		};
 	}
 }
@@ -0,0 +1,253 @@
+package pomdp.utilities;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+import pomdp.environments.POMDP;
+
+/**
+ * 扩张得到的闭包中心点集合在磁盘上的二进制存储
+ *
+ * 文件按模型文件散列和扩张参数(EPSILON, MAX_SIZE, MAX_LEVEL)命名，
+ * 参数和模型都没变时直接载入，不再重新扩张。
+ * 保存每个中心点的稀疏概率、层数，可选地保存中心点的(a,o)后继和P(o|b,a)。
+ * 载入时整个文件映射到内存中读取。
+ *
+ * 文件格式（大端）：
+ * 头部 magic, version, 模型散列, epsilon, maxSize, maxLevel, |S|, |A|, |O|, 中心点数, 信念点数, flags
+ * 信念点 level, nnz, int[nnz]状态, double[nnz]概率；前面是中心点，后面是只作为后继出现的信念点
+ * 后继表（flags & FLAG_LINKS）每个中心点的每个(a,o)：后继下标(-1表示没有), P(o|b,a)(负数表示未计算)
+ */
+public class BeliefStateVectorStore {
+
+	protected static final int MAGIC = 0x42535631; // "BSV1"
+	protected static final int VERSION = 1;
+	protected static final int FLAG_LINKS = 1;
+	protected static final String SUFFIX = ".bsv";
+	protected static final String DEFAULT_METRIC_NAME = "L1";
+
+	private POMDP m_pPOMDP;
+	private File m_fDirectory;
+	private boolean m_bSaveLinks;
+	private String m_sMetricName;
+
+	public BeliefStateVectorStore(POMDP pomdp, String sDirectory) {
+		this(pomdp, sDirectory, true);
+	}
+
+	public BeliefStateVectorStore(POMDP pomdp, String sDirectory, boolean bSaveLinks) {
+		m_pPOMDP = pomdp;
+		m_fDirectory = new File(sDirectory);
+		m_bSaveLinks = bSaveLinks;
+		m_sMetricName = DEFAULT_METRIC_NAME;
+	}
+
+	/**
+	 * 扩张使用的距离度量，不同度量的结果保存在不同的文件中
+	 */
+	public void setMetricName(String sMetricName) {
+		m_sMetricName = sMetricName;
+	}
+
+	/**
+	 * 存储文件的路径，文件名中包含模型名、模型散列和扩张参数；默认的L1度量不写入文件名，与之前保存的文件兼容
+	 */
+	public File getStoreFile(double epsilon, int max_size, int max_level) {
+		String sFileName = m_pPOMDP.getName() + "_" + Long.toHexString(m_pPOMDP.getModelHash()) + "_e" + epsilon + "_s"
+				+ max_size + "_l" + max_level;
+		if (!DEFAULT_METRIC_NAME.equals(m_sMetricName))
+			sFileName += "_" + m_sMetricName;
+		sFileName += SUFFIX;
+		return new File(m_fDirectory, sFileName);
+	}
+
+	/**
+	 * 载入之前保存的闭包中心点集合
+	 *
+	 * @return 文件不存在或者与当前模型、参数不匹配时返回null
+	 */
+	public BeliefStateVector<BeliefState> load(double epsilon, int max_size, int max_level) {
+		File fStore = getStoreFile(epsilon, max_size, max_level);
+		if (!fStore.isFile())
+			return null;
+
+		FileChannel fc = null;
+		try {
+			fc = FileChannel.open(fStore.toPath(), StandardOpenOption.READ);
+			if (fc.size() > Integer.MAX_VALUE) {
+				Logger.getInstance().logln("BeliefStateVectorStore: " + fStore + " is too large to map");
+				return null;
+			}
+			MappedByteBuffer buffer = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+			return read(buffer, epsilon, max_size, max_level);
+		} catch (IOException e) {
+			Logger.getInstance().logln("BeliefStateVectorStore: failed to load " + fStore + ": " + e);
+			return null;
+		} finally {
+			if (fc != null) {
+				try {
+					fc.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	private BeliefStateVector<BeliefState> read(ByteBuffer buffer, double epsilon, int max_size, int max_level)
+			throws IOException {
+		int cActions = m_pPOMDP.getActionCount(), cObservations = m_pPOMDP.getObservationCount();
+
+		if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+			throw new IOException("unknown file format");
+		if (buffer.getLong() != m_pPOMDP.getModelHash() || buffer.getDouble() != epsilon || buffer.getInt() != max_size
+				|| buffer.getInt() != max_level)
+			throw new IOException("model or expansion parameters do not match");
+		if (buffer.getInt() != m_pPOMDP.getStateCount() || buffer.getInt() != cActions
+				|| buffer.getInt() != cObservations)
+			throw new IOException("model dimensions do not match");
+		int cCentres = buffer.getInt();
+		int cBeliefs = buffer.getInt();
+		int iFlags = buffer.getInt();
+
+		BeliefStateFactory bsFactory = m_pPOMDP.getBeliefStateFactory();
+		// 先生成初始信念点，保证载入的第一个中心点与工厂中的初始信念点是同一个对象
+		bsFactory.getInitialBeliefState();
+
+		BeliefState[] aBeliefs = new BeliefState[cBeliefs];
+		for (int iBelief = 0; iBelief < cBeliefs; iBelief++) {
+			int iLevel = buffer.getInt();
+			int cNonZero = buffer.getInt();
+			int[] aiStates = new int[cNonZero];
+			double[] adValues = new double[cNonZero];
+			for (int i = 0; i < cNonZero; i++)
+				aiStates[i] = buffer.getInt();
+			for (int i = 0; i < cNonZero; i++)
+				adValues[i] = buffer.getDouble();
+			aBeliefs[iBelief] = bsFactory.restoreBeliefState(aiStates, adValues);
+			if (iBelief < cCentres) {
+				aBeliefs[iBelief].setLevel(iLevel);
+				// 闭包中心点不能被缓存淘汰
+				bsFactory.pinBeliefState(aBeliefs[iBelief]);
+			}
+		}
+
+		if ((iFlags & FLAG_LINKS) != 0) {
+			for (int iCentre = 0; iCentre < cCentres; iCentre++) {
+				BeliefState bs = aBeliefs[iCentre];
+				for (int iAction = 0; iAction < cActions; iAction++) {
+					for (int iObservation = 0; iObservation < cObservations; iObservation++) {
+						int iSuccessor = buffer.getInt();
+						double dProb = buffer.getDouble();
+						if (dProb >= 0.0)
+							bs.setProbabilityOGivenA(iAction, iObservation, dProb);
+						if (iSuccessor >= 0 && bsFactory.isCachingBeliefStates()) {
+							bs.addSuccessor(iAction, iObservation, aBeliefs[iSuccessor]);
+							if (aBeliefs[iSuccessor] != bs)
+								aBeliefs[iSuccessor].addPredecessor(bs, dProb, iAction);
+						}
+					}
+				}
+			}
+		}
+
+		BeliefStateVector<BeliefState> vBeliefPoints = new BeliefStateVector<BeliefState>();
+		for (int iCentre = 0; iCentre < cCentres; iCentre++)
+			vBeliefPoints.add(aBeliefs[iCentre]);
+		return vBeliefPoints;
+	}
+
+	/**
+	 * 保存闭包中心点集合，先写临时文件再改名，中途失败不会留下损坏的存储
+	 */
+	public void save(BeliefStateVector<BeliefState> vBeliefPoints, double epsilon, int max_size, int max_level) {
+		File fStore = getStoreFile(epsilon, max_size, max_level);
+		File fTemp = new File(m_fDirectory, fStore.getName() + ".tmp");
+		try {
+			if (!m_fDirectory.isDirectory() && !m_fDirectory.mkdirs())
+				throw new IOException("cannot create " + m_fDirectory);
+			DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fTemp), 1 << 16));
+			try {
+				write(dos, vBeliefPoints, epsilon, max_size, max_level);
+			} finally {
+				dos.close();
+			}
+			Files.move(fTemp.toPath(), fStore.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			Logger.getInstance().logln("BeliefStateVectorStore: failed to save " + fStore + ": " + e);
+			fTemp.delete();
+		}
+	}
+
+	private void write(DataOutputStream dos, BeliefStateVector<BeliefState> vBeliefPoints, double epsilon,
+			int max_size, int max_level) throws IOException {
+		int cActions = m_pPOMDP.getActionCount(), cObservations = m_pPOMDP.getObservationCount();
+		int cCentres = vBeliefPoints.size();
+
+		// 中心点在前，只作为后继出现的信念点排在后面
+		IdentityHashMap<BeliefState, Integer> mIndexes = new IdentityHashMap<BeliefState, Integer>();
+		ArrayList<BeliefState> vBeliefs = new ArrayList<BeliefState>(vBeliefPoints);
+		for (int iCentre = 0; iCentre < cCentres; iCentre++)
+			mIndexes.put(vBeliefs.get(iCentre), iCentre);
+		if (m_bSaveLinks) {
+			for (int iCentre = 0; iCentre < cCentres; iCentre++) {
+				BeliefState bs = vBeliefs.get(iCentre);
+				for (int iAction = 0; iAction < cActions; iAction++) {
+					for (int iObservation = 0; iObservation < cObservations; iObservation++) {
+						BeliefState bsSuccessor = bs.getCachedSuccessor(iAction, iObservation);
+						if (bsSuccessor != null && !mIndexes.containsKey(bsSuccessor)) {
+							mIndexes.put(bsSuccessor, vBeliefs.size());
+							vBeliefs.add(bsSuccessor);
+						}
+					}
+				}
+			}
+		}
+
+		dos.writeInt(MAGIC);
+		dos.writeInt(VERSION);
+		dos.writeLong(m_pPOMDP.getModelHash());
+		dos.writeDouble(epsilon);
+		dos.writeInt(max_size);
+		dos.writeInt(max_level);
+		dos.writeInt(m_pPOMDP.getStateCount());
+		dos.writeInt(cActions);
+		dos.writeInt(cObservations);
+		dos.writeInt(cCentres);
+		dos.writeInt(vBeliefs.size());
+		dos.writeInt(m_bSaveLinks ? FLAG_LINKS : 0);
+
+		for (BeliefState bs : vBeliefs) {
+			int cNonZero = bs.nnz();
+			dos.writeInt(bs.getLevel());
+			dos.writeInt(cNonZero);
+			for (int i = 0; i < cNonZero; i++)
+				dos.writeInt(bs.index(i));
+			for (int i = 0; i < cNonZero; i++)
+				dos.writeDouble(bs.value(i));
+		}
+
+		if (m_bSaveLinks) {
+			for (int iCentre = 0; iCentre < cCentres; iCentre++) {
+				BeliefState bs = vBeliefs.get(iCentre);
+				for (int iAction = 0; iAction < cActions; iAction++) {
+					for (int iObservation = 0; iObservation < cObservations; iObservation++) {
+						Integer iSuccessor = mIndexes.get(bs.getCachedSuccessor(iAction, iObservation));
+						dos.writeInt(iSuccessor == null ? -1 : iSuccessor.intValue());
+						dos.writeDouble(bs.getCachedProbabilityOGivenA(iAction, iObservation));
+					}
+				}
+			}
+		}
+	}
+}
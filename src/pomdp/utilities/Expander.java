@@ -1,10 +1,29 @@
 package pomdp.utilities;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import pomdp.environments.POMDP;
+import pomdp.utilities.datastructures.IndexedBinaryHeap;
+import pomdp.utilities.datastructures.PriorityQueue;
+import pomdp.utilities.distance.BeliefIndex;
+import pomdp.utilities.distance.CauchyLSHIndex;
+import pomdp.utilities.distance.CompleteLinkClustering;
+import pomdp.utilities.distance.CountingDistanceMetric;
+import pomdp.utilities.distance.DistanceMetric;
+import pomdp.utilities.distance.DistanceMetricFactory;
 import pomdp.utilities.distance.L1Distance;
+import pomdp.utilities.distance.VPTreeIndex;
 
 /*
  * 2018-4-21  在PBVI基础上新增
@@ -12,76 +31,1165 @@ import pomdp.utilities.distance.L1Distance;
 public class Expander {
 
 	private POMDP pomdp = null;
+	private BeliefStateVectorStore store = null;
+	private DistanceMetric metric = L1Distance.getInstance();
+	// 按层并行扩张的线程数，1表示串行
+	private int parallelism = 1;
+	// 并行R-BFS一次最多计算这么多个尚未放入缓存的后继
+	private static final int UNCACHED_SUCCESSORS_LIMIT = 4096;
+
+	// 近似索引（LSH）的参数，lshBands为0时使用精确的VP树
+	public static final double LSH_WIDTH_FACTOR = 4.0; // 桶宽与epsilon之比
+	public static final long LSH_SEED = 0;
+	private int lshBands = 0;
+	private int lshRows = 0;
+	private int lshRecallSampleEvery = 0;
+	// 剪枝阈值，P(o|b,a)或路径概率小于阈值的后继不生成，都为0时不剪枝
+	private double observationThreshold = 0;
+	private double pathThreshold = 0;
+	// 采样扩张的参数
+	private SamplingPolicy samplingPolicy = SamplingPolicy.LEAST_TRIED;
+	private double samplingExplorationRate = 0.1;
+	private long samplingSeed = 0;
+	// 检查点目录，null表示不保存检查点
+	private String checkpointDirectory = null;
+	private long checkpointIntervalMillis = 0;
+	// 最近一次扩张建立的中心点索引，从存储中载入时为null
+	private BeliefIndex lastCentres = null;
+	private ArrayList<ExpansionListener> listeners = new ArrayList<ExpansionListener>();
+	// expandAdaptive选定的epsilon
+	private double lastEpsilon = Double.NaN;
+	// 最近一次有统计的扩张的统计
+	private ExpansionStatistics lastStatistics = null;
 
 	public Expander(POMDP pomdp) {
 		this.pomdp = pomdp;
 	}
 
-	public BeliefStateVector<BeliefState> completeLinkCluster(BeliefStateVector<BeliefState> vAllEpsilonBeliefPoints) {
+	/**
+	 * 判断后继是否落在已有闭包内使用的距离度量，默认L1
+	 */
+	public void setMetric(DistanceMetric metric) {
+		this.metric = metric;
+	}
+
+	public DistanceMetric getMetric() {
+		return metric;
+	}
+
+	/**
+	 * 设置并行扩张使用的线程数，1表示串行。
+	 * expandRBFS按层并行，结果与串行相同；expandBestFirst每个线程一个优先队列，结果与线程调度有关。
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism = Math.max(1, parallelism);
+	}
+
+	/**
+	 * 改用LSH近似索引判断后继是否落在已有闭包内，闭包数目非常大时使用。
+	 * 近似索引可能漏掉已有的闭包，代价是闭包之间有少量重叠。
+	 *
+	 * @param cBands
+	 *            散列表个数，0表示使用精确索引
+	 * @param cRows
+	 *            每个散列表的键由几个散列值组成
+	 * @param iRecallSampleEvery
+	 *            每多少次查询用精确索引核对一次召回率，0表示不核对
+	 */
+	public void setLSH(int cBands, int cRows, int iRecallSampleEvery) {
+		lshBands = cBands;
+		lshRows = cRows;
+		lshRecallSampleEvery = iRecallSampleEvery;
+	}
+
+	/**
+	 * 是否用LSH近似索引判断后继是否落在已有闭包内
+	 */
+	private boolean isUsingLSH() {
+		return lshBands > 0 && metric instanceof L1Distance;
+	}
+
+	/**
+	 * 按当前设置建立闭包中心点的索引。LSH只适用于L1；不满足三角不等式的度量只能逐个比较。
+	 */
+	public BeliefIndex newCentreIndex(double epsilon) {
+		return newCentreIndex(epsilon, metric);
+	}
+
+	/**
+	 * 同上，索引使用indexMetric计算距离（例如统计次数的CountingDistanceMetric），它必须与metric是同一个度量
+	 */
+	private BeliefIndex newCentreIndex(double epsilon, DistanceMetric indexMetric) {
+		if (!isUsingLSH())
+			return DistanceMetricFactory.newExactIndex(indexMetric);
+		CauchyLSHIndex index = new CauchyLSHIndex(indexMetric, pomdp.getStateCount(), lshBands, lshRows,
+				LSH_WIDTH_FACTOR * epsilon, LSH_SEED);
+		if (lshRecallSampleEvery > 0)
+			index.setRecallCheck(new VPTreeIndex(), lshRecallSampleEvery);
+		return index;
+	}
+
+	/**
+	 * 扩张结束时调用：保留中心点索引供之后使用，输出近似索引的统计
+	 */
+	private void finishIndex(BeliefIndex centres) {
+		lastCentres = centres;
+		if (centres instanceof CauchyLSHIndex)
+			System.out.println(((CauchyLSHIndex) centres).getStatistics());
+	}
+
+	/**
+	 * 最近一次扩张建立的中心点索引，编号与返回的点集相同；扩张结果是从存储中载入的时返回null
+	 */
+	public BeliefIndex getLastCentreIndex() {
+		return lastCentres;
+	}
+
+	/**
+	 * 注册扩张过程的监听器。各种扩张方式都按层统计生成、排除、加入、剪掉的后继数，距离计算次数和时间，见ExpansionStatistics。
+	 * expandAdaptive的每一轮各报告一次，模式名中有轮数和epsilon。
+	 * collectReachable用同一个信念点对象判断重复，不计算距离，重复的后继计为排除；
+	 * expandClustered中聚类的距离计算次数和时间记在第0层，见ExpansionStatistics。
+	 */
+	public void addListener(ExpansionListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * 最近一次扩张（expandRBFS从存储中载入时除外）的统计，还没有时为null
+	 */
+	public ExpansionStatistics getLastStatistics() {
+		return lastStatistics;
+	}
+
+	/**
+	 * 把iLevel层及之前已经完整的层报告给监听器
+	 */
+	private void completeLevels(ExpansionStatistics statistics, int iLevel) {
+		for (ExpansionStatistics.Level level : statistics.completeLevels(iLevel))
+			for (ExpansionListener listener : listeners)
+				listener.levelCompleted(level);
+	}
+
+	private void finishStatistics(ExpansionStatistics statistics, int cCentres) {
+		completeLevels(statistics, Integer.MAX_VALUE);
+		statistics.finish(cCentres);
+		lastStatistics = statistics;
+		for (ExpansionListener listener : listeners)
+			listener.expansionCompleted(statistics);
+	}
+
+	/**
+	 * 计算后继信念点，时间计入level
+	 */
+	private static BeliefState nextBeliefState(BeliefState bs, int iAction, int iObservation,
+			ExpansionStatistics.Level level) {
+		long start = System.nanoTime();
+		BeliefState next = bs.nextBeliefState(iAction, iObservation);
+		level.m_lBeliefUpdateNanos += System.nanoTime() - start;
+		return next;
+	}
+
+	/**
+	 * 与nextBeliefState相同，但新算出的后继不放入缓存，可以并行调用，之后用BeliefState.cacheSuccessor放入
+	 */
+	private static BeliefState computeNextBeliefState(BeliefState bs, int iAction, int iObservation,
+			ExpansionStatistics.Level level) {
+		long start = System.nanoTime();
+		BeliefState next = bs.getCachedSuccessor(iAction, iObservation);
+		if (next == null)
+			next = bs.getBeliefStateFactory().computeNextBeliefState(bs, iAction, iObservation);
+		level.m_lBeliefUpdateNanos += System.nanoTime() - start;
+		return next;
+	}
+
+	/**
+	 * centres.anyWithin，距离计算次数和时间计入level
+	 */
+	private static boolean anyWithin(BeliefIndex centres, CountingDistanceMetric counter, BeliefState bs, double radius,
+			ExpansionStatistics.Level level) {
+		long start = System.nanoTime();
+		long count = counter.getCount();
+		boolean found = centres.anyWithin(bs, radius);
+		level.m_lDistanceNanos += System.nanoTime() - start;
+		level.m_cDistanceComputations += counter.getCount() - count;
+		return found;
+	}
+
+	/**
+	 * centres.firstWithin，距离计算次数和时间计入level
+	 */
+	private static int firstWithin(BeliefIndex centres, CountingDistanceMetric counter, BeliefState bs, double radius,
+			ExpansionStatistics.Level level) {
+		long start = System.nanoTime();
+		long count = counter.getCount();
+		int iCentre = centres.firstWithin(bs, radius);
+		level.m_lDistanceNanos += System.nanoTime() - start;
+		level.m_cDistanceComputations += counter.getCount() - count;
+		return iCentre;
+	}
+
+	/**
+	 * centres.firstWithin，找到时distance[0]为它与bs的距离
+	 */
+	private static int firstWithin(BeliefIndex centres, CountingDistanceMetric counter, BeliefState bs, double radius,
+			ExpansionStatistics.Level level, double[] distance) {
+		long start = System.nanoTime();
+		long count = counter.getCount();
+		int iCentre = centres.firstWithin(bs, radius, distance);
+		level.m_lDistanceNanos += System.nanoTime() - start;
+		level.m_cDistanceComputations += counter.getCount() - count;
+		return iCentre;
+	}
+
+	/**
+	 * 设置扩张结果的磁盘存储，模型和参数不变时expandRBFS直接载入之前的结果
+	 */
+	public void setStore(BeliefStateVectorStore store) {
+		this.store = store;
+	}
+
+	/**
+	 * 设置R-BFS扩张的剪枝阈值：P(o|b,a)小于observationThreshold，或者路径概率（从初始信念点到后继沿途P(o|b,a)之积）
+	 * 小于pathThreshold的后继在计算信念点之前就被跳过，也不与闭包比较。中心点的路径概率取第一次被发现时的路径。
+	 *
+	 * 扩张结束时按层输出剪掉的概率质量（按均匀随机选择动作计算），用来确认剪枝后的闭包仍然覆盖了足够的概率质量。
+	 * 剪枝的结果和检查点与不剪枝的分开保存。两个阈值都为0时不剪枝。
+	 */
+	public void setPruning(double observationThreshold, double pathThreshold) {
+		this.observationThreshold = observationThreshold;
+		this.pathThreshold = pathThreshold;
+	}
+
+	private boolean isPruning() {
+		return observationThreshold > 0 || pathThreshold > 0;
+	}
+
+	/**
+	 * 后继(a,o)是否被剪掉，只用到P(o|b,a)，不计算后继信念点
+	 */
+	private boolean isPruned(BeliefState bs, double pathProbability, int iAction, int iObservation) {
+		double dProb = bs.probabilityOGivenA(iAction, iObservation);
+		return dProb > 0 && (dProb < observationThreshold || pathProbability * dProb < pathThreshold);
+	}
+
+	/**
+	 * 扩张结果的变体名，用于存储和检查点的文件名：距离度量，剪枝时加上两个阈值，
+	 * 使用LSH时加上散列表个数、每个键的散列值个数、桶宽与epsilon之比和种子（近似索引可能产生相交的闭包）
+	 */
+	private String getVariantName() {
+		String sName = metric.getName();
+		if (isPruning())
+			sName += "_o" + observationThreshold + "_p" + pathThreshold;
+		if (isUsingLSH())
+			sName += "_lsh" + lshBands + "x" + lshRows + "_w" + LSH_WIDTH_FACTOR + "_s" + LSH_SEED;
+		return sName;
+	}
+
+	/**
+	 * 设置R-BFS扩张的检查点目录，每隔lIntervalMillis毫秒、扩张结束时和内存耗尽时保存一次，expandRBFS从已有的检查点继续
+	 *
+	 * @param lIntervalMillis
+	 *            0表示只在扩张结束和内存耗尽时保存
+	 */
+	public void setCheckpoint(String sDirectory, long lIntervalMillis) {
+		checkpointDirectory = sDirectory;
+		checkpointIntervalMillis = lIntervalMillis;
+	}
+
+	/**
+	 * 把一组信念点聚成直径不超过2*epsilon的簇，返回各簇的代表点作为闭包中心点，见CompleteLinkClustering
+	 *
+	 * 第一个信念点（通常是初始信念点）一定是第一个代表点。代表点两两距离不小于epsilon，
+	 * 每个输入的信念点都在某个代表点的epsilon以内。代表点被pin住，层数保留原来的值。
+	 */
+	public BeliefStateVector<BeliefState> completeLinkCluster(BeliefStateVector<BeliefState> vAllEpsilonBeliefPoints,
+			double epsilon) {
+		return completeLinkCluster(vAllEpsilonBeliefPoints, epsilon, null);
+	}
+
+	/**
+	 * @param level
+	 *            不为null时聚类的距离计算次数（所有线程）和时间计入level
+	 */
+	private BeliefStateVector<BeliefState> completeLinkCluster(BeliefStateVector<BeliefState> vAllEpsilonBeliefPoints,
+			double epsilon, ExpansionStatistics.Level level) {
+		BeliefStateVector<BeliefState> vRepresentatives = new BeliefStateVector<BeliefState>();
+		if (vAllEpsilonBeliefPoints.isEmpty())
+			return vRepresentatives;
+		ArrayList<BeliefState> vBeliefs = new ArrayList<BeliefState>(vAllEpsilonBeliefPoints);
+		CountingDistanceMetric counter = new CountingDistanceMetric(metric);
+		CompleteLinkClustering clustering = new CompleteLinkClustering(counter);
+		ForkJoinPool pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+		long start = System.nanoTime();
+		try {
+			if (pool != null)
+				clustering.setPool(pool);
+			for (int i : clustering.cluster(vBeliefs, epsilon, 0)) {
+				vRepresentatives.add(vBeliefs.get(i));
+				pomdp.getBeliefStateFactory().pinBeliefState(vBeliefs.get(i));
+			}
+		} finally {
+			if (pool != null)
+				pool.shutdown();
+		}
+		if (level != null) {
+			level.m_lDistanceNanos += System.nanoTime() - start;
+			level.m_cDistanceComputations += counter.getTotalCount();
+			Runtime runtime = Runtime.getRuntime();
+			level.m_lHeapUsedBytes = runtime.totalMemory() - runtime.freeMemory();
+		}
+		System.out.println(clustering.getStatistics() + ", " + vBeliefs.size() + "个信念点聚成" + vRepresentatives.size()
+				+ "个闭包");
+		BeliefIndex centres = newCentreIndex(epsilon);
+		for (BeliefState bs : vRepresentatives)
+			centres.add(bs);
+		finishIndex(centres);
+		return vRepresentatives;
+	}
 
-		return null;
+	/**
+	 * 按层次遍历收集从初始信念点可达的不同信念点（同一个信念点在缓存中只有一个对象），最多max_size个，层数不超过max_level
+	 */
+	public BeliefStateVector<BeliefState> collectReachable(int max_size, int max_level) {
+		ExpansionStatistics statistics = new ExpansionStatistics("Reachable");
+		BeliefStateVector<BeliefState> vReachable = collectReachable(max_size, max_level, statistics);
+		finishStatistics(statistics, vReachable.size());
+		return vReachable;
+	}
+
+	private BeliefStateVector<BeliefState> collectReachable(int max_size, int max_level, ExpansionStatistics statistics) {
+		BeliefStateVector<BeliefState> vReachable = new BeliefStateVector<BeliefState>();
+		Set<BeliefState> seen = Collections.newSetFromMap(new IdentityHashMap<BeliefState, Boolean>());
+		Queue<BeliefState> queue = new LinkedList<BeliefState>();
+		BeliefState initial = pomdp.getBeliefStateFactory().getInitialBeliefState();
+		seen.add(initial);
+		vReachable.add(initial);
+		queue.offer(initial);
+		while (!queue.isEmpty() && vReachable.size() < max_size) {
+			BeliefState bs = queue.poll();
+			if (bs.getLevel() + 1 > max_level)
+				continue;
+			completeLevels(statistics, bs.getLevel());
+			ExpansionStatistics.Level levelStatistics = statistics.getLevel(bs.getLevel() + 1);
+			levelStatistics.m_cExpanded++;
+			for (int iAction = 0; iAction < pomdp.getActionCount() && vReachable.size() < max_size; ++iAction) {
+				for (int iObservation = 0; iObservation < pomdp.getObservationCount()
+						&& vReachable.size() < max_size; ++iObservation) {
+					BeliefState next = nextBeliefState(bs, iAction, iObservation, levelStatistics);
+					if (next == null)
+						continue;
+					levelStatistics.m_cGenerated++;
+					if (seen.add(next)) {
+						levelStatistics.m_cAdded++;
+						next.setLevel(bs.getLevel() + 1);
+						vReachable.add(next);
+						queue.offer(next);
+					} else {
+						levelStatistics.m_cRejected++;
+					}
+				}
+			}
+		}
+		return vReachable;
+	}
+
+	/**
+	 * 先收集最多max_reachable个可达信念点，再用completeLinkCluster聚成闭包
+	 */
+	public BeliefStateVector<BeliefState> expandClustered(double epsilon, int max_reachable, int max_level) {
+		ExpansionStatistics statistics = new ExpansionStatistics("Clustered");
+		BeliefStateVector<BeliefState> vRepresentatives = completeLinkCluster(
+				collectReachable(max_reachable, max_level, statistics), epsilon, statistics.getLevel(0));
+		finishStatistics(statistics, vRepresentatives.size());
+		return vRepresentatives;
 	}
 
 	// R-BFS
 	public BeliefStateVector<BeliefState> expandRBFS(double epsilon, int max_size, int max_level) {
-		// RBFS得到的点集，点集中任意两个信念点距离大于EPSILON
-		BeliefStateVector<BeliefState> vAllEpsilonBeliefPoints = new BeliefStateVector<BeliefState>();
+		if (store == null)
+			return resumeRBFS(epsilon, max_size, max_level);
 
-		Queue<BeliefState> queue = new LinkedList<BeliefState>();
+		store.setMetricName(getVariantName());
+		BeliefStateVector<BeliefState> vAllEpsilonBeliefPoints = store.load(epsilon, max_size, max_level);
+		if (vAllEpsilonBeliefPoints != null) {
+			lastCentres = null;
+			System.out.println("从" + store.getStoreFile(epsilon, max_size, max_level) + "载入闭包，闭包的数目："
+					+ vAllEpsilonBeliefPoints.size());
+			return vAllEpsilonBeliefPoints;
+		}
+		vAllEpsilonBeliefPoints = resumeRBFS(epsilon, max_size, max_level);
+		store.save(vAllEpsilonBeliefPoints, epsilon, max_size, max_level);
+		return vAllEpsilonBeliefPoints;
+	}
 
-		int cnt = 0;
+	/**
+	 * 自适应地选择epsilon：在不超过target_size个闭包（R-BFS探索完或达到max_level）的前提下找尽量小的epsilon
+	 *
+	 * 每一轮用一个epsilon做一次R-BFS，最多target_size + 1个闭包。超过target_size的说明epsilon太小，否则可行。
+	 * 还没有找到上下界时epsilon每轮乘以或除以2，之后在两个界之间按几何平均二分，
+	 * 上下界之比不超过1 + tolerance、达到max_rounds轮，或者按上一轮的用时估计会超出时间预算时停止。
+	 * 每轮开始时放开上一轮中心点的pin。缓存中的信念点及其后继、P(o|b,a)都保留，之后的轮次只需重新比较距离。
+	 *
+	 * 最后用找到的最小可行epsilon调用expandRBFS，结果与直接用这个epsilon扩张相同（也使用存储和检查点）。
+	 * 没有找到可行的epsilon时使用试过的最大epsilon，得到target_size个闭包。选定的值由getLastEpsilon返回。
+	 *
+	 * @param budgetMillis
+	 *            搜索的时间预算，0表示不限制
+	 */
+	public BeliefStateVector<BeliefState> expandAdaptive(double epsilon, int target_size, int max_level, long budgetMillis,
+			int max_rounds, double tolerance) {
+		long start = System.currentTimeMillis();
 		BeliefState initial = pomdp.getBeliefStateFactory().getInitialBeliefState();
-		vAllEpsilonBeliefPoints.add(initial);
-		queue.offer(initial);
-		cnt++;
+		int initialLevel = initial.getLevel();
+		// 可行的最小epsilon和超出目标的最大epsilon，NaN表示还没有
+		double feasible = Double.NaN, infeasible = Double.NaN;
+		BeliefStateVector<BeliefState> previous = null;
+		long roundMillis = 0;
+		ForkJoinPool pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+		try {
+			for (int round = 1; round <= max_rounds; round++) {
+				long elapsed = System.currentTimeMillis() - start;
+				if (budgetMillis > 0 && elapsed + roundMillis > budgetMillis) {
+					System.out.println("自适应epsilon：时间预算用完，已用" + elapsed + "ms");
+					break;
+				}
+				if (previous != null) {
+					for (BeliefState bs : previous)
+						pomdp.getBeliefStateFactory().unpinBeliefState(bs);
+				}
+				// 中心点的层数会在后继中被改写，每轮都与从头扩张一样从初始信念点的层数开始
+				initial.setLevel(initialLevel);
+				long roundStart = System.currentTimeMillis();
+				ExpansionCheckpoint state = ExpansionCheckpoint.start(pomdp);
+				previous = runRBFS(state, null, epsilon, target_size + 1, max_level, pool,
+						"Adaptive round " + round + ", epsilon = " + epsilon);
+				roundMillis = System.currentTimeMillis() - roundStart;
+				boolean fits = state.getStatus() != ExpansionCheckpoint.STOPPED_AT_SIZE;
+				System.out.println("自适应epsilon 第" + round + "轮：epsilon = " + epsilon + "，闭包数 = " + previous.size()
+						+ (fits ? "，可行" : "，超出目标") + "，用时" + roundMillis + "ms");
+				if (fits)
+					feasible = Double.isNaN(feasible) ? epsilon : Math.min(feasible, epsilon);
+				else
+					infeasible = Double.isNaN(infeasible) ? epsilon : Math.max(infeasible, epsilon);
+
+				if (Double.isNaN(infeasible))
+					epsilon = feasible / 2;
+				else if (Double.isNaN(feasible))
+					epsilon = infeasible * 2;
+				else if (feasible / infeasible <= 1 + tolerance)
+					break;
+				else
+					epsilon = Math.sqrt(feasible * infeasible);
+			}
+		} finally {
+			if (pool != null)
+				pool.shutdown();
+		}
+		if (previous != null) {
+			for (BeliefState bs : previous)
+				pomdp.getBeliefStateFactory().unpinBeliefState(bs);
+		}
+		initial.setLevel(initialLevel);
+
+		if (Double.isNaN(feasible)) {
+			System.out.println("自适应epsilon：没有找到闭包数不超过" + target_size + "的epsilon");
+			epsilon = Double.isNaN(infeasible) ? epsilon : infeasible;
+		} else {
+			epsilon = feasible;
+		}
+		System.out.println("自适应epsilon：选定epsilon = " + epsilon + "，搜索用时" + (System.currentTimeMillis() - start) + "ms");
+		lastEpsilon = epsilon;
+		return expandRBFS(epsilon, target_size, max_level);
+	}
+
+	/**
+	 * expandAdaptive最后选定的epsilon，还没有调用过时为NaN
+	 */
+	public double getLastEpsilon() {
+		return lastEpsilon;
+	}
+
+	/**
+	 * 从检查点继续R-BFS扩张，结果与从头扩张相同
+	 *
+	 * 没有设置检查点目录、没有检查点，或者以(max_size, max_level)从头扩张不会经过检查点的状态时从头开始。
+	 * 之前以较小的max_size或max_level完成的扩张也会留下检查点，这时只扩张新增的部分。
+	 */
+	public BeliefStateVector<BeliefState> resumeRBFS(double epsilon, int max_size, int max_level) {
+		File fCheckpoint = null;
+		ExpansionCheckpoint state = null;
+		if (checkpointDirectory != null) {
+			fCheckpoint = ExpansionCheckpoint.getCheckpointFile(pomdp, checkpointDirectory, epsilon, getVariantName());
+			state = ExpansionCheckpoint.load(pomdp, fCheckpoint, epsilon, getVariantName());
+			if (state != null && !state.canResume(max_size, max_level)) {
+				System.out.println(fCheckpoint + "中的状态不适用于当前的参数，从头扩张");
+				state = null;
+			}
+			if (state != null)
+				System.out.println("从" + fCheckpoint + "继续扩张，已有闭包的数目：" + state.getCentres().size());
+		}
+		if (state == null)
+			state = ExpansionCheckpoint.start(pomdp);
+
+		ForkJoinPool pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+		BeliefStateFactory bsFactory = pomdp.getBeliefStateFactory();
+		final ExpansionCheckpoint current = state;
+		final File fFinal = fCheckpoint;
+		// 内存耗尽时工厂会退出程序，退出前保存当前状态。这时状态停在某个nextBeliefState调用之前，是一致的。
+		if (fCheckpoint != null) {
+			bsFactory.setOutOfMemoryHandler(new Runnable() {
+				public void run() {
+					current.save(pomdp, fFinal, epsilon, getVariantName());
+				}
+			});
+		}
+		try {
+			return runRBFS(state, fCheckpoint, epsilon, max_size, max_level, pool, "RBFS");
+		} finally {
+			bsFactory.setOutOfMemoryHandler(null);
+			if (pool != null)
+				pool.shutdown();
+		}
+	}
 
+	/**
+	 * R-BFS的主循环，从state继续，并不断更新state
+	 *
+	 * pool不为null时按批并行：队列中当前所有的点作为一批，并行计算它们的所有后继，
+	 * 并检查是否落在这一批开始之前已有的闭包内（这时索引只读）。中心点只增不减，已经落在旧闭包内的后继在串行版本中也一定会被排除。
+	 * 然后仍然按队列顺序逐个处理，只是后继直接取计算好的结果，剩下的后继再与包括本批新中心点在内的索引比较，
+	 * 设置层数、计数、判断终止条件都与串行版本完全相同。
+	 * 一批中重复出现的同一个信念点只在第一次出现时判断：第一次成为中心点时后面的一定在闭包内，第一次被排除时后面的也一样。
+	 * 串行时同样处理，范围是父节点所在的一层。
+	 * 得到的点集与串行版本相同，但距离计算次数不同：并行时一批的所有后继都先与旧闭包比较一次。
+	 *
+	 * @param sMode
+	 *            统计的模式名，见ExpansionStatistics
+	 */
+	private BeliefStateVector<BeliefState> runRBFS(ExpansionCheckpoint state, File fCheckpoint, double epsilon,
+			int max_size, int max_level, ForkJoinPool pool, String sMode) {
+		// RBFS得到的点集，点集中任意两个信念点距离大于EPSILON
+		BeliefStateVector<BeliefState> vAllEpsilonBeliefPoints = state.m_vCentres;
+
+		// 闭包中心点的度量索引，代替对vAllEpsilonBeliefPoints的逐个比较
+		ExpansionStatistics statistics = new ExpansionStatistics(sMode);
+		CountingDistanceMetric counter = new CountingDistanceMetric(metric);
+		BeliefIndex centres = newCentreIndex(epsilon, counter);
+		for (BeliefState bs : vAllEpsilonBeliefPoints)
+			centres.add(bs);
+		if (state.isFinished(max_size)) {
+			System.out.println("检查点中的扩张已经完成, 总闭包的数目为：" + vAllEpsilonBeliefPoints.size());
+			finishStatistics(statistics, vAllEpsilonBeliefPoints.size());
+			finishIndex(centres);
+			return vAllEpsilonBeliefPoints;
+		}
+		state.m_iStatus = ExpansionCheckpoint.RUNNING;
+
+		double radius = Math.nextDown(epsilon);
 		int actionCount = pomdp.getActionCount();
 		int observationCount = pomdp.getObservationCount();
+		int successorCount = actionCount * observationCount;
+		boolean pruning = isPruning();
+		long lastCheckpoint = System.currentTimeMillis();
+
+		// 当前一批的后继，第i个父节点的后继从i * successorCount开始
+		ArrayList<BeliefState> batch = null;
+		BeliefState[] successors = null;
+		boolean[] covered = null;
+		// 每个父节点的后继计算时间和距离计算次数，处理到这个父节点时按它当时的层数计入统计
+		ExpansionStatistics.Level[] batchStatistics = null;
+		// 本批（串行时为父节点所在的一层）已经出现过的后继
+		Set<BeliefState> seen = null;
+		int seenLevel = -1;
+		int batchPosition = 0;
 
 		// 遍历队列
-		while (!queue.isEmpty()) {
-			BeliefState bs = queue.poll();
-			for (int iAction = 0; iAction < actionCount; ++iAction) {
-				for (int iObservation = 0; iObservation < observationCount; ++iObservation) {
-					BeliefState next = bs.nextBeliefState(iAction, iObservation);
+		while (true) {
+			if (state.m_bsParent == null) {
+				if (fCheckpoint != null && checkpointIntervalMillis > 0
+						&& System.currentTimeMillis() - lastCheckpoint >= checkpointIntervalMillis) {
+					state.save(pomdp, fCheckpoint, epsilon, getVariantName());
+					lastCheckpoint = System.currentTimeMillis();
+				}
+				if (state.m_qQueue.isEmpty())
+					break;
+				if (pool != null && batch == null) {
+					batch = new ArrayList<BeliefState>(state.m_qQueue);
+					successors = new BeliefState[batch.size() * successorCount];
+					covered = new boolean[successors.length];
+					seen = Collections.newSetFromMap(new IdentityHashMap<BeliefState, Boolean>());
+					batchPosition = 0;
+					double[] pathProbabilities = null;
+					if (pruning) {
+						pathProbabilities = new double[batch.size()];
+						for (int i = 0; i < batch.size(); i++)
+							pathProbabilities[i] = state.getPathProbability(batch.get(i));
+					}
+					batchStatistics = new ExpansionStatistics.Level[batch.size()];
+					// 缓存把相差在容差以内的信念点当作同一个，先放入的留下，所以后继并行计算时不放入缓存，
+					// 之后按串行扩张的顺序放入，得到的信念点才与串行相同；每次只计算一部分父节点，限制重复的信念点占用的内存
+					int chunk = Math.max(parallelism, UNCACHED_SUCCESSORS_LIMIT / successorCount);
+					for (int from = 0; from < batch.size(); from += chunk) {
+						int to = Math.min(batch.size(), from + chunk);
+						pool.invoke(new SuccessorTask(batch, from, to, successors, null, centres, radius,
+								pathProbabilities, batchStatistics, counter));
+						for (int i = from; i < to; i++) {
+							long start = System.nanoTime();
+							for (int iSuccessor = 0; iSuccessor < successorCount; iSuccessor++) {
+								int slot = i * successorCount + iSuccessor;
+								successors[slot] = batch.get(i).cacheSuccessor(iSuccessor / observationCount,
+										iSuccessor % observationCount, successors[slot]);
+							}
+							batchStatistics[i].m_lBeliefUpdateNanos += System.nanoTime() - start;
+						}
+					}
+					pool.invoke(new SuccessorTask(batch, 0, batch.size(), successors, covered, centres, radius,
+							pathProbabilities, batchStatistics, counter));
+				}
+				state.m_bsParent = state.m_qQueue.poll();
+				state.m_iNextSuccessor = 0;
+				// 队列按层排列，取出第l层的父节点时第l层及之前的后继都已经生成
+				completeLevels(statistics, state.m_bsParent.getLevel());
+				statistics.getLevel(state.m_bsParent.getLevel() + 1).m_cExpanded++;
+				// 父节点的路径概率在各动作之间平均分配，所以它的后继共到达这么多概率质量
+				if (pruning)
+					state.addMass(state.m_bsParent.getLevel() + 1, state.getPathProbability(state.m_bsParent), 0);
+			}
+			BeliefState bs = state.m_bsParent;
+			if (pool == null && (seen == null || bs.getLevel() != seenLevel)) {
+				seen = Collections.newSetFromMap(new IdentityHashMap<BeliefState, Boolean>());
+				seenLevel = bs.getLevel();
+			}
+			double pathProbability = pruning ? state.getPathProbability(bs) : 1.0;
+			ExpansionStatistics.Level levelStatistics = statistics.getLevel(bs.getLevel() + 1);
+			// 从检查点继续时正在扩张的父节点不在批中，直接计算
+			boolean precomputed = batch != null && batch.get(batchPosition) == bs;
+			int offset = batchPosition * successorCount;
+			if (precomputed && batchStatistics[batchPosition] != null) {
+				levelStatistics.merge(batchStatistics[batchPosition]);
+				batchStatistics[batchPosition] = null;
+			}
 
-					if (next != null) {
-						cnt++;
-						next.setLevel(bs.getLevel() + 1);
+			for (; state.m_iNextSuccessor < successorCount; state.m_iNextSuccessor++) {
+				int iAction = state.m_iNextSuccessor / observationCount;
+				int iObservation = state.m_iNextSuccessor % observationCount;
+				if (pruning && isPruned(bs, pathProbability, iAction, iObservation)) {
+					state.addMass(bs.getLevel() + 1, 0,
+							pathProbability * bs.probabilityOGivenA(iAction, iObservation) / actionCount);
+					levelStatistics.m_cPruned++;
+					continue;
+				}
+				BeliefState next = precomputed ? successors[offset + state.m_iNextSuccessor]
+						: nextBeliefState(bs, iAction, iObservation, levelStatistics);
 
-						boolean inRange = false;
-						L1Distance distancer = new L1Distance();
-						for (BeliefState beliefState : vAllEpsilonBeliefPoints) {
-							double closureDistance = distancer.distance(beliefState, next);
-							if (closureDistance < epsilon) {
-								inRange = true;
-								break;
+				if (next != null) {
+					state.m_cSuccessors++;
+					levelStatistics.m_cGenerated++;
+					next.setLevel(bs.getLevel() + 1);
+					if ((precomputed || pool == null) && !seen.add(next)) {
+						levelStatistics.m_cRejected++;
+						continue;
+					}
+
+					// 是否落在某个已有闭包内（距离严格小于epsilon）
+					boolean inRange = (precomputed && covered[offset + state.m_iNextSuccessor])
+							|| anyWithin(centres, counter, next, radius, levelStatistics);
+					if (inRange) {
+						levelStatistics.m_cRejected++;
+					} else {
+						if (next.getLevel() <= max_level) {
+							levelStatistics.m_cAdded++;
+							state.m_qQueue.offer(next);
+							state.m_iMaxCentreLevel = Math.max(state.m_iMaxCentreLevel, next.getLevel());
+							if (pruning)
+								state.setPathProbability(next,
+										pathProbability * bs.probabilityOGivenA(iAction, iObservation));
+							vAllEpsilonBeliefPoints.add(next);
+							centres.add(next);
+							// 闭包中心点不能被缓存淘汰
+							pomdp.getBeliefStateFactory().pinBeliefState(next);
+							if (vAllEpsilonBeliefPoints.size() >= max_size) {
+								// 第一种情况
+								System.out.println("达到了最大闭包数，当前next所在层数为：" + next.getLevel());
+								System.out.println("总数 = " + state.m_cSuccessors);
+								state.m_iNextSuccessor++;
+								state.m_iStatus = ExpansionCheckpoint.STOPPED_AT_SIZE;
+								return finishRBFS(state, fCheckpoint, epsilon, centres, statistics);
 							}
+						} else {
+							System.out.println("达到了" + max_level + "层，闭包的数目：" + vAllEpsilonBeliefPoints.size());
+							System.out.println("总数 = " + state.m_cSuccessors);
+							// 以更大的max_level继续时从这个后继开始
+							state.m_cSuccessors--;
+							levelStatistics.m_cGenerated--;
+							state.m_iStatus = ExpansionCheckpoint.STOPPED_AT_LEVEL;
+							return finishRBFS(state, fCheckpoint, epsilon, centres, statistics);
 						}
-						if (!inRange) {
-							if (next.getLevel() <= max_level) {
-								queue.offer(next);
+					}
+				}
+			}
+			state.m_bsParent = null;
+			if (precomputed && ++batchPosition == batch.size())
+				batch = null;
+		}
+		// 第三种情况
+		System.out.println("点集探索完成, 总闭包的数目为：" + vAllEpsilonBeliefPoints.size());
+		System.out.println("总数 = " + state.m_cSuccessors);
+		state.m_iStatus = ExpansionCheckpoint.EXHAUSTED;
+		return finishRBFS(state, fCheckpoint, epsilon, centres, statistics);
+	}
+
+	private BeliefStateVector<BeliefState> finishRBFS(ExpansionCheckpoint state, File fCheckpoint, double epsilon,
+			BeliefIndex centres, ExpansionStatistics statistics) {
+		if (fCheckpoint != null)
+			state.save(pomdp, fCheckpoint, epsilon, getVariantName());
+		if (isPruning())
+			printPrunedMass(state);
+		finishStatistics(statistics, state.m_vCentres.size());
+		finishIndex(centres);
+		return state.m_vCentres;
+	}
+
+	private void printPrunedMass(ExpansionCheckpoint state) {
+		double[] reached = state.getReachedMass(), pruned = state.getPrunedMass();
+		double totalPruned = 0;
+		System.out.println("剪枝阈值 P(o|b,a) < " + observationThreshold + ", 路径概率 < " + pathThreshold);
+		for (int level = 1; level < reached.length; level++) {
+			if (reached[level] <= 0)
+				continue;
+			totalPruned += pruned[level];
+			System.out.println("第" + level + "层：到达的概率质量 " + reached[level] + "，剪掉 " + pruned[level] + " ("
+					+ 100 * pruned[level] / reached[level] + "%)");
+		}
+		System.out.println("剪掉的概率质量共 " + totalPruned);
+	}
+
+	/**
+	 * covered为null时计算frontier[begin, end)的所有后继，新算出的后继不放入缓存；
+	 * 否则检查已经放入缓存的后继是否落在已有的闭包内。
+	 * 第i个父节点的(a,o)后继存放在successors[(i * |A| + a) * |O| + o]。
+	 * pathProbabilities不为null时是各父节点的路径概率，被剪掉的后继不计算。
+	 * 计算后继和检查闭包的时间、距离计算次数记录在statistics[i]中。
+	 */
+	private class SuccessorTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private static final int PARENTS_PER_TASK = 1;
+		private ArrayList<BeliefState> frontier;
+		private int begin, end;
+		private BeliefState[] successors;
+		private boolean[] covered;
+		private BeliefIndex centres;
+		private double radius;
+		private double[] pathProbabilities;
+		private ExpansionStatistics.Level[] statistics;
+		private CountingDistanceMetric counter;
+
+		SuccessorTask(ArrayList<BeliefState> frontier, int begin, int end, BeliefState[] successors, boolean[] covered,
+				BeliefIndex centres, double radius, double[] pathProbabilities, ExpansionStatistics.Level[] statistics,
+				CountingDistanceMetric counter) {
+			this.frontier = frontier;
+			this.begin = begin;
+			this.end = end;
+			this.successors = successors;
+			this.covered = covered;
+			this.centres = centres;
+			this.radius = radius;
+			this.pathProbabilities = pathProbabilities;
+			this.statistics = statistics;
+			this.counter = counter;
+		}
+
+		protected void compute() {
+			if (end - begin > PARENTS_PER_TASK) {
+				int middle = (begin + end) / 2;
+				invokeAll(
+						new SuccessorTask(frontier, begin, middle, successors, covered, centres, radius, pathProbabilities,
+								statistics, counter),
+						new SuccessorTask(frontier, middle, end, successors, covered, centres, radius, pathProbabilities,
+								statistics, counter));
+				return;
+			}
+			int actionCount = pomdp.getActionCount();
+			int observationCount = pomdp.getObservationCount();
+			for (int i = begin; i < end; i++) {
+				BeliefState bs = frontier.get(i);
+				if (covered == null) {
+					ExpansionStatistics.Level local = new ExpansionStatistics.Level(bs.getLevel() + 1);
+					statistics[i] = local;
+					for (int iAction = 0; iAction < actionCount; ++iAction) {
+						for (int iObservation = 0; iObservation < observationCount; ++iObservation) {
+							if (pathProbabilities != null && isPruned(bs, pathProbabilities[i], iAction, iObservation))
+								continue;
+							successors[(i * actionCount + iAction) * observationCount + iObservation] =
+									computeNextBeliefState(bs, iAction, iObservation, local);
+						}
+					}
+				} else {
+					for (int slot = i * actionCount * observationCount; slot < (i + 1) * actionCount
+							* observationCount; slot++) {
+						if (successors[slot] != null)
+							covered[slot] = anyWithin(centres, counter, successors[slot], radius, statistics[i]);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * 采样扩张中选择动作的策略
+	 */
+	public enum SamplingPolicy {
+		// 均匀随机
+		RANDOM,
+		// 当前信念点所在闭包中执行次数最少的动作，相同时随机
+		LEAST_TRIED,
+		// 以探索率随机，否则选立即回报R(b,a)最大的动作
+		REWARD_GREEDY
+	}
+
+	/**
+	 * 设置采样扩张的动作选择策略、REWARD_GREEDY的探索率和选择动作的随机种子
+	 */
+	public void setSampling(SamplingPolicy policy, double explorationRate, long seed) {
+		samplingPolicy = policy;
+		samplingExplorationRate = explorationRate;
+		samplingSeed = seed;
+	}
+
+	/**
+	 * 采样扩张：不生成每个信念点的全部|A|*|O|个后继，而是用POMDP.execute/observe模拟轨迹，
+	 * 轨迹经过的信念点不在已有闭包内时成为新的中心点。可能性大的信念点很快被覆盖，代价只与轨迹数和长度成正比。
+	 *
+	 * 每条轨迹从chooseStartState和初始信念点开始，最多horizon步，到达终止状态或后继不存在时提前结束。
+	 * 新中心点的层数是初始信念点的层数加上它在轨迹上的步数。闭包数目达到max_size时停止。
+	 * 开始时用setSampling的种子重新初始化POMDP的随机数（状态转移和观察）和选择动作的随机数，所以结果可以重现。
+	 */
+	public BeliefStateVector<BeliefState> expandSampled(double epsilon, int max_size, int trajectories, int horizon) {
+		BeliefStateVector<BeliefState> vAllEpsilonBeliefPoints = new BeliefStateVector<BeliefState>();
+		ExpansionStatistics statistics = new ExpansionStatistics("Sampled");
+		CountingDistanceMetric counter = new CountingDistanceMetric(metric);
+		BeliefIndex centres = newCentreIndex(epsilon, counter);
+		double radius = Math.nextDown(epsilon);
+		RandomGenerator rndGenerator = new RandomGenerator("Expander", samplingSeed);
+		pomdp.initRandomGenerator(samplingSeed);
+		int actionCount = pomdp.getActionCount();
+		// 每个闭包中每个动作执行的次数，LEAST_TRIED使用
+		ArrayList<int[]> actionCounts = new ArrayList<int[]>();
+
+		BeliefState initial = pomdp.getBeliefStateFactory().getInitialBeliefState();
+		vAllEpsilonBeliefPoints.add(initial);
+		centres.add(initial);
+		actionCounts.add(new int[actionCount]);
+		pomdp.getBeliefStateFactory().pinBeliefState(initial);
+
+		int cnt = 1, cTrajectories = 0;
+		while (cTrajectories < trajectories && vAllEpsilonBeliefPoints.size() < max_size) {
+			cTrajectories++;
+			int iState = pomdp.chooseStartState();
+			BeliefState bs = initial;
+			int iCentre = 0;
+			for (int iStep = 0; iStep < horizon && vAllEpsilonBeliefPoints.size() < max_size; iStep++) {
+				int level = initial.getLevel() + iStep + 1;
+				ExpansionStatistics.Level levelStatistics = statistics.getLevel(level);
+				levelStatistics.m_cExpanded++;
+				int iAction = chooseSampledAction(bs, actionCounts.get(iCentre), rndGenerator);
+				actionCounts.get(iCentre)[iAction]++;
+				int iNextState = pomdp.execute(iAction, iState);
+				int iObservation = pomdp.observe(iAction, iNextState);
+				BeliefState next = nextBeliefState(bs, iAction, iObservation, levelStatistics);
+				if (next == null)
+					break;
+				cnt++;
+				levelStatistics.m_cGenerated++;
+				iCentre = firstWithin(centres, counter, next, radius, levelStatistics);
+				if (iCentre >= 0) {
+					levelStatistics.m_cRejected++;
+				} else {
+					levelStatistics.m_cAdded++;
+					next.setLevel(level);
+					iCentre = vAllEpsilonBeliefPoints.size();
+					vAllEpsilonBeliefPoints.add(next);
+					centres.add(next);
+					actionCounts.add(new int[actionCount]);
+					pomdp.getBeliefStateFactory().pinBeliefState(next);
+				}
+				if (pomdp.endADR(iNextState))
+					break;
+				bs = next;
+				iState = iNextState;
+			}
+		}
+		System.out.println("采样扩张完成, 轨迹数：" + cTrajectories + "，总闭包的数目为：" + vAllEpsilonBeliefPoints.size());
+		System.out.println("总数 = " + cnt);
+		finishStatistics(statistics, vAllEpsilonBeliefPoints.size());
+		finishIndex(centres);
+		return vAllEpsilonBeliefPoints;
+	}
+
+	private int chooseSampledAction(BeliefState bs, int[] actionCounts, RandomGenerator rndGenerator) {
+		int actionCount = actionCounts.length;
+		if (samplingPolicy == SamplingPolicy.RANDOM
+				|| (samplingPolicy == SamplingPolicy.REWARD_GREEDY && rndGenerator.nextDouble() < samplingExplorationRate))
+			return rndGenerator.nextInt(actionCount);
+
+		// 在得分最高的动作中随机选一个（蓄水池抽样）
+		int iBest = -1, cBest = 0;
+		double dBest = Double.NEGATIVE_INFINITY;
+		for (int iAction = 0; iAction < actionCount; iAction++) {
+			double dScore = samplingPolicy == SamplingPolicy.LEAST_TRIED ? -actionCounts[iAction]
+					: pomdp.immediateReward(bs, iAction);
+			if (dScore > dBest) {
+				dBest = dScore;
+				iBest = iAction;
+				cBest = 1;
+			} else if (dScore == dBest && rndGenerator.nextInt(++cBest) == 0) {
+				iBest = iAction;
+			}
+		}
+		return iBest;
+	}
+
+	/**
+	 * 最优先扩张中信念点的权重
+	 */
+	public enum ExpansionPriority {
+		// 从初始信念点到达的概率，即路径上P(o|b,a)之积
+		REACHABILITY,
+		// 到达概率再乘以gamma^层数
+		DISCOUNTED_REACHABILITY
+	}
+
+	/**
+	 * 最优先扩张：每次扩张权重最大的中心点，使闭包数目用在最可能到达的信念点上，而不是又深又不太可能到达的分支上
+	 *
+	 * 新中心点的权重等于父节点的权重乘以P(o|b,a)，DISCOUNTED_REACHABILITY再乘以gamma。
+	 * 后继落在已有闭包内时，如果覆盖它的中心点还没有被扩张，就把中心点的权重提高到后继的权重：在闭包MDP中到达这个后继就是到达该中心点。
+	 * 超过max_level层的后继不加入，闭包数目达到max_size时停止。
+	 *
+	 * parallelism > 1时每个线程有自己的IndexedBinaryHeap，新的中心点放入发现它的线程的堆，
+	 * 自己的堆空了就从其他线程的堆中取走权重最大的点（work stealing）。
+	 * 中心点索引由读写锁保护：先在读锁下检查，不在已有闭包内时在写锁下重新检查并加入。
+	 * 串行时结果是确定的，并行时中心点的顺序与线程调度有关。
+	 * 每个线程分别按层统计，结束时合并后报告给监听器。
+	 */
+	public BeliefStateVector<BeliefState> expandBestFirst(double epsilon, int max_size, int max_level,
+			ExpansionPriority priority) {
+		return new BestFirstExpansion(epsilon, max_size, max_level, priority).run();
+	}
+
+	private class BestFirstExpansion {
+		private double radius;
+		private int max_size, max_level;
+		// 每一步权重乘以的系数
+		private double factor;
+		private BeliefStateVector<BeliefState> vAllEpsilonBeliefPoints = new BeliefStateVector<BeliefState>();
+		private BeliefIndex centres;
+		private CountingDistanceMetric counter = new CountingDistanceMetric(metric);
+		// 每个线程的统计，结束时合并到第一个中
+		private ExpansionStatistics[] statistics;
+		// 保护centres和vAllEpsilonBeliefPoints；需要同时持有时先取这个锁，再取堆的锁
+		private ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+		// 每个线程的优先队列，访问时对堆本身加锁
+		private IndexedBinaryHeap[] heaps;
+		// 已经取出、正在扩张的信念点数（包括正在取的）
+		private AtomicInteger active = new AtomicInteger();
+		private AtomicInteger cnt = new AtomicInteger();
+		private AtomicInteger steals = new AtomicInteger();
+		private AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		private volatile boolean done = false;
+
+		BestFirstExpansion(double epsilon, int max_size, int max_level, ExpansionPriority priority) {
+			this.radius = Math.nextDown(epsilon);
+			this.max_size = max_size;
+			this.max_level = max_level;
+			this.factor = priority == ExpansionPriority.DISCOUNTED_REACHABILITY ? pomdp.getDiscountFactor() : 1.0;
+			this.centres = newCentreIndex(epsilon, counter);
+			this.heaps = new IndexedBinaryHeap[parallelism];
+			this.statistics = new ExpansionStatistics[parallelism];
+			for (int i = 0; i < parallelism; i++) {
+				heaps[i] = new IndexedBinaryHeap();
+				statistics[i] = new ExpansionStatistics("BestFirst");
+			}
+		}
+
+		BeliefStateVector<BeliefState> run() {
+			BeliefState initial = pomdp.getBeliefStateFactory().getInitialBeliefState();
+			vAllEpsilonBeliefPoints.add(initial);
+			centres.add(initial);
+			pomdp.getBeliefStateFactory().pinBeliefState(initial);
+			cnt.incrementAndGet();
+			initial.setPriority(1.0);
+			heaps[0].insert(initial);
+			done = vAllEpsilonBeliefPoints.size() >= max_size;
+
+			if (heaps.length == 1) {
+				work(0);
+			} else {
+				Thread[] workers = new Thread[heaps.length];
+				for (int i = 0; i < workers.length; i++) {
+					final int id = i;
+					workers[i] = new Thread(new Runnable() {
+						public void run() {
+							try {
+								work(id);
+							} catch (Throwable t) {
+								failure.compareAndSet(null, t);
+								done = true;
+							}
+						}
+					}, "best-first-" + i);
+					workers[i].start();
+				}
+				try {
+					for (Thread worker : workers)
+						worker.join();
+				} catch (InterruptedException e) {
+					done = true;
+					Thread.currentThread().interrupt();
+				}
+			}
+			// 没有被扩张的中心点留在堆中，清除它们的位置信息
+			for (IndexedBinaryHeap heap : heaps) {
+				synchronized (heap) {
+					heap.clear();
+				}
+			}
+			if (failure.get() != null)
+				throw new RuntimeException("best-first expansion failed", failure.get());
+
+			System.out.println("最优先扩张完成, 总闭包的数目为：" + vAllEpsilonBeliefPoints.size() + "，窃取次数：" + steals.get());
+			System.out.println("总数 = " + cnt.get());
+			for (int i = 1; i < statistics.length; i++)
+				statistics[0].merge(statistics[i]);
+			finishStatistics(statistics[0], vAllEpsilonBeliefPoints.size());
+			finishIndex(centres);
+			return vAllEpsilonBeliefPoints;
+		}
+
+		private void work(int id) {
+			while (!done) {
+				active.incrementAndGet();
+				BeliefState bs = poll(id);
+				if (bs == null) {
+					active.decrementAndGet();
+					// 先确认所有堆都空了，再确认没有线程在扩张：扩张中的线程在active减一之前就已经把后继放入了堆中
+					if (allEmpty() && active.get() == 0)
+						done = true;
+					else
+						Thread.yield();
+					continue;
+				}
+				try {
+					expand(bs, id);
+				} finally {
+					active.decrementAndGet();
+				}
+			}
+		}
+
+		/**
+		 * 从自己的堆中取权重最大的点，自己的堆为空时依次从其他线程的堆中取
+		 */
+		private BeliefState poll(int id) {
+			for (int k = 0; k < heaps.length; k++) {
+				IndexedBinaryHeap heap = heaps[(id + k) % heaps.length];
+				BeliefState bs;
+				synchronized (heap) {
+					bs = (BeliefState) heap.extractMax();
+				}
+				if (bs != null) {
+					if (k > 0)
+						steals.incrementAndGet();
+					return bs;
+				}
+			}
+			return null;
+		}
+
+		private boolean allEmpty() {
+			for (IndexedBinaryHeap heap : heaps) {
+				synchronized (heap) {
+					if (!heap.isEmpty())
+						return false;
+				}
+			}
+			return true;
+		}
+
+		private void expand(BeliefState bs, int id) {
+			double weight = bs.getPriority();
+			int level = bs.getLevel() + 1;
+			ExpansionStatistics.Level levelStatistics = statistics[id].getLevel(level);
+			levelStatistics.m_cExpanded++;
+			for (int iAction = 0; iAction < pomdp.getActionCount(); ++iAction) {
+				for (int iObservation = 0; iObservation < pomdp.getObservationCount(); ++iObservation) {
+					if (done)
+						return;
+					BeliefState next = nextBeliefState(bs, iAction, iObservation, levelStatistics);
+					if (next == null)
+						continue;
+					cnt.incrementAndGet();
+					levelStatistics.m_cGenerated++;
+					double w = weight * factor * bs.probabilityOGivenA(iAction, iObservation);
+
+					BeliefState centre = null;
+					lock.readLock().lock();
+					try {
+						int iCentre = firstWithin(centres, counter, next, radius, levelStatistics);
+						if (iCentre >= 0)
+							centre = vAllEpsilonBeliefPoints.get(iCentre);
+					} finally {
+						lock.readLock().unlock();
+					}
+					if (centre == null) {
+						if (level > max_level)
+							continue;
+						lock.writeLock().lock();
+						try {
+							int iCentre = firstWithin(centres, counter, next, radius, levelStatistics);
+							if (iCentre >= 0) {
+								centre = vAllEpsilonBeliefPoints.get(iCentre);
+							} else {
+								if (done)
+									return;
+								levelStatistics.m_cAdded++;
+								next.setLevel(level);
 								vAllEpsilonBeliefPoints.add(next);
+								centres.add(next);
+								pomdp.getBeliefStateFactory().pinBeliefState(next);
 								if (vAllEpsilonBeliefPoints.size() >= max_size) {
-									// 第一种情况
-									System.out.println("达到了最大闭包数，当前next所在层数为：" + next.getLevel());
-									System.out.println("总数 = " + cnt);
-									return vAllEpsilonBeliefPoints;
+									done = true;
+								} else {
+									synchronized (heaps[id]) {
+										next.setPriority(w);
+										heaps[id].insert(next);
+									}
 								}
-							} else {
-								System.out.println("达到了" + max_level + "层，闭包的数目：" + vAllEpsilonBeliefPoints.size());
-								System.out.println("总数 = " + cnt);
-								return vAllEpsilonBeliefPoints;
+								continue;
 							}
+						} finally {
+							lock.writeLock().unlock();
 						}
 					}
+					levelStatistics.m_cRejected++;
+					raise(centre, w);
 				}
 			}
 		}
-		// 第三种情况
-		System.out.println("点集探索完成, 总闭包的数目为：" + vAllEpsilonBeliefPoints.size());
-		System.out.println("总数 = " + cnt);
-		return vAllEpsilonBeliefPoints;
+
+		/**
+		 * 中心点还在某个堆中等待扩张时，把它的权重提高到w
+		 */
+		private void raise(BeliefState centre, double w) {
+			PriorityQueue heap = centre.getContainer();
+			if (heap == null)
+				return;
+			synchronized (heap) {
+				if (centre.getContainer() == heap)
+					centre.increasePriority(w);
+			}
+		}
 	}
 
 	public BeliefStateVector<BeliefState> expand(double epsilon, int max_size, int max_level) {
@@ -94,9 +1202,19 @@ public class Expander {
 		int CNum = 0; // 在闭包外数量
 		int cnt = 0; // 探索到的点总数
 
+		ExpansionStatistics statistics = new ExpansionStatistics("Expand");
+		CountingDistanceMetric counter = new CountingDistanceMetric(metric);
+		BeliefIndex centres = newCentreIndex(epsilon, counter);
+		// 已有的中心点，同一个信念点在缓存中只有一个对象，按对象判断，不逐个比较vBeliefPoints
+		Set<BeliefState> isCentre = Collections.newSetFromMap(new IdentityHashMap<BeliefState, Boolean>());
+		double[] closureDistance = new double[1];
+
 		// 初始结点先加入
 		BeliefState initial = pomdp.getBeliefStateFactory().getInitialBeliefState();
 		vBeliefPoints.add(initial);
+		isCentre.add(initial);
+		centres.add(initial);
+		pomdp.getBeliefStateFactory().pinBeliefState(initial);
 		queue.offer(initial);
 		CNum++;
 		cnt++;
@@ -107,39 +1225,43 @@ public class Expander {
 		// 遍历队列
 		while (!queue.isEmpty()) {
 			BeliefState bs = queue.poll();
+			completeLevels(statistics, bs.getLevel());
+			ExpansionStatistics.Level levelStatistics = statistics.getLevel(bs.getLevel() + 1);
+			levelStatistics.m_cExpanded++;
 			for (int iAction = 0; iAction < actionCount; ++iAction) {
 				for (int iObservation = 0; iObservation < observationCount; ++iObservation) {
-					BeliefState next = bs.nextBeliefState(iAction, iObservation);
+					BeliefState next = nextBeliefState(bs, iAction, iObservation, levelStatistics);
 
 					// 后继结点要存在且不是已知闭包中心点
-					if (next != null && !vBeliefPoints.contains(next)) {
+					if (next != null && !isCentre.contains(next)) {
 						cnt++;
+						levelStatistics.m_cGenerated++;
 						next.setLevel(bs.getLevel() + 1); // 设置层数
 
 						// 判断next点和任一点的距离，不过要注意避免闭包重叠
+						// 查询时一并返回找到的中心点的距离，不再另外计算
 						boolean inRange = false;
-						L1Distance distancer = new L1Distance();
-						for (BeliefState beliefState : vBeliefPoints) {
-							double closureDistance = distancer.distance(beliefState, next);
-							if (closureDistance < epsilon) {
+						if (firstWithin(centres, counter, next, Math.nextDown(2 * epsilon), levelStatistics, closureDistance) >= 0) {
+							levelStatistics.m_cRejected++;
+							inRange = true;
+							if (closureDistance[0] < epsilon) {
 								// 距离小于epsilon，则在闭包内
-								inRange = true;
 								ANum++;
-								break;
-							} else if (closureDistance >= epsilon && closureDistance < 2 * epsilon) {
+							} else {
 								// 距离在epsilon和两倍epsilon之间，暂时先无视
-								inRange = true;
 								BNum++;
-								break;
-							} else if (closureDistance >= 2 * epsilon) {
-								// 距离大于所有结点两倍epsilon，则生成新的闭包
 							}
 						}
+						// 距离大于所有结点两倍epsilon，则生成新的闭包
 						if (!inRange) {
 							CNum++;
 							if (next.getLevel() <= max_level) {
+								levelStatistics.m_cAdded++;
 								queue.offer(next); // 在闭包内不考虑它的后继
 								vBeliefPoints.add(next);
+								isCentre.add(next);
+								centres.add(next);
+								pomdp.getBeliefStateFactory().pinBeliefState(next);
 								// 调试用的输出语句
 								// System.out.println(vBeliefPoints.size() + " " + next.getLevel());
 								if (vBeliefPoints.size() >= max_size) {
@@ -147,6 +1269,8 @@ public class Expander {
 									System.out.println("达到了最大闭包数，当前next所在层数为：" + next.getLevel());
 									System.out.println("总数 = " + cnt + ", 在闭包内数量 = " + ANum + ", 在一倍到两倍之间数量 = " + BNum
 											+ ", 在闭包外数量 = " + CNum);
+									finishStatistics(statistics, vBeliefPoints.size());
+									finishIndex(centres);
 									return vBeliefPoints;
 								}
 							} else {
@@ -154,6 +1278,8 @@ public class Expander {
 								System.out.println("达到了" + max_level + "层，闭包的数目：" + vBeliefPoints.size());
 								System.out.println("总数 = " + cnt + ", 在闭包内数量 = " + ANum + ", 在一倍到两倍之间数量 = " + BNum
 										+ ", 在闭包外数量 = " + CNum);
+								finishStatistics(statistics, vBeliefPoints.size());
+								finishIndex(centres);
 								return vBeliefPoints;
 							}
 						}
@@ -164,6 +1290,8 @@ public class Expander {
 		// 第三种情况
 		System.out.println("点集探索完成, 总闭包的数目为：" + vBeliefPoints.size());
 		System.out.println("总数 = " + cnt + ", 在闭包内数量 = " + ANum + ", 在一倍到两倍之间数量 = " + BNum + ", 在闭包外数量 = " + CNum);
+		finishStatistics(statistics, vBeliefPoints.size());
+		finishIndex(centres);
 		return vBeliefPoints;
 	}
 
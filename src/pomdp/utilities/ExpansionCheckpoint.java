@@ -0,0 +1,319 @@
+package pomdp.utilities;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+import pomdp.environments.POMDP;
+
+/**
+ * R-BFS扩张的中间状态，以及它在磁盘上的二进制检查点
+ *
+ * R-BFS是确定的，某一时刻的状态由以下几部分完全决定：已有的中心点（及其层数）、队列、正在扩张的父节点和它的下一个(a,o)后继、计数。
+ * 队列和父节点都是中心点，只保存中心点的编号。
+ * 信念点缓存也影响结果：后继与缓存中已有的信念点（误差在BeliefStateFactory.m_dEpsilon以内）相同时，使用的是缓存中的那个。
+ * 所以同时保存中心点已经算出的所有后继，载入时放回缓存。缓存没有淘汰过信念点时，从检查点继续得到的结果与不中断地扩张相同。
+ * 扩张结束时也保存检查点，之后可以用更大的MAX_SIZE或MAX_LEVEL继续扩张，不必重新开始。
+ * 剪枝时还要保存每个中心点的路径概率和每层的概率质量统计。
+ *
+ * 文件按模型文件散列、epsilon和扩张的变体（距离度量、剪枝阈值）命名，与MAX_SIZE、MAX_LEVEL无关。
+ * 文件格式（大端）：
+ * 头部 magic, version, 模型散列, epsilon, 度量名, |S|, |A|, |O|, 状态, 计数, 最大层数, 中心点数
+ * 中心点 level, 路径概率, nnz, int[nnz]状态, double[nnz]概率
+ * 后继 个数, 每个不是中心点的后继 nnz, int[nnz]状态, double[nnz]概率
+ * 队列 长度, int[长度]中心点编号；父节点编号(-1表示没有), 下一个后继 a*|O|+o
+ * 概率质量 层数, 每层 到达的质量, 剪掉的质量
+ */
+public class ExpansionCheckpoint {
+
+	protected static final int MAGIC = 0x42534331; // "BSC1"
+	protected static final int VERSION = 2;
+	protected static final String SUFFIX = ".ckpt";
+
+	// 扩张的状态
+	public static final int RUNNING = 0;
+	public static final int STOPPED_AT_SIZE = 1; // 达到了最大闭包数
+	public static final int STOPPED_AT_LEVEL = 2; // 遇到了超过最大层数的新中心点，下一个后继就是它
+	public static final int EXHAUSTED = 3; // 点集探索完成
+
+	BeliefStateVector<BeliefState> m_vCentres;
+	ArrayDeque<BeliefState> m_qQueue;
+	BeliefState m_bsParent;
+	int m_iNextSuccessor;
+	int m_cSuccessors;
+	int m_iStatus;
+	// 加入时层数最大的中心点的层数。中心点再次作为后继出现时层数会被改写，所以单独记录
+	int m_iMaxCentreLevel;
+	// 剪枝时每个中心点的路径概率（第一次被发现时沿途P(o|b,a)之积），没有记录的是1
+	IdentityHashMap<BeliefState, Double> m_mPathProbabilities;
+	// 每层到达的概率质量和剪掉的概率质量，下标是后继的层数
+	double[] m_adReachedMass;
+	double[] m_adPrunedMass;
+
+	private ExpansionCheckpoint() {
+		m_vCentres = new BeliefStateVector<BeliefState>();
+		m_qQueue = new ArrayDeque<BeliefState>();
+		m_bsParent = null;
+		m_iNextSuccessor = 0;
+		m_cSuccessors = 0;
+		m_iStatus = RUNNING;
+		m_iMaxCentreLevel = 0;
+		m_mPathProbabilities = new IdentityHashMap<BeliefState, Double>();
+		m_adReachedMass = new double[0];
+		m_adPrunedMass = new double[0];
+	}
+
+	/**
+	 * 扩张的初始状态：只有初始信念点
+	 */
+	public static ExpansionCheckpoint start(POMDP pomdp) {
+		ExpansionCheckpoint ecState = new ExpansionCheckpoint();
+		BeliefState initial = pomdp.getBeliefStateFactory().getInitialBeliefState();
+		ecState.m_vCentres.add(initial);
+		pomdp.getBeliefStateFactory().pinBeliefState(initial);
+		ecState.m_qQueue.add(initial);
+		ecState.m_cSuccessors = 1;
+		ecState.m_iMaxCentreLevel = initial.getLevel();
+		return ecState;
+	}
+
+	public static File getCheckpointFile(POMDP pomdp, String sDirectory, double epsilon, String sVariantName) {
+		return new File(sDirectory, pomdp.getName() + "_" + Long.toHexString(pomdp.getModelHash()) + "_e" + epsilon + "_"
+				+ sVariantName + SUFFIX);
+	}
+
+	public BeliefStateVector<BeliefState> getCentres() {
+		return m_vCentres;
+	}
+
+	public double getPathProbability(BeliefState bs) {
+		Double dProbability = m_mPathProbabilities.get(bs);
+		return dProbability == null ? 1.0 : dProbability;
+	}
+
+	public void setPathProbability(BeliefState bs, double dProbability) {
+		m_mPathProbabilities.put(bs, dProbability);
+	}
+
+	/**
+	 * 累加第iLevel层到达的和剪掉的概率质量
+	 */
+	public void addMass(int iLevel, double dReached, double dPruned) {
+		if (iLevel >= m_adReachedMass.length) {
+			m_adReachedMass = Arrays.copyOf(m_adReachedMass, iLevel + 1);
+			m_adPrunedMass = Arrays.copyOf(m_adPrunedMass, iLevel + 1);
+		}
+		m_adReachedMass[iLevel] += dReached;
+		m_adPrunedMass[iLevel] += dPruned;
+	}
+
+	public double[] getReachedMass() {
+		return m_adReachedMass;
+	}
+
+	public double[] getPrunedMass() {
+		return m_adPrunedMass;
+	}
+
+	public int getStatus() {
+		return m_iStatus;
+	}
+
+	/**
+	 * 以(max_size, max_level)从头扩张时是否会经过这个状态
+	 *
+	 * 中心点加入时的层数都不能超过max_level，否则新的扩张会在更早的地方停止；中心点数必须小于max_size，
+	 * 或者恰好等于max_size并且这个状态就是在那里停止的（或点集已经探索完）。
+	 */
+	public boolean canResume(int max_size, int max_level) {
+		if (m_iMaxCentreLevel > max_level)
+			return false;
+		if (m_vCentres.size() < max_size)
+			return true;
+		return m_vCentres.size() == max_size && (m_iStatus == STOPPED_AT_SIZE || m_iStatus == EXHAUSTED);
+	}
+
+	/**
+	 * 是否不需要再扩张就能得到(max_size, max_level)的结果
+	 */
+	public boolean isFinished(int max_size) {
+		return m_iStatus == EXHAUSTED || m_vCentres.size() >= max_size;
+	}
+
+	/**
+	 * 保存检查点，先写临时文件再改名，中途失败不会破坏之前的检查点
+	 */
+	public void save(POMDP pomdp, File fCheckpoint, double epsilon, String sVariantName) {
+		File fTemp = new File(fCheckpoint.getPath() + ".tmp");
+		try {
+			File fDirectory = fCheckpoint.getAbsoluteFile().getParentFile();
+			if (!fDirectory.isDirectory() && !fDirectory.mkdirs())
+				throw new IOException("cannot create " + fDirectory);
+			DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fTemp), 1 << 16));
+			try {
+				write(dos, pomdp, epsilon, sVariantName);
+			} finally {
+				dos.close();
+			}
+			Files.move(fTemp.toPath(), fCheckpoint.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			Logger.getInstance().logln("ExpansionCheckpoint: failed to save " + fCheckpoint + ": " + e);
+			fTemp.delete();
+		}
+	}
+
+	private void write(DataOutputStream dos, POMDP pomdp, double epsilon, String sVariantName) throws IOException {
+		dos.writeInt(MAGIC);
+		dos.writeInt(VERSION);
+		dos.writeLong(pomdp.getModelHash());
+		dos.writeDouble(epsilon);
+		dos.writeUTF(sVariantName);
+		dos.writeInt(pomdp.getStateCount());
+		dos.writeInt(pomdp.getActionCount());
+		dos.writeInt(pomdp.getObservationCount());
+		dos.writeInt(m_iStatus);
+		dos.writeInt(m_cSuccessors);
+		dos.writeInt(m_iMaxCentreLevel);
+		dos.writeInt(m_vCentres.size());
+
+		IdentityHashMap<BeliefState, Integer> mIndexes = new IdentityHashMap<BeliefState, Integer>();
+		for (BeliefState bs : m_vCentres) {
+			mIndexes.put(bs, mIndexes.size());
+			dos.writeInt(bs.getLevel());
+			dos.writeDouble(getPathProbability(bs));
+			writeValues(dos, bs);
+		}
+
+		ArrayList<BeliefState> vSuccessors = new ArrayList<BeliefState>();
+		IdentityHashMap<BeliefState, Boolean> mSuccessors = new IdentityHashMap<BeliefState, Boolean>();
+		for (BeliefState bs : m_vCentres) {
+			for (int iAction = 0; iAction < pomdp.getActionCount(); iAction++) {
+				for (int iObservation = 0; iObservation < pomdp.getObservationCount(); iObservation++) {
+					BeliefState bsSuccessor = bs.getCachedSuccessor(iAction, iObservation);
+					if (bsSuccessor != null && !mIndexes.containsKey(bsSuccessor)
+							&& mSuccessors.put(bsSuccessor, Boolean.TRUE) == null)
+						vSuccessors.add(bsSuccessor);
+				}
+			}
+		}
+		dos.writeInt(vSuccessors.size());
+		for (BeliefState bs : vSuccessors)
+			writeValues(dos, bs);
+
+		dos.writeInt(m_qQueue.size());
+		for (BeliefState bs : m_qQueue)
+			dos.writeInt(mIndexes.get(bs));
+		dos.writeInt(m_bsParent == null ? -1 : mIndexes.get(m_bsParent));
+		dos.writeInt(m_iNextSuccessor);
+
+		dos.writeInt(m_adReachedMass.length);
+		for (int iLevel = 0; iLevel < m_adReachedMass.length; iLevel++) {
+			dos.writeDouble(m_adReachedMass[iLevel]);
+			dos.writeDouble(m_adPrunedMass[iLevel]);
+		}
+	}
+
+	private static void writeValues(DataOutputStream dos, BeliefState bs) throws IOException {
+		int cNonZero = bs.nnz();
+		dos.writeInt(cNonZero);
+		for (int i = 0; i < cNonZero; i++)
+			dos.writeInt(bs.index(i));
+		for (int i = 0; i < cNonZero; i++)
+			dos.writeDouble(bs.value(i));
+	}
+
+	private static BeliefState readValues(DataInputStream dis, BeliefStateFactory bsFactory) throws IOException {
+		int cNonZero = dis.readInt();
+		int[] aiStates = new int[cNonZero];
+		double[] adValues = new double[cNonZero];
+		for (int i = 0; i < cNonZero; i++)
+			aiStates[i] = dis.readInt();
+		for (int i = 0; i < cNonZero; i++)
+			adValues[i] = dis.readDouble();
+		return bsFactory.restoreBeliefState(aiStates, adValues);
+	}
+
+	/**
+	 * 载入检查点，重新生成的中心点被pin住，不会被缓存淘汰
+	 *
+	 * @return 文件不存在或者与当前模型、epsilon、度量不匹配时返回null
+	 */
+	public static ExpansionCheckpoint load(POMDP pomdp, File fCheckpoint, double epsilon, String sVariantName) {
+		if (!fCheckpoint.isFile())
+			return null;
+		try {
+			DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(fCheckpoint), 1 << 16));
+			try {
+				return read(dis, pomdp, epsilon, sVariantName);
+			} finally {
+				dis.close();
+			}
+		} catch (IOException e) {
+			Logger.getInstance().logln("ExpansionCheckpoint: failed to load " + fCheckpoint + ": " + e);
+			return null;
+		}
+	}
+
+	private static ExpansionCheckpoint read(DataInputStream dis, POMDP pomdp, double epsilon, String sVariantName)
+			throws IOException {
+		if (dis.readInt() != MAGIC || dis.readInt() != VERSION)
+			throw new IOException("unknown file format");
+		if (dis.readLong() != pomdp.getModelHash() || dis.readDouble() != epsilon || !dis.readUTF().equals(sVariantName))
+			throw new IOException("model or expansion parameters do not match");
+		if (dis.readInt() != pomdp.getStateCount() || dis.readInt() != pomdp.getActionCount()
+				|| dis.readInt() != pomdp.getObservationCount())
+			throw new IOException("model dimensions do not match");
+
+		ExpansionCheckpoint ecState = new ExpansionCheckpoint();
+		ecState.m_iStatus = dis.readInt();
+		ecState.m_cSuccessors = dis.readInt();
+		ecState.m_iMaxCentreLevel = dis.readInt();
+		int cCentres = dis.readInt();
+
+		BeliefStateFactory bsFactory = pomdp.getBeliefStateFactory();
+		// 先生成初始信念点，保证第一个中心点与工厂中的初始信念点是同一个对象
+		bsFactory.getInitialBeliefState();
+		for (int iCentre = 0; iCentre < cCentres; iCentre++) {
+			int iLevel = dis.readInt();
+			double dPathProbability = dis.readDouble();
+			BeliefState bs = readValues(dis, bsFactory);
+			bs.setLevel(iLevel);
+			if (dPathProbability != 1.0)
+				ecState.m_mPathProbabilities.put(bs, dPathProbability);
+			bsFactory.pinBeliefState(bs);
+			ecState.m_vCentres.add(bs);
+		}
+
+		// 后继只需要放回缓存
+		int cSuccessors = dis.readInt();
+		for (int i = 0; i < cSuccessors; i++)
+			readValues(dis, bsFactory);
+
+		int cQueue = dis.readInt();
+		for (int i = 0; i < cQueue; i++)
+			ecState.m_qQueue.add(ecState.m_vCentres.get(dis.readInt()));
+		int iParent = dis.readInt();
+		ecState.m_bsParent = iParent < 0 ? null : ecState.m_vCentres.get(iParent);
+		ecState.m_iNextSuccessor = dis.readInt();
+
+		int cLevels = dis.readInt();
+		ecState.m_adReachedMass = new double[cLevels];
+		ecState.m_adPrunedMass = new double[cLevels];
+		for (int iLevel = 0; iLevel < cLevels; iLevel++) {
+			ecState.m_adReachedMass[iLevel] = dis.readDouble();
+			ecState.m_adPrunedMass[iLevel] = dis.readDouble();
+		}
+		return ecState;
+	}
+}
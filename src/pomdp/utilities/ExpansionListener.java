@@ -0,0 +1,16 @@
+package pomdp.utilities;
+
+/**
+ * 扩张过程的监听器，通过Expander.addListener注册
+ *
+ * 每一层的统计完整之后调用一次levelCompleted，层数递增；扩张结束时调用expansionCompleted。
+ * R-BFS、expand和collectReachable（包括expandClustered）按层扩张，某一层的父节点全部扩张完时这一层就完整了；
+ * 最优先扩张和采样扩张在结束时才依次报告各层。expandAdaptive的每一轮是一次单独的R-BFS扩张。
+ * 并行扩张时也只在调用扩张的线程中调用。
+ */
+public interface ExpansionListener {
+
+	void levelCompleted(ExpansionStatistics.Level level);
+
+	void expansionCompleted(ExpansionStatistics statistics);
+}
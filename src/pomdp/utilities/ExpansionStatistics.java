@@ -0,0 +1,256 @@
+package pomdp.utilities;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+
+/**
+ * 一次扩张按层的统计，层数指后继所在的层，父节点计入它的后继所在的层
+ *
+ * 每层记录：扩张的父节点数、生成的后继数、落在已有闭包内被排除的数目、新加入的中心点数、剪掉的后继数、
+ * 距离计算次数、计算后继信念点和与闭包比较所用的时间，以及这一层完成时使用的堆内存。
+ * 从检查点继续扩张时只统计这一次运行的部分。
+ * expandClustered中聚类的距离计算不属于任何一层，记在第0层（初始信念点所在的层，不会有后继落在这一层）。
+ * 距离计算次数与扩张方式有关，同一种扩张串行和并行时也不同（见Expander.runRBFS），其余计数相同。
+ *
+ * 可以写成CSV（每层一行）或JSON，时间单位是毫秒。
+ */
+public class ExpansionStatistics {
+
+	public static class Level {
+		int m_iLevel;
+		long m_cExpanded;
+		long m_cGenerated;
+		long m_cRejected;
+		long m_cAdded;
+		long m_cPruned;
+		long m_cDistanceComputations;
+		long m_lBeliefUpdateNanos;
+		long m_lDistanceNanos;
+		long m_lHeapUsedBytes;
+
+		Level(int iLevel) {
+			m_iLevel = iLevel;
+		}
+
+		/**
+		 * 把另一个线程中记录的计数加进来
+		 */
+		void merge(Level level) {
+			m_cExpanded += level.m_cExpanded;
+			m_cGenerated += level.m_cGenerated;
+			m_cRejected += level.m_cRejected;
+			m_cAdded += level.m_cAdded;
+			m_cPruned += level.m_cPruned;
+			m_cDistanceComputations += level.m_cDistanceComputations;
+			m_lBeliefUpdateNanos += level.m_lBeliefUpdateNanos;
+			m_lDistanceNanos += level.m_lDistanceNanos;
+		}
+
+		public int getLevel() {
+			return m_iLevel;
+		}
+
+		boolean isEmpty() {
+			return m_cExpanded == 0 && m_cGenerated == 0 && m_cPruned == 0 && m_cDistanceComputations == 0;
+		}
+
+		public long getExpanded() {
+			return m_cExpanded;
+		}
+
+		public long getGenerated() {
+			return m_cGenerated;
+		}
+
+		public long getRejected() {
+			return m_cRejected;
+		}
+
+		public long getAdded() {
+			return m_cAdded;
+		}
+
+		public long getPruned() {
+			return m_cPruned;
+		}
+
+		public long getDistanceComputations() {
+			return m_cDistanceComputations;
+		}
+
+		public double getBeliefUpdateMillis() {
+			return m_lBeliefUpdateNanos / 1e6;
+		}
+
+		public double getDistanceMillis() {
+			return m_lDistanceNanos / 1e6;
+		}
+
+		public long getHeapUsedBytes() {
+			return m_lHeapUsedBytes;
+		}
+
+		/**
+		 * 生成的后继中落在已有闭包内的比例
+		 */
+		public double getRejectionRate() {
+			return m_cGenerated == 0 ? 0.0 : (double) m_cRejected / m_cGenerated;
+		}
+	}
+
+	private String m_sMode;
+	private ArrayList<Level> m_vLevels;
+	private int m_cCompletedLevels;
+	private long m_lStartNanos;
+	private long m_lElapsedNanos;
+	private int m_cCentres;
+
+	public ExpansionStatistics(String sMode) {
+		m_sMode = sMode;
+		m_vLevels = new ArrayList<Level>();
+		m_cCompletedLevels = 0;
+		m_lStartNanos = System.nanoTime();
+		m_lElapsedNanos = 0;
+		m_cCentres = 0;
+	}
+
+	/**
+	 * 第iLevel层的统计，不存在时创建
+	 */
+	public Level getLevel(int iLevel) {
+		while (m_vLevels.size() <= iLevel)
+			m_vLevels.add(new Level(m_vLevels.size()));
+		return m_vLevels.get(iLevel);
+	}
+
+	/**
+	 * 把另一个线程中记录的各层加进来，用于每个线程分别统计的扩张
+	 */
+	void merge(ExpansionStatistics statistics) {
+		for (Level level : statistics.m_vLevels)
+			getLevel(level.m_iLevel).merge(level);
+	}
+
+	/**
+	 * 有后继生成、剪掉或有父节点扩张的各层，按层数递增
+	 */
+	public ArrayList<Level> getLevels() {
+		ArrayList<Level> vLevels = new ArrayList<Level>();
+		for (Level level : m_vLevels)
+			if (!level.isEmpty())
+				vLevels.add(level);
+		return vLevels;
+	}
+
+	/**
+	 * 标记iLevel层及之前的各层已经完整，返回新完成的非空的层，并记录当前使用的堆内存
+	 */
+	ArrayList<Level> completeLevels(int iLevel) {
+		ArrayList<Level> vCompleted = new ArrayList<Level>();
+		iLevel = Math.min(iLevel, m_vLevels.size() - 1);
+		if (m_cCompletedLevels > iLevel)
+			return vCompleted;
+		Runtime runtime = Runtime.getRuntime();
+		long lHeapUsed = runtime.totalMemory() - runtime.freeMemory();
+		for (; m_cCompletedLevels <= iLevel; m_cCompletedLevels++) {
+			Level level = m_vLevels.get(m_cCompletedLevels);
+			if (level.isEmpty())
+				continue;
+			level.m_lHeapUsedBytes = lHeapUsed;
+			vCompleted.add(level);
+		}
+		return vCompleted;
+	}
+
+	void finish(int cCentres) {
+		m_cCentres = cCentres;
+		m_lElapsedNanos = System.nanoTime() - m_lStartNanos;
+	}
+
+	public String getMode() {
+		return m_sMode;
+	}
+
+	public int getCentreCount() {
+		return m_cCentres;
+	}
+
+	public double getElapsedMillis() {
+		return m_lElapsedNanos / 1e6;
+	}
+
+	public void writeCSV(File fOutput) throws IOException {
+		PrintWriter pw = open(fOutput);
+		try {
+			pw.println("level,expanded,generated,rejected,added,pruned,rejectionRate,distanceComputations,"
+					+ "beliefUpdateMillis,distanceMillis,heapUsedBytes");
+			for (Level level : getLevels()) {
+				pw.println(level.m_iLevel + "," + level.m_cExpanded + "," + level.m_cGenerated + "," + level.m_cRejected
+						+ "," + level.m_cAdded + "," + level.m_cPruned + "," + level.getRejectionRate() + ","
+						+ level.m_cDistanceComputations + "," + level.getBeliefUpdateMillis() + ","
+						+ level.getDistanceMillis() + "," + level.m_lHeapUsedBytes);
+			}
+		} finally {
+			pw.close();
+		}
+	}
+
+	public void writeJSON(File fOutput) throws IOException {
+		PrintWriter pw = open(fOutput);
+		try {
+			pw.println("{");
+			pw.println("  \"mode\": \"" + m_sMode + "\",");
+			pw.println("  \"centres\": " + m_cCentres + ",");
+			pw.println("  \"elapsedMillis\": " + getElapsedMillis() + ",");
+			pw.println("  \"levels\": [");
+			ArrayList<Level> vLevels = getLevels();
+			for (int i = 0; i < vLevels.size(); i++) {
+				Level level = vLevels.get(i);
+				pw.println("    {\"level\": " + level.m_iLevel + ", \"expanded\": " + level.m_cExpanded
+						+ ", \"generated\": " + level.m_cGenerated + ", \"rejected\": " + level.m_cRejected
+						+ ", \"added\": " + level.m_cAdded + ", \"pruned\": " + level.m_cPruned + ", \"rejectionRate\": "
+						+ level.getRejectionRate() + ", \"distanceComputations\": " + level.m_cDistanceComputations
+						+ ", \"beliefUpdateMillis\": " + level.getBeliefUpdateMillis() + ", \"distanceMillis\": "
+						+ level.getDistanceMillis() + ", \"heapUsedBytes\": " + level.m_lHeapUsedBytes + "}"
+						+ (i + 1 < vLevels.size() ? "," : ""));
+			}
+			pw.println("  ]");
+			pw.println("}");
+		} finally {
+			pw.close();
+		}
+	}
+
+	private static PrintWriter open(File fOutput) throws IOException {
+		File fDirectory = fOutput.getAbsoluteFile().getParentFile();
+		if (!fDirectory.isDirectory() && !fDirectory.mkdirs())
+			throw new IOException("cannot create " + fDirectory);
+		return new PrintWriter(new FileWriter(fOutput));
+	}
+
+	/**
+	 * 扩张结束时把统计写成sPrefix.csv和sPrefix.json的监听器
+	 */
+	public static class Writer implements ExpansionListener {
+		private String m_sPrefix;
+
+		public Writer(String sPrefix) {
+			m_sPrefix = sPrefix;
+		}
+
+		public void levelCompleted(Level level) {
+		}
+
+		public void expansionCompleted(ExpansionStatistics statistics) {
+			try {
+				statistics.writeCSV(new File(m_sPrefix + ".csv"));
+				statistics.writeJSON(new File(m_sPrefix + ".json"));
+			} catch (IOException e) {
+				Logger.getInstance().logln("ExpansionStatistics: failed to write " + m_sPrefix + ": " + e);
+			}
+		}
+	}
+}
@@ -4,7 +4,9 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map.Entry;
 
+import pomdp.utilities.datastructures.ArraySparseVector;
 import pomdp.utilities.datastructures.Function;
+import pomdp.utilities.datastructures.SparseVector;
 
 /*
  * 2018-4-29
@@ -17,6 +19,8 @@ public class SparseTabularFunction extends Function {
 	protected HashMap<Integer, Double> m_mSingleParameterValues;
 	protected HashMap<Integer, Double>[] m_mDualParameterValues;
 	protected HashMap<Integer,Double>[][] m_mTripleParametermValues;
+	// 三维函数每一行的紧凑副本，按HashMap的迭代顺序保存，setValue时失效
+	protected ArraySparseVector[][] m_aCompactRows;
 	
 	@SuppressWarnings("unchecked")
 	public SparseTabularFunction( int[] aiDims ){
@@ -30,6 +34,7 @@ public class SparseTabularFunction extends Function {
 					m_mDualParameterValues[i] = new HashMap<Integer, Double>();
 				if( aiDims.length >= 3 ){
 					m_mTripleParametermValues = new HashMap[aiDims[0]][aiDims[1]];
+					m_aCompactRows = new ArraySparseVector[aiDims[0]][aiDims[1]];
 					for( i = 0 ; i < aiDims[0] ; i++ )
 						for( j = 0 ; j < aiDims[1] ; j++ )
 							m_mTripleParametermValues[i][j] = new HashMap<Integer,Double>();
@@ -101,13 +106,23 @@ public class SparseTabularFunction extends Function {
 		else{
 			m_mTripleParametermValues[arg1][arg2].remove( arg3 );
 		}
-		
+		m_aCompactRows[arg1][arg2] = null;
 	}
 
 	public Iterator<Entry<Integer,Double>> getNonZeroEntries( int arg1, int arg2 ){
 		return m_mTripleParametermValues[arg1][arg2].entrySet().iterator();
 	}
 	
+	public SparseVector getNonZeroRow( int arg1, int arg2 ){
+		ArraySparseVector vRow = m_aCompactRows[arg1][arg2];
+		if( vRow == null ){
+			HashMap<Integer,Double> mRow = m_mTripleParametermValues[arg1][arg2];
+			vRow = ArraySparseVector.fromEntries( mRow.entrySet().iterator(), mRow.size() );
+			m_aCompactRows[arg1][arg2] = vRow;
+		}
+		return vRow;
+	}
+	
 	public Iterator<Entry<Integer, Double>> getNonZeroEntries() {
 		return m_mSingleParameterValues.entrySet().iterator();
 	}
@@ -34,24 +34,10 @@ public class TabularAlphaVector extends AlphaVector{
 	}
 	
 	public void accumulate( AlphaVector av ){
-		int iState = 0;
-		double dValue = 0.0, dLocalValue = 0.0;
-		Iterator<Entry<Integer, Double>> itNonZero = av.getNonZeroEntries();
-		
-		if( itNonZero != null ){
-			Pair<Integer,Double> p = null;
-			while( itNonZero.hasNext() ){
-				p = (Pair<Integer,Double>)itNonZero.next();
-				iState = p.m_first.intValue();
-				dValue = p.m_second.doubleValue();
-				dLocalValue = valueAt( iState );
-				setValue( iState, dValue + dLocalValue );
-			}
-		}
-		else{
-			for( iState = 0 ; iState < m_cStates ; iState++ ){
-				setValue( iState, valueAt( iState ) + av.valueAt( iState ) );
-			}
+		int iState = 0, cNonZero = av.nnz();
+		for( int i = 0 ; i < cNonZero ; i++ ){
+			iState = av.index( i );
+			setValue( iState, av.value( i ) + valueAt( iState ) );
 		}
 	}
 	@Override
@@ -73,6 +59,27 @@ public class TabularAlphaVector extends AlphaVector{
 			return m_cStates;
 		return m_mValues.size();
 	}
+	
+	/*
+	 * 与getNonZeroEntries()一样，第一次遍历时会整理成稀疏形式
+	 */
+	public int nnz() {
+		if( m_mValues == null )
+			finalizeValues();
+		return m_mValues.nnz();
+	}
+	
+	public int index( int i ) {
+		return m_mValues.index( i );
+	}
+	
+	public double value( int i ) {
+		return m_mValues.value( i );
+	}
+
+	public double[] getDenseValues() {
+		return m_aValues;
+	}
 
 	@Override
 	public AlphaVector newAlphaVector() {
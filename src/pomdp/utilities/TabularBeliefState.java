@@ -1,8 +1,10 @@
 package pomdp.utilities;
 
+import java.util.AbstractCollection;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.Map.Entry;
+import java.util.NoSuchElementException;
 
 import pomdp.utilities.datastructures.StaticMap;
 
@@ -11,18 +13,27 @@ public class TabularBeliefState extends BeliefState {
 	 * 
 	 */
 	private static final long serialVersionUID = 1L;
+	/**
+	 * 非零项超过该比例的信念点在finalizeValues之后保留稠密数组，否则只保留稀疏形式。
+	 * 与BeliefStateFactory原来按S/2切换更新方式的阈值一致。
+	 */
+	public static final double DENSE_FILL_RATIO = 0.5;
 	protected double[] m_aStateProbabilities;
 	protected boolean m_bSparse;
+	protected boolean m_bDense;
 	protected StaticMap m_mNonZeroEntries;
+	// 稠密信念点中非零项的状态，递增；稀疏信念点为null
+	protected int[] m_aiNonZeroStates;
 	
 	public TabularBeliefState( int cStates, int cActions, int cObservations, int id, boolean bSparse, boolean bCacheBeliefStates, BeliefStateFactory bsFactory ){
 		super( cStates, cActions, cObservations, id, bCacheBeliefStates, bsFactory );
 		m_bSparse = bSparse;		
+		m_bDense = true;
 		m_aStateProbabilities = new double[m_cStates];
 	}
 	
 	public long size() {
-		if( m_bSparse )
+		if( !m_bDense )
 			return m_mNonZeroEntries.size();
 		else
 			return m_cStates;
@@ -36,6 +47,8 @@ public class TabularBeliefState extends BeliefState {
 	}
 	
 	public synchronized void setValueAt( int iState, double dValue ){
+		m_bFingerprintValid = false;
+		m_bMaxBeliefValid = false;
 		if( m_aStateProbabilities != null )
 			m_aStateProbabilities[iState] = dValue;
 		if( m_mNonZeroEntries != null )
@@ -54,12 +67,60 @@ public class TabularBeliefState extends BeliefState {
 	 * @return
 	 */
 	public Collection<Entry<Integer,Double>> getNonZeroEntries(){
-		if( ( m_mNonZeroEntries == null ) && ( m_aStateProbabilities != null ) ){
+		initNonZeroEntries();
+		if( m_mNonZeroEntries != null )
+			return m_mNonZeroEntries;
+		return new DenseNonZeroEntries();
+	}
+	
+	/*
+	 * 每个信念点按自己的填充率决定表示方式：
+	 * m_bSparse为false时总是保留稠密数组；否则只有非零项超过DENSE_FILL_RATIO时才保留。
+	 * 稀疏的信念点只保留StaticMap；稠密的信念点不建立StaticMap，只记下非零项的下标，
+	 * index(i)/value(i)按这些下标读稠密数组。
+	 */
+	private void initNonZeroEntries(){
+		if( ( m_mNonZeroEntries == null ) && ( m_aiNonZeroStates == null ) )
+			buildNonZeroEntries();
+	}
+	
+	private synchronized void buildNonZeroEntries(){
+		if( ( m_mNonZeroEntries != null ) || ( m_aiNonZeroStates != null ) || ( m_aStateProbabilities == null ) )
+			return;
+		int cNonZeroEntries = 0, iState = 0;
+		for( iState = 0 ; iState < m_cStates ; iState++ ){
+			if( Math.abs( m_aStateProbabilities[iState] ) > 0.0 )
+				cNonZeroEntries++;
+		}
+		if( m_bSparse && cNonZeroEntries <= m_cStates * DENSE_FILL_RATIO ){
 			m_mNonZeroEntries = new StaticMap( m_aStateProbabilities, 0.0 );
-			if( m_bSparse )
-				m_aStateProbabilities = null;
+			m_aStateProbabilities = null;
+			m_bDense = false;
+		}
+		else{
+			int[] aiNonZeroStates = new int[cNonZeroEntries];
+			int i = 0;
+			for( iState = 0 ; iState < m_cStates ; iState++ ){
+				if( Math.abs( m_aStateProbabilities[iState] ) > 0.0 )
+					aiNonZeroStates[i++] = iState;
+			}
+			m_aiNonZeroStates = aiNonZeroStates;
 		}
-		return m_mNonZeroEntries;
+	}
+	
+	public boolean isDense(){
+		initNonZeroEntries();
+		return m_bDense;
+	}
+	
+	public double[] getDenseValues(){
+		initNonZeroEntries();
+		return m_aStateProbabilities;
+	}
+	
+	public void finalizeValues(){
+		initNonZeroEntries();
+		super.finalizeValues();
 	}
 
 	@Override
@@ -69,7 +130,49 @@ public class TabularBeliefState extends BeliefState {
 	}
 
 	public int getNonZeroEntriesCount() {
-		getNonZeroEntries();
-		return m_mNonZeroEntries.size();
+		initNonZeroEntries();
+		if( m_mNonZeroEntries != null )
+			return m_mNonZeroEntries.size();
+		return m_aiNonZeroStates.length;
+	}
+	
+	public int index( int i ){
+		initNonZeroEntries();
+		if( m_mNonZeroEntries != null )
+			return m_mNonZeroEntries.index( i );
+		return m_aiNonZeroStates[i];
+	}
+	
+	public double value( int i ){
+		initNonZeroEntries();
+		if( m_mNonZeroEntries != null )
+			return m_mNonZeroEntries.value( i );
+		return m_aStateProbabilities[m_aiNonZeroStates[i]];
+	}
+	
+	/**
+	 * 稠密信念点的非零项，按状态递增，直接读稠密数组
+	 */
+	private class DenseNonZeroEntries extends AbstractCollection<Entry<Integer,Double>>{
+		public int size(){
+			return m_aiNonZeroStates.length;
+		}
+		
+		public Iterator<Entry<Integer,Double>> iterator(){
+			return new Iterator<Entry<Integer,Double>>(){
+				private int m_iCurrent = 0;
+				
+				public boolean hasNext(){
+					return m_iCurrent < m_aiNonZeroStates.length;
+				}
+				
+				public Entry<Integer,Double> next(){
+					if( !hasNext() )
+						throw new NoSuchElementException();
+					int iState = m_aiNonZeroStates[m_iCurrent++];
+					return new Pair<Integer,Double>( iState, m_aStateProbabilities[iState] );
+				}
+			};
+		}
 	}
 }
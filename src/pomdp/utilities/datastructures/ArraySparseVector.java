@@ -0,0 +1,74 @@
+package pomdp.utilities.datastructures;
+
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.Map.Entry;
+
+/**
+ * 用两个并行数组保存的不可变稀疏向量，用作Function一行的紧凑表示。
+ * 非零项的顺序与构造时给出的顺序相同，不一定按下标排序。
+ */
+public class ArraySparseVector implements SparseVector, Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	public static final ArraySparseVector EMPTY = new ArraySparseVector( new int[0], new double[0] );
+
+	private final int[] m_aiIndexes;
+	private final double[] m_adValues;
+
+	public ArraySparseVector( int[] aiIndexes, double[] adValues ){
+		m_aiIndexes = aiIndexes;
+		m_adValues = adValues;
+	}
+
+	/**
+	 * 按迭代器的顺序复制所有项
+	 */
+	public static ArraySparseVector fromEntries( Iterator<Entry<Integer, Double>> itEntries, int cEntries ){
+		int[] aiIndexes = new int[cEntries];
+		double[] adValues = new double[cEntries];
+		int i = 0;
+		while( itEntries.hasNext() && i < cEntries ){
+			Entry<Integer, Double> e = itEntries.next();
+			aiIndexes[i] = e.getKey();
+			adValues[i] = e.getValue();
+			i++;
+		}
+		return new ArraySparseVector( aiIndexes, adValues );
+	}
+
+	/**
+	 * 复制dense数组中所有非零项，按下标升序
+	 */
+	public static ArraySparseVector fromDense( double[] adValues ){
+		int cEntries = 0;
+		for( double dValue : adValues ){
+			if( dValue != 0.0 )
+				cEntries++;
+		}
+		int[] aiIndexes = new int[cEntries];
+		double[] adNonZero = new double[cEntries];
+		int i = 0;
+		for( int iIndex = 0 ; iIndex < adValues.length ; iIndex++ ){
+			if( adValues[iIndex] != 0.0 ){
+				aiIndexes[i] = iIndex;
+				adNonZero[i] = adValues[iIndex];
+				i++;
+			}
+		}
+		return new ArraySparseVector( aiIndexes, adNonZero );
+	}
+
+	public int nnz(){
+		return m_aiIndexes.length;
+	}
+
+	public int index( int i ){
+		return m_aiIndexes[i];
+	}
+
+	public double value( int i ){
+		return m_adValues[i];
+	}
+}
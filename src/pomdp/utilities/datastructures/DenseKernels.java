@@ -0,0 +1,84 @@
+package pomdp.utilities.datastructures;
+
+/**
+ * 稠密数组上的基本运算：内积、L1/L2距离、axpy、最大值
+ *
+ * 有两个实现：逐个元素计算的ScalarDenseKernels，以及用jdk.incubator.vector做SIMD的VectorDenseKernels。
+ * VectorDenseKernels在src-vector源文件夹里单独编译，启动时用反射加载；类路径上没有它、运行时没有加
+ * --add-modules jdk.incubator.vector或者加载失败就用标量实现。
+ * 系统属性pomdp.denseKernels=scalar可以强制使用标量实现。
+ *
+ * 向量化实现的累加顺序与标量实现不同，结果可能在最后几位有差别。
+ */
+public abstract class DenseKernels {
+
+	public static final String PROPERTY_NAME = "pomdp.denseKernels";
+	protected static final String VECTOR_KERNELS_CLASS = "pomdp.utilities.datastructures.VectorDenseKernels";
+
+	private static final DenseKernels g_dkInstance = createInstance();
+
+	public static DenseKernels getInstance() {
+		return g_dkInstance;
+	}
+
+	private static DenseKernels createInstance() {
+		DenseKernels dkVector = null;
+		if (!"scalar".equals(System.getProperty(PROPERTY_NAME)))
+			dkVector = createVectorKernels();
+		if (dkVector == null)
+			return new ScalarDenseKernels();
+		return dkVector;
+	}
+
+	/**
+	 * @return 向量化实现，当前运行环境不支持时返回null
+	 */
+	public static DenseKernels createVectorKernels() {
+		try {
+			return (DenseKernels) Class.forName(VECTOR_KERNELS_CLASS).getDeclaredConstructor().newInstance();
+		} catch (Throwable t) {
+			// 没有jdk.incubator.vector模块时加载会抛出NoClassDefFoundError
+			return null;
+		}
+	}
+
+	public abstract String getName();
+
+	public abstract double dot(double[] adValues1, double[] adValues2);
+
+	public abstract float dot(float[] afValues1, float[] afValues2);
+
+	public double l1(double[] adValues1, double[] adValues2) {
+		return l1(adValues1, adValues2, 0, Math.min(adValues1.length, adValues2.length));
+	}
+
+	/**
+	 * 下标在[iFrom, iTo)内的L1距离，用于分段累加、提前停止
+	 */
+	public abstract double l1(double[] adValues1, double[] adValues2, int iFrom, int iTo);
+
+	public abstract float l1(float[] afValues1, float[] afValues2);
+
+	public abstract double l2(double[] adValues1, double[] adValues2);
+
+	public abstract float l2(float[] afValues1, float[] afValues2);
+
+	/**
+	 * adY += dAlpha * adX
+	 */
+	public abstract void axpy(double dAlpha, double[] adX, double[] adY);
+
+	public abstract void axpy(float fAlpha, float[] afX, float[] afY);
+
+	/**
+	 * @return 最大值，空数组返回负无穷
+	 */
+	public abstract double max(double[] adValues);
+
+	public abstract float max(float[] afValues);
+
+	/**
+	 * max_i |adValues1[i] - adValues2[i]|，值迭代中判断收敛用
+	 */
+	public abstract double maxAbsDiff(double[] adValues1, double[] adValues2);
+}
@@ -66,6 +66,14 @@ public abstract class Function implements Serializable {
 	 */
 	public abstract Iterator<Entry<Integer,Double>> getNonZeroEntries( int arg1, int arg2 );
 	
+	/**
+	 * 与getNonZeroEntries( arg1, arg2 )内容和顺序相同的紧凑一行，遍历时不分配对象
+	 * @param arg1
+	 * @param arg2
+	 * @return
+	 */
+	public abstract SparseVector getNonZeroRow( int arg1, int arg2 );
+	
 	@SuppressWarnings("rawtypes")
 	public abstract Iterator getNonZeroEntries();
 	
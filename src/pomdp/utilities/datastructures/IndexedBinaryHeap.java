@@ -0,0 +1,203 @@
+package pomdp.utilities.datastructures;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * PriorityQueue的二叉堆实现，优先级大的在堆顶
+ *
+ * 元素在堆数组中的位置记录在元素自己的location中，所以adjust不需要查找，insert、extractMax、adjust、remove都是O(log n)。
+ * 优先级相同时先插入的先出队，所以所有元素优先级相同时就是普通的FIFO队列。
+ * 一个元素同一时刻只能在一个堆中。不是线程安全的。
+ */
+public class IndexedBinaryHeap implements PriorityQueue{
+	private static final int INITIAL_CAPACITY = 16;
+
+	private PriorityQueueElement[] m_aElements;
+	// 每个元素插入时的序号，与m_aElements一一对应，用于优先级相同时的排序
+	private long[] m_alSequence;
+	private int m_cElements;
+	private long m_lNextSequence;
+	private int m_cSwaps;
+
+	public IndexedBinaryHeap(){
+		this( INITIAL_CAPACITY );
+	}
+
+	public IndexedBinaryHeap( int cCapacity ){
+		m_aElements = new PriorityQueueElement[Math.max( cCapacity, 1 )];
+		m_alSequence = new long[m_aElements.length];
+		m_cElements = 0;
+		m_lNextSequence = 0;
+		m_cSwaps = 0;
+	}
+
+	public void insert( PriorityQueueElement element ){
+		if( element.getContainer() != null )
+			throw new IllegalArgumentException( "element is already in a priority queue" );
+		if( m_cElements == m_aElements.length ){
+			int cCapacity = m_aElements.length * 2;
+			PriorityQueueElement[] aElements = new PriorityQueueElement[cCapacity];
+			long[] alSequence = new long[cCapacity];
+			System.arraycopy( m_aElements, 0, aElements, 0, m_cElements );
+			System.arraycopy( m_alSequence, 0, alSequence, 0, m_cElements );
+			m_aElements = aElements;
+			m_alSequence = alSequence;
+		}
+		m_aElements[m_cElements] = element;
+		m_alSequence[m_cElements] = m_lNextSequence++;
+		element.setLocation( m_cElements );
+		element.setContainer( this );
+		m_cElements++;
+		siftUp( m_cElements - 1 );
+	}
+
+	public PriorityQueueElement extractMax(){
+		if( m_cElements == 0 )
+			return null;
+		PriorityQueueElement element = m_aElements[0];
+		removeAt( 0 );
+		return element;
+	}
+
+	/**
+	 * 堆顶的元素，不出队
+	 * @return 堆为空时返回null
+	 */
+	public PriorityQueueElement getMax(){
+		if( m_cElements == 0 )
+			return null;
+		return m_aElements[0];
+	}
+
+	/**
+	 * 元素的优先级改变后恢复堆的性质，由PriorityQueueElement.setPriority等调用
+	 */
+	public void adjust( PriorityQueueElement element ){
+		int iLocation = checkLocation( element );
+		if( !siftUp( iLocation ) )
+			siftDown( iLocation );
+	}
+
+	public boolean contains( PriorityQueueElement element ){
+		int iLocation = element.getLocation();
+		return element.getContainer() == this && iLocation >= 0 && iLocation < m_cElements && m_aElements[iLocation] == element;
+	}
+
+	/**
+	 * 从堆中删除任意一个元素
+	 */
+	public void remove( PriorityQueueElement element ){
+		removeAt( checkLocation( element ) );
+	}
+
+	@SuppressWarnings("rawtypes")
+	public Iterator iterator(){
+		return new Iterator<PriorityQueueElement>(){
+			private int m_iNext = 0;
+			public boolean hasNext(){
+				return m_iNext < m_cElements;
+			}
+			public PriorityQueueElement next(){
+				if( m_iNext >= m_cElements )
+					throw new NoSuchElementException();
+				return m_aElements[m_iNext++];
+			}
+		};
+	}
+
+	public boolean isEmpty(){
+		return m_cElements == 0;
+	}
+
+	public int size(){
+		return m_cElements;
+	}
+
+	public void clear(){
+		for( int i = 0 ; i < m_cElements ; i++ ){
+			m_aElements[i].clear();
+			m_aElements[i] = null;
+		}
+		m_cElements = 0;
+	}
+
+	public int swapCount(){
+		return m_cSwaps;
+	}
+
+	private int checkLocation( PriorityQueueElement element ){
+		if( !contains( element ) )
+			throw new IllegalArgumentException( "element is not in this priority queue" );
+		return element.getLocation();
+	}
+
+	private void removeAt( int iLocation ){
+		PriorityQueueElement element = m_aElements[iLocation];
+		m_cElements--;
+		if( iLocation < m_cElements ){
+			move( m_cElements, iLocation );
+			if( !siftUp( iLocation ) )
+				siftDown( iLocation );
+		}
+		m_aElements[m_cElements] = null;
+		element.clear();
+	}
+
+	/**
+	 * 位置i的元素是否应该排在位置j的元素之前
+	 */
+	private boolean before( int i, int j ){
+		double dPriority1 = m_aElements[i].getPriority(), dPriority2 = m_aElements[j].getPriority();
+		if( dPriority1 != dPriority2 )
+			return dPriority1 > dPriority2;
+		return m_alSequence[i] < m_alSequence[j];
+	}
+
+	/**
+	 * @return 元素是否向上移动了
+	 */
+	private boolean siftUp( int iLocation ){
+		int iStart = iLocation;
+		while( iLocation > 0 ){
+			int iParent = ( iLocation - 1 ) / 2;
+			if( !before( iLocation, iParent ) )
+				break;
+			swap( iLocation, iParent );
+			iLocation = iParent;
+		}
+		return iLocation != iStart;
+	}
+
+	private void siftDown( int iLocation ){
+		while( true ){
+			int iChild = 2 * iLocation + 1;
+			if( iChild >= m_cElements )
+				break;
+			if( iChild + 1 < m_cElements && before( iChild + 1, iChild ) )
+				iChild++;
+			if( !before( iChild, iLocation ) )
+				break;
+			swap( iLocation, iChild );
+			iLocation = iChild;
+		}
+	}
+
+	private void swap( int i, int j ){
+		PriorityQueueElement element = m_aElements[i];
+		long lSequence = m_alSequence[i];
+		m_aElements[i] = m_aElements[j];
+		m_alSequence[i] = m_alSequence[j];
+		m_aElements[j] = element;
+		m_alSequence[j] = lSequence;
+		m_aElements[i].setLocation( i );
+		m_aElements[j].setLocation( j );
+		m_cSwaps++;
+	}
+
+	private void move( int iFrom, int iTo ){
+		m_aElements[iTo] = m_aElements[iFrom];
+		m_alSequence[iTo] = m_alSequence[iFrom];
+		m_aElements[iTo].setLocation( iTo );
+	}
+}
@@ -0,0 +1,8 @@
+package pomdp.utilities.datastructures;
+
+/**
+ * 接收(下标, 值)的回调，避免Entry<Integer,Double>的装箱
+ */
+public interface IntDoubleConsumer {
+	public void accept( int iIndex, double dValue );
+}
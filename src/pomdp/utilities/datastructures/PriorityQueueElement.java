@@ -18,7 +18,10 @@ public class PriorityQueueElement{
 	public void setContainer( PriorityQueue pqContainer ){
 		m_pqContainer = pqContainer;
 	}
-	
+	public PriorityQueue getContainer(){
+		return m_pqContainer;
+	}
+
 	public void increasePriority( double dPriority ){
 		if( m_dPriority < dPriority ){
 			m_dPriority = dPriority;
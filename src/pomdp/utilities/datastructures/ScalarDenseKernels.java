@@ -0,0 +1,96 @@
+package pomdp.utilities.datastructures;
+
+/**
+ * DenseKernels的标量实现，按下标顺序逐个累加
+ */
+public class ScalarDenseKernels extends DenseKernels {
+
+	public String getName() {
+		return "scalar";
+	}
+
+	public double dot(double[] adValues1, double[] adValues2) {
+		double dSum = 0.0;
+		int cEntries = Math.min(adValues1.length, adValues2.length);
+		for (int i = 0; i < cEntries; i++)
+			dSum += adValues1[i] * adValues2[i];
+		return dSum;
+	}
+
+	public float dot(float[] afValues1, float[] afValues2) {
+		float fSum = 0.0f;
+		int cEntries = Math.min(afValues1.length, afValues2.length);
+		for (int i = 0; i < cEntries; i++)
+			fSum += afValues1[i] * afValues2[i];
+		return fSum;
+	}
+
+	public double l1(double[] adValues1, double[] adValues2, int iFrom, int iTo) {
+		double dSum = 0.0;
+		for (int i = iFrom; i < iTo; i++)
+			dSum += Math.abs(adValues1[i] - adValues2[i]);
+		return dSum;
+	}
+
+	public float l1(float[] afValues1, float[] afValues2) {
+		float fSum = 0.0f;
+		int cEntries = Math.min(afValues1.length, afValues2.length);
+		for (int i = 0; i < cEntries; i++)
+			fSum += Math.abs(afValues1[i] - afValues2[i]);
+		return fSum;
+	}
+
+	public double l2(double[] adValues1, double[] adValues2) {
+		double dSum = 0.0, dDiff = 0.0;
+		int cEntries = Math.min(adValues1.length, adValues2.length);
+		for (int i = 0; i < cEntries; i++) {
+			dDiff = adValues1[i] - adValues2[i];
+			dSum += dDiff * dDiff;
+		}
+		return Math.sqrt(dSum);
+	}
+
+	public float l2(float[] afValues1, float[] afValues2) {
+		float fSum = 0.0f, fDiff = 0.0f;
+		int cEntries = Math.min(afValues1.length, afValues2.length);
+		for (int i = 0; i < cEntries; i++) {
+			fDiff = afValues1[i] - afValues2[i];
+			fSum += fDiff * fDiff;
+		}
+		return (float) Math.sqrt(fSum);
+	}
+
+	public void axpy(double dAlpha, double[] adX, double[] adY) {
+		int cEntries = Math.min(adX.length, adY.length);
+		for (int i = 0; i < cEntries; i++)
+			adY[i] += dAlpha * adX[i];
+	}
+
+	public void axpy(float fAlpha, float[] afX, float[] afY) {
+		int cEntries = Math.min(afX.length, afY.length);
+		for (int i = 0; i < cEntries; i++)
+			afY[i] += fAlpha * afX[i];
+	}
+
+	public double max(double[] adValues) {
+		double dMax = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < adValues.length; i++)
+			dMax = Math.max(dMax, adValues[i]);
+		return dMax;
+	}
+
+	public float max(float[] afValues) {
+		float fMax = Float.NEGATIVE_INFINITY;
+		for (int i = 0; i < afValues.length; i++)
+			fMax = Math.max(fMax, afValues[i]);
+		return fMax;
+	}
+
+	public double maxAbsDiff(double[] adValues1, double[] adValues2) {
+		double dMax = 0.0;
+		int cEntries = Math.min(adValues1.length, adValues2.length);
+		for (int i = 0; i < cEntries; i++)
+			dMax = Math.max(dMax, Math.abs(adValues1[i] - adValues2[i]));
+		return dMax;
+	}
+}
@@ -0,0 +1,33 @@
+package pomdp.utilities.datastructures;
+
+/**
+ * 稀疏向量的游标接口，按位置i访问第i个非零项，不分配任何对象。
+ * 用来代替热点循环中的Iterator<Entry<Integer,Double>>。
+ *
+ * 用法：
+ * for( int i = 0 ; i < v.nnz() ; i++ ){ iState = v.index( i ); dValue = v.value( i ); }
+ */
+public interface SparseVector {
+	/**
+	 * @return 存储的非零项个数
+	 */
+	public int nnz();
+
+	/**
+	 * @param i - 0 <= i < nnz()
+	 * @return 第i个非零项的下标
+	 */
+	public int index( int i );
+
+	/**
+	 * @param i - 0 <= i < nnz()
+	 * @return 第i个非零项的值
+	 */
+	public double value( int i );
+
+	public default void forEach( IntDoubleConsumer consumer ){
+		int cEntries = nnz();
+		for( int i = 0 ; i < cEntries ; i++ )
+			consumer.accept( index( i ), value( i ) );
+	}
+}
@@ -8,7 +8,7 @@ import java.util.Map.Entry;
 
 import pomdp.utilities.Pair;
 
-public class StaticMap implements Collection<Map.Entry<Integer,Double>>, Serializable{
+public class StaticMap implements Collection<Map.Entry<Integer,Double>>, SparseVector, Serializable{
 	private static final long serialVersionUID = 1L;
 	
 	private int[] m_aiIndexes;
@@ -101,6 +101,18 @@ public class StaticMap implements Collection<Map.Entry<Integer,Double>>, Seriali
 	public int countEntries(){
 		return m_cNonZeroValues;	
 	}
+	
+	public int nnz(){
+		return m_cNonZeroValues;
+	}
+	
+	public int index( int i ){
+		return m_aiIndexes[i];
+	}
+	
+	public double value( int i ){
+		return m_adValues[i];
+	}
 
 	public Iterator<Map.Entry<Integer,Double>> iterator() {
 		return new StaticMapIterator( m_aiIndexes, m_adValues, m_cNonZeroValues );
@@ -24,12 +24,14 @@ public class TabularFunction extends Function{
 	private double[] m_tbl1DValues;
 	private double[][] m_tbl2DValues;
 	private double[][][] m_tbl3DValues;
+	private ArraySparseVector[][] m_aCompactRows;
 	
 	public TabularFunction( int[] aiDimensions ){
 		super( aiDimensions );
 		m_tbl1DValues = null;
 		m_tbl2DValues = null;
 		m_tbl3DValues = null;
+		m_aCompactRows = null;
 		if( aiDimensions.length >= 1 ){
 			m_tbl1DValues = new double[aiDimensions[0]];
 		}
@@ -38,6 +40,7 @@ public class TabularFunction extends Function{
 		}
 		if( aiDimensions.length == 3 ){
 			m_tbl3DValues = new double[aiDimensions[0]][aiDimensions[1]][aiDimensions[2]];
+			m_aCompactRows = new ArraySparseVector[aiDimensions[0]][aiDimensions[1]];
 		}
 	}
 	
@@ -102,12 +105,22 @@ public class TabularFunction extends Function{
 		if( dValue < m_dMinValue )
 			m_dMinValue = dValue;
 		m_tbl3DValues[arg1][arg2][arg3] = dValue;
+		m_aCompactRows[arg1][arg2] = null;
 	}
 
 	
 	public Iterator<Entry<Integer,Double>> getNonZeroEntries( int arg1, int arg2 ){
 		return new ArrayIterator( m_tbl3DValues[arg1][arg2] );
 	}
+	
+	public SparseVector getNonZeroRow( int arg1, int arg2 ){
+		ArraySparseVector vRow = m_aCompactRows[arg1][arg2];
+		if( vRow == null ){
+			vRow = ArraySparseVector.fromDense( m_tbl3DValues[arg1][arg2] );
+			m_aCompactRows[arg1][arg2] = vRow;
+		}
+		return vRow;
+	}
 
 
 	public Iterator<Entry<Integer,Double>> getNonZeroEntries() {
@@ -0,0 +1,53 @@
+package pomdp.utilities.datastructures;
+
+/**
+ * 稠密/稀疏向量之间的内积
+ *
+ * 按两边的表示方式分成稠密-稠密、稀疏-稠密、稀疏-稀疏三种情况，
+ * 稠密一侧直接按下标取值，避免二分查找；稀疏一侧只遍历非零项，避免O(S)扫描。
+ * 稀疏的两种实现按状态下标从小到大累加，只是多加或少加一些0项，所以结果逐位一致；
+ * 稠密-稠密交给DenseKernels，使用向量化实现时累加顺序不同，结果可能在最后几位有差别。
+ */
+public final class VectorKernels {
+
+	private VectorKernels(){
+	}
+
+	public static double dot( double[] adValues1, double[] adValues2 ){
+		return DenseKernels.getInstance().dot( adValues1, adValues2 );
+	}
+
+	public static double dot( SparseVector vSparse, double[] adDense ){
+		double dSum = 0.0;
+		int cNonZero = vSparse.nnz();
+		for( int i = 0 ; i < cNonZero ; i++ ){
+			dSum += vSparse.value( i ) * adDense[vSparse.index( i )];
+		}
+		return dSum;
+	}
+
+	/**
+	 * 按下标归并两个稀疏向量，只累加两边都非零的项
+	 */
+	public static double dot( SparseVector v1, SparseVector v2 ){
+		double dSum = 0.0;
+		int cNonZero1 = v1.nnz(), cNonZero2 = v2.nnz();
+		int i1 = 0, i2 = 0, iIndex1 = 0, iIndex2 = 0;
+		while( i1 < cNonZero1 && i2 < cNonZero2 ){
+			iIndex1 = v1.index( i1 );
+			iIndex2 = v2.index( i2 );
+			if( iIndex1 == iIndex2 ){
+				dSum += v1.value( i1 ) * v2.value( i2 );
+				i1++;
+				i2++;
+			}
+			else if( iIndex1 < iIndex2 ){
+				i1++;
+			}
+			else{
+				i2++;
+			}
+		}
+		return dSum;
+	}
+}
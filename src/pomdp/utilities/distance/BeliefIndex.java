@@ -0,0 +1,53 @@
+package pomdp.utilities.distance;
+
+import java.util.ArrayList;
+
+import pomdp.utilities.BeliefState;
+
+/**
+ * 信念点集合上的度量索引，用于闭包的epsilon球查询
+ *
+ * 信念点按加入的顺序编号，所有查询返回的都是这个编号。
+ * 半径都是闭区间：d(b, c) <= dRadius。需要严格小于时传入Math.nextDown(dRadius)。
+ */
+public interface BeliefIndex
+{
+	/**
+	 * 加入一个信念点，编号为加入前的size()
+	 */
+	void add(BeliefState bs);
+
+	BeliefState get(int iIndex);
+
+	int size();
+
+	DistanceMetric getMetric();
+
+	/**
+	 * 是否存在与bs距离不超过dRadius的信念点
+	 */
+	boolean anyWithin(BeliefState bs, double dRadius);
+
+	/**
+	 * 与bs距离不超过dRadius的信念点中编号最小的一个
+	 * @return 编号，不存在时返回-1
+	 */
+	int firstWithin(BeliefState bs, double dRadius);
+
+	/**
+	 * 同firstWithin，并把找到的信念点与bs的距离写入adDistance[0]，不需要调用者再算一次
+	 * @return 编号，不存在时返回-1，这时不改变adDistance
+	 */
+	int firstWithin(BeliefState bs, double dRadius, double[] adDistance);
+
+	/**
+	 * 与bs距离不超过dRadius的所有信念点，按编号升序
+	 */
+	ArrayList<Integer> allWithin(BeliefState bs, double dRadius);
+
+	/**
+	 * 与bs距离最近的信念点，距离相同时取编号最小的
+	 * @return 编号，索引为空时返回-1
+	 */
+	int nearest(BeliefState bs);
+}
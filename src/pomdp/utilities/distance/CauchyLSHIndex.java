@@ -0,0 +1,281 @@
+package pomdp.utilities.distance;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+
+import pomdp.utilities.BeliefState;
+import pomdp.utilities.RandomGenerator;
+
+/**
+ * L1下的局部敏感散列索引（p-stable LSH，p=1时投影向量服从Cauchy分布）
+ *
+ * 每个散列函数 h(b) = floor((a·b + t) / w)，a的每一维独立服从标准Cauchy分布，t在[0,w)上均匀。
+ * 距离为d的两个点投影之差服从尺度为d的Cauchy分布，距离越近落入同一个桶的概率越大。
+ * 共cBands个散列表，每个表的键由cRows个散列值拼成；查询时取所有表中同桶的点作为候选，
+ * 再用精确距离检查。所以返回的点一定满足条件，但可能漏掉一些（召回率小于1）。
+ *
+ * 可以挂一个精确索引按比例抽查，统计召回率，用来调整bands/rows/w。
+ */
+public class CauchyLSHIndex implements BeliefIndex
+{
+	protected DistanceMetric m_dmMetric;
+	protected ArrayList<BeliefState> m_vBeliefs;
+	protected int m_cBands;
+	protected int m_cRows;
+	protected double m_dBucketWidth;
+	// [iBand * m_cRows + iRow][iState]
+	protected double[][] m_adProjections;
+	protected double[] m_adOffsets;
+	protected ArrayList<HashMap<Long, ArrayList<Integer>>> m_vTables;
+
+	// 召回率统计
+	protected BeliefIndex m_biExact;
+	protected int m_iSampleEvery;
+	protected long m_cQueries;
+	protected long m_cSampledQueries;
+	protected long m_cExactHits;
+	protected long m_cFoundHits;
+	protected long m_cCandidates;
+
+	/**
+	 * @param cStates - 状态数
+	 * @param cBands - 散列表个数，越多召回率越高，查询越慢
+	 * @param cRows - 每个表的键由几个散列值组成，越多候选越少，召回率越低
+	 * @param dBucketWidth - 桶宽w，一般取查询半径的几倍
+	 * @param lSeed - 随机种子
+	 */
+	public CauchyLSHIndex(int cStates, int cBands, int cRows, double dBucketWidth, long lSeed)
+	{
+		this(L1Distance.getInstance(), cStates, cBands, cRows, dBucketWidth, lSeed);
+	}
+
+	public CauchyLSHIndex(DistanceMetric dmMetric, int cStates, int cBands, int cRows, double dBucketWidth, long lSeed)
+	{
+		m_dmMetric = dmMetric;
+		m_vBeliefs = new ArrayList<BeliefState>();
+		m_cBands = cBands;
+		m_cRows = cRows;
+		m_dBucketWidth = dBucketWidth;
+
+		RandomGenerator rnd = new RandomGenerator("CauchyLSHIndex", lSeed);
+		m_adProjections = new double[cBands * cRows][cStates];
+		m_adOffsets = new double[cBands * cRows];
+		for (int iHash = 0; iHash < cBands * cRows; iHash++)
+		{
+			for (int iState = 0; iState < cStates; iState++)
+				m_adProjections[iHash][iState] = Math.tan(Math.PI * (rnd.nextDouble() - 0.5));
+			m_adOffsets[iHash] = rnd.nextDouble(dBucketWidth);
+		}
+		m_vTables = new ArrayList<HashMap<Long, ArrayList<Integer>>>();
+		for (int iBand = 0; iBand < cBands; iBand++)
+			m_vTables.add(new HashMap<Long, ArrayList<Integer>>());
+
+		m_biExact = null;
+		m_iSampleEvery = 0;
+	}
+
+	/**
+	 * 每iSampleEvery次查询用精确索引核对一次，统计召回率。精确索引与本索引同步加入信念点。
+	 */
+	public void setRecallCheck(BeliefIndex biExact, int iSampleEvery)
+	{
+		m_biExact = biExact;
+		m_iSampleEvery = iSampleEvery;
+		for (int i = m_biExact.size(); i < m_vBeliefs.size(); i++)
+			m_biExact.add(m_vBeliefs.get(i));
+	}
+
+	public void add(BeliefState bs)
+	{
+		int iIndex = m_vBeliefs.size();
+		m_vBeliefs.add(bs);
+		for (int iBand = 0; iBand < m_cBands; iBand++)
+		{
+			Long lKey = bandKey(bs, iBand);
+			ArrayList<Integer> vBucket = m_vTables.get(iBand).get(lKey);
+			if (vBucket == null)
+			{
+				vBucket = new ArrayList<Integer>(2);
+				m_vTables.get(iBand).put(lKey, vBucket);
+			}
+			vBucket.add(iIndex);
+		}
+		if (m_biExact != null)
+			m_biExact.add(bs);
+	}
+
+	public BeliefState get(int iIndex)
+	{
+		return m_vBeliefs.get(iIndex);
+	}
+
+	public int size()
+	{
+		return m_vBeliefs.size();
+	}
+
+	public DistanceMetric getMetric()
+	{
+		return m_dmMetric;
+	}
+
+	private long bandKey(BeliefState bs, int iBand)
+	{
+		long lKey = 0xcbf29ce484222325L;
+		int cNonZero = bs.nnz();
+		for (int iRow = 0; iRow < m_cRows; iRow++)
+		{
+			int iHash = iBand * m_cRows + iRow;
+			double[] adProjection = m_adProjections[iHash];
+			double dDot = 0.0;
+			for (int i = 0; i < cNonZero; i++)
+				dDot += adProjection[bs.index(i)] * bs.value(i);
+			long lBucket = (long) Math.floor((dDot + m_adOffsets[iHash]) / m_dBucketWidth);
+			lKey = (lKey ^ lBucket) * 0x100000001b3L;
+		}
+		return lKey;
+	}
+
+	/**
+	 * 所有表中与bs同桶的点，按编号升序，不重复
+	 */
+	protected ArrayList<Integer> candidates(BeliefState bs)
+	{
+		ArrayList<Integer> vCandidates = new ArrayList<Integer>();
+		for (int iBand = 0; iBand < m_cBands; iBand++)
+		{
+			ArrayList<Integer> vBucket = m_vTables.get(iBand).get(bandKey(bs, iBand));
+			if (vBucket != null)
+				vCandidates.addAll(vBucket);
+		}
+		Collections.sort(vCandidates);
+		int cUnique = 0;
+		for (int i = 0; i < vCandidates.size(); i++)
+		{
+			if (cUnique == 0 || !vCandidates.get(i).equals(vCandidates.get(cUnique - 1)))
+				vCandidates.set(cUnique++, vCandidates.get(i));
+		}
+		while (vCandidates.size() > cUnique)
+			vCandidates.remove(vCandidates.size() - 1);
+		synchronized (this)
+		{
+			m_cQueries++;
+			m_cCandidates += cUnique;
+		}
+		return vCandidates;
+	}
+
+	private boolean sampleQuery()
+	{
+		return m_biExact != null && m_iSampleEvery > 0 && m_cQueries % m_iSampleEvery == 0;
+	}
+
+	private synchronized void recordRecall(int cExact, int cFound)
+	{
+		m_cSampledQueries++;
+		m_cExactHits += cExact;
+		m_cFoundHits += cFound;
+	}
+
+	public boolean anyWithin(BeliefState bs, double dRadius)
+	{
+		return firstWithin(bs, dRadius) >= 0;
+	}
+
+	public int firstWithin(BeliefState bs, double dRadius)
+	{
+		return firstWithin(bs, dRadius, null);
+	}
+
+	public int firstWithin(BeliefState bs, double dRadius, double[] adDistance)
+	{
+		int iFirst = -1;
+		for (int iIndex : candidates(bs))
+		{
+			double dDist = m_dmMetric.distanceAtMost(bs, m_vBeliefs.get(iIndex), dRadius);
+			if (dDist <= dRadius)
+			{
+				iFirst = iIndex;
+				if (adDistance != null)
+					adDistance[0] = dDist;
+				break;
+			}
+		}
+		if (sampleQuery())
+		{
+			// 精确结果中有点时，只要LSH也找到了点就算命中
+			boolean bExact = m_biExact.anyWithin(bs, dRadius);
+			recordRecall(bExact ? 1 : 0, bExact && iFirst >= 0 ? 1 : 0);
+		}
+		return iFirst;
+	}
+
+	public ArrayList<Integer> allWithin(BeliefState bs, double dRadius)
+	{
+		ArrayList<Integer> vResult = new ArrayList<Integer>();
+		for (int iIndex : candidates(bs))
+		{
+			if (m_dmMetric.distanceAtMost(bs, m_vBeliefs.get(iIndex), dRadius) <= dRadius)
+				vResult.add(iIndex);
+		}
+		if (sampleQuery())
+			recordRecall(m_biExact.allWithin(bs, dRadius).size(), vResult.size());
+		return vResult;
+	}
+
+	/**
+	 * 在候选中找最近的点；没有任何候选时退回到逐个比较，保证总能返回一个点
+	 */
+	public int nearest(BeliefState bs)
+	{
+		ArrayList<Integer> vCandidates = candidates(bs);
+		if (vCandidates.isEmpty())
+		{
+			for (int i = 0; i < m_vBeliefs.size(); i++)
+				vCandidates.add(i);
+		}
+		int iNearest = -1;
+		double dMinDist = Double.POSITIVE_INFINITY, dDist = 0.0;
+		for (int iIndex : vCandidates)
+		{
+			dDist = m_dmMetric.distanceAtMost(bs, m_vBeliefs.get(iIndex), dMinDist);
+			if (dDist < dMinDist)
+			{
+				dMinDist = dDist;
+				iNearest = iIndex;
+			}
+		}
+		if (sampleQuery())
+		{
+			int iExact = m_biExact.nearest(bs);
+			recordRecall(1, iExact == iNearest ? 1 : 0);
+		}
+		return iNearest;
+	}
+
+	/**
+	 * 抽查的查询中，精确搜索找到的点有多少比例也被LSH找到
+	 * @return 没有抽查过时返回1
+	 */
+	public synchronized double getRecall()
+	{
+		if (m_cExactHits == 0)
+			return 1.0;
+		return (double) m_cFoundHits / m_cExactHits;
+	}
+
+	public synchronized double getAverageCandidates()
+	{
+		if (m_cQueries == 0)
+			return 0.0;
+		return (double) m_cCandidates / m_cQueries;
+	}
+
+	public synchronized String getStatistics()
+	{
+		return "LSH bands = " + m_cBands + ", rows = " + m_cRows + ", w = " + m_dBucketWidth + ", queries = "
+				+ m_cQueries + ", avg candidates = " + getAverageCandidates() + ", sampled = " + m_cSampledQueries
+				+ ", recall = " + getRecall();
+	}
+}
@@ -0,0 +1,360 @@
+package pomdp.utilities.distance;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import pomdp.utilities.BeliefState;
+
+/**
+ * 执行策略时查找信念点所在的闭包
+ *
+ * 返回与信念点距离不超过半径的中心点中编号最小的一个，与按顺序逐个比较的结果相同。查找分三步：
+ * 1. 轨迹缓存：同一条轨迹上相邻的信念点通常落在同一个闭包里，先检查上一步匹配的闭包。
+ *    命中时答案只可能是它或者编号更小的中心点，后面只看更小的编号。
+ * 2. 最可能状态分桶：中心点c按最可能状态t分桶。d(b,c) >= |b(t)-c(t)|（L1、L2、L∞），所以b(t) < c(t)-半径时c不可能匹配。
+ *    最大概率不超过半径的桶总要检查，其余的桶只在t属于b的支撑集、且b(t)足够大时检查。
+ * 3. 分桶排除不了多少中心点时（半径较大，多数中心点的最大概率都不超过半径），按编号顺序扫描前SCAN_PREFIX个中心点，
+ *    前面的闭包覆盖的范围通常最大，大部分查询在这一步结束；剩下的部分用度量索引或者继续顺序扫描，
+ *    两种做法的平均耗时在运行中统计，选较快的一种。度量索引是精确的，所以两种做法结果相同，只影响速度。
+ *
+ * 建好之后只读，可以多线程查询；轨迹缓存和计数都是原子操作。
+ */
+public class ClosureLookup
+{
+	// 候选中心点超过这个比例时分桶不起作用，改为按编号顺序查找
+	public static final double SCAN_FRACTION = 0.25;
+	public static final int SCAN_PREFIX = 64;
+	// 前缀之后的部分，度量索引和顺序扫描各先试这么多次，再按平均耗时选择
+	public static final int CALIBRATION_QUERIES = 8;
+	// 轨迹缓存的槽数，轨迹编号按槽数取模
+	public static final int TRAJECTORY_SLOTS = 1024;
+	protected static final double TOLERANCE = 1.0E-9;
+	protected static final long EMPTY_SLOT = -1L;
+
+	protected BeliefIndex m_biIndex;
+	protected DistanceMetric m_dmMetric;
+	protected double m_dRadius;
+
+	// 每个中心点的最可能状态和最大概率
+	protected int[] m_aiCentreState;
+	protected double[] m_adCentreMax;
+	// 状态 -> 以它为最可能状态的中心点编号（升序）
+	protected int[][] m_aiBuckets;
+	// 每个桶中最小的最大概率
+	protected double[] m_adBucketMinMax;
+	// 最大概率不超过半径的桶，对任何信念点都要检查
+	protected int[] m_aiAlwaysBuckets;
+	protected boolean[] m_abAlwaysBucket;
+	protected int m_cAlwaysCentres;
+	protected boolean m_bBucketsSelective;
+
+	// 高32位轨迹编号，低32位上次匹配的中心点编号
+	protected AtomicLongArray m_alTrajectorySlots;
+
+	protected AtomicLong m_cQueries;
+	protected AtomicLong m_cHits;
+	protected AtomicLong m_cMisses;
+	protected AtomicLong m_cCacheHits;
+	protected AtomicLong m_cIndexQueries;
+	protected AtomicLong m_cCandidates;
+	protected AtomicLong m_lIndexNanos;
+	protected AtomicLong m_cTailScans;
+	protected AtomicLong m_lTailScanNanos;
+
+	/**
+	 * @param biIndex - 已经加入所有中心点的精确度量索引，之后不能再加入。不能是CauchyLSHIndex：
+	 *                  它可能漏掉中心点，两种查找剩余部分的做法结果就不再相同
+	 * @param cStates - 状态数
+	 * @param dRadius - 闭包半径
+	 */
+	public ClosureLookup(BeliefIndex biIndex, int cStates, double dRadius)
+	{
+		if (biIndex instanceof CauchyLSHIndex)
+			throw new IllegalArgumentException("ClosureLookup needs an exact index, got " + biIndex.getClass().getSimpleName());
+		m_biIndex = biIndex;
+		m_dmMetric = biIndex.getMetric();
+		m_dRadius = dRadius;
+
+		int cCentres = biIndex.size();
+		m_aiCentreState = new int[cCentres];
+		m_adCentreMax = new double[cCentres];
+		int[] acBucketSizes = new int[cStates];
+		for (int iCentre = 0; iCentre < cCentres; iCentre++)
+		{
+			BeliefState bsCentre = biIndex.get(iCentre);
+			int iMaxState = -1;
+			double dMax = 0.0;
+			for (int i = 0; i < bsCentre.nnz(); i++)
+			{
+				if (bsCentre.value(i) > dMax)
+				{
+					dMax = bsCentre.value(i);
+					iMaxState = bsCentre.index(i);
+				}
+			}
+			if (iMaxState < 0)
+				iMaxState = 0; // 全零的中心点，最大概率为0，总会被检查
+			m_aiCentreState[iCentre] = iMaxState;
+			m_adCentreMax[iCentre] = dMax;
+			acBucketSizes[iMaxState]++;
+		}
+
+		m_aiBuckets = new int[cStates][];
+		m_adBucketMinMax = new double[cStates];
+		for (int iState = 0; iState < cStates; iState++)
+		{
+			m_aiBuckets[iState] = new int[acBucketSizes[iState]];
+			m_adBucketMinMax[iState] = Double.POSITIVE_INFINITY;
+			acBucketSizes[iState] = 0;
+		}
+		for (int iCentre = 0; iCentre < cCentres; iCentre++)
+		{
+			int iState = m_aiCentreState[iCentre];
+			m_aiBuckets[iState][acBucketSizes[iState]++] = iCentre;
+			m_adBucketMinMax[iState] = Math.min(m_adBucketMinMax[iState], m_adCentreMax[iCentre]);
+		}
+
+		ArrayList<Integer> vAlways = new ArrayList<Integer>();
+		m_abAlwaysBucket = new boolean[cStates];
+		m_cAlwaysCentres = 0;
+		for (int iState = 0; iState < cStates; iState++)
+		{
+			if (m_aiBuckets[iState].length > 0 && m_adBucketMinMax[iState] <= dRadius + TOLERANCE)
+			{
+				vAlways.add(iState);
+				m_abAlwaysBucket[iState] = true;
+				m_cAlwaysCentres += m_aiBuckets[iState].length;
+			}
+		}
+		m_aiAlwaysBuckets = new int[vAlways.size()];
+		for (int i = 0; i < vAlways.size(); i++)
+			m_aiAlwaysBuckets[i] = vAlways.get(i);
+		// 只有距离不小于单个状态上的概率差时才能按桶排除
+		m_bBucketsSelective = m_dmMetric.boundsCoordinateDifference() && m_cAlwaysCentres <= SCAN_FRACTION * cCentres;
+
+		m_alTrajectorySlots = new AtomicLongArray(TRAJECTORY_SLOTS);
+		for (int i = 0; i < TRAJECTORY_SLOTS; i++)
+			m_alTrajectorySlots.set(i, EMPTY_SLOT);
+
+		m_cQueries = new AtomicLong();
+		m_cHits = new AtomicLong();
+		m_cMisses = new AtomicLong();
+		m_cCacheHits = new AtomicLong();
+		m_cIndexQueries = new AtomicLong();
+		m_cCandidates = new AtomicLong();
+		m_lIndexNanos = new AtomicLong();
+		m_cTailScans = new AtomicLong();
+		m_lTailScanNanos = new AtomicLong();
+	}
+
+	public BeliefIndex getIndex()
+	{
+		return m_biIndex;
+	}
+
+	public int lookup(BeliefState bs)
+	{
+		return lookup(bs, -1);
+	}
+
+	/**
+	 * @param iTrajectory - 轨迹编号，同一条轨迹上的查询共用缓存；小于0时不使用缓存
+	 * @return 距离不超过半径的中心点中编号最小的一个，不在任何闭包内时返回-1
+	 */
+	public int lookup(BeliefState bs, int iTrajectory)
+	{
+		m_cQueries.incrementAndGet();
+
+		// 1. 上一步匹配的闭包
+		int iCached = cachedCentre(iTrajectory);
+		int iBest = Integer.MAX_VALUE;
+		if (iCached >= 0 && m_dmMetric.distanceAtMost(bs, m_biIndex.get(iCached), m_dRadius) <= m_dRadius)
+			iBest = iCached;
+
+		// 2. 按最可能状态分桶扫描，分桶不起作用时 3. 按编号顺序查找
+		int iFound = -1;
+		if (m_bBucketsSelective && countCandidates(bs) <= SCAN_FRACTION * m_biIndex.size())
+			iFound = scanBuckets(bs, iBest);
+		else
+			iFound = scanInOrder(bs, iBest);
+		if (iFound < 0 && iBest != Integer.MAX_VALUE)
+			iFound = iBest;
+
+		if (iFound >= 0)
+		{
+			m_cHits.incrementAndGet();
+			if (iFound == iCached)
+				m_cCacheHits.incrementAndGet();
+			rememberCentre(iTrajectory, iFound);
+		}
+		else
+		{
+			m_cMisses.incrementAndGet();
+		}
+		return iFound;
+	}
+
+	private int cachedCentre(int iTrajectory)
+	{
+		if (iTrajectory < 0)
+			return -1;
+		long lSlot = m_alTrajectorySlots.get(iTrajectory % TRAJECTORY_SLOTS);
+		if (lSlot == EMPTY_SLOT || (int) (lSlot >>> 32) != iTrajectory)
+			return -1;
+		return (int) lSlot;
+	}
+
+	private void rememberCentre(int iTrajectory, int iCentre)
+	{
+		if (iTrajectory < 0)
+			return;
+		m_alTrajectorySlots.set(iTrajectory % TRAJECTORY_SLOTS, ((long) iTrajectory << 32) | (iCentre & 0xffffffffL));
+	}
+
+	/**
+	 * 需要检查的桶中中心点的总数
+	 */
+	private int countCandidates(BeliefState bs)
+	{
+		int cCandidates = m_cAlwaysCentres;
+		for (int i = 0; i < bs.nnz(); i++)
+		{
+			int iState = bs.index(i);
+			if (!m_abAlwaysBucket[iState] && bucketMayMatch(iState, bs.value(i)))
+				cCandidates += m_aiBuckets[iState].length;
+		}
+		return cCandidates;
+	}
+
+	private boolean bucketMayMatch(int iState, double dValue)
+	{
+		return m_aiBuckets[iState].length > 0 && m_adBucketMinMax[iState] - dValue <= m_dRadius + TOLERANCE;
+	}
+
+	/**
+	 * 在可能匹配的桶中找编号小于iLimit的第一个匹配
+	 * @return 找到的编号，没有时返回-1
+	 */
+	private int scanBuckets(BeliefState bs, int iLimit)
+	{
+		int iBest = iLimit;
+		for (int iState : m_aiAlwaysBuckets)
+			iBest = scanBucket(bs, iState, bs.valueAt(iState), iBest);
+		for (int i = 0; i < bs.nnz(); i++)
+		{
+			int iState = bs.index(i);
+			if (!m_abAlwaysBucket[iState] && bucketMayMatch(iState, bs.value(i)))
+				iBest = scanBucket(bs, iState, bs.value(i), iBest);
+		}
+		return iBest < iLimit ? iBest : -1;
+	}
+
+	/**
+	 * 先扫描前缀，找不到时剩下的部分交给度量索引或者继续扫描
+	 * @return 编号小于iLimit的第一个匹配，没有时返回-1
+	 */
+	private int scanInOrder(BeliefState bs, int iLimit)
+	{
+		int iEnd = Math.min(iLimit, m_biIndex.size());
+		int iPrefixEnd = Math.min(iEnd, SCAN_PREFIX);
+		int iFound = scanRange(bs, 0, iPrefixEnd);
+		if (iFound >= 0 || iPrefixEnd == iEnd)
+			return iFound;
+
+		long lStart = System.nanoTime();
+		if (useIndexForTail())
+		{
+			iFound = m_biIndex.firstWithin(bs, m_dRadius);
+			if (iFound >= iLimit)
+				iFound = -1;
+			m_lIndexNanos.addAndGet(System.nanoTime() - lStart);
+			m_cIndexQueries.incrementAndGet();
+		}
+		else
+		{
+			iFound = scanRange(bs, iPrefixEnd, iEnd);
+			m_lTailScanNanos.addAndGet(System.nanoTime() - lStart);
+			m_cTailScans.incrementAndGet();
+		}
+		return iFound;
+	}
+
+	/**
+	 * 两种做法各试CALIBRATION_QUERIES次之前交替使用，之后选平均耗时少的
+	 */
+	private boolean useIndexForTail()
+	{
+		long cIndex = m_cIndexQueries.get(), cScans = m_cTailScans.get();
+		if (cIndex < CALIBRATION_QUERIES || cScans < CALIBRATION_QUERIES)
+			return cIndex <= cScans;
+		return (double) m_lIndexNanos.get() / cIndex < (double) m_lTailScanNanos.get() / cScans;
+	}
+
+	/**
+	 * 按编号顺序检查[iBegin, iEnd)内的中心点，距离的下界在distanceAtMost中先检查
+	 * @return 第一个匹配的编号，没有时返回-1
+	 */
+	private int scanRange(BeliefState bs, int iBegin, int iEnd)
+	{
+		int iFound = -1, iCentre = 0;
+		for (iCentre = iBegin; iCentre < iEnd; iCentre++)
+		{
+			if (m_dmMetric.distanceAtMost(bs, m_biIndex.get(iCentre), m_dRadius) <= m_dRadius)
+			{
+				iFound = iCentre;
+				break;
+			}
+		}
+		m_cCandidates.addAndGet(iFound < 0 ? iEnd - iBegin : iFound + 1 - iBegin);
+		return iFound;
+	}
+
+	/**
+	 * 桶内编号升序，第一个匹配就是桶内最小的，编号达到iBest后不必再看
+	 */
+	private int scanBucket(BeliefState bs, int iState, double dValue, int iBest)
+	{
+		int[] aiBucket = m_aiBuckets[iState];
+		int cCandidates = 0;
+		for (int iCentre : aiBucket)
+		{
+			if (iCentre >= iBest)
+				break;
+			cCandidates++;
+			// |b(t)-c(t)|是距离中的一项，超过半径时不必计算距离
+			if (Math.abs(dValue - m_adCentreMax[iCentre]) > m_dRadius)
+				continue;
+			if (m_dmMetric.distanceAtMost(bs, m_biIndex.get(iCentre), m_dRadius) <= m_dRadius)
+			{
+				iBest = iCentre;
+				break;
+			}
+		}
+		m_cCandidates.addAndGet(cCandidates);
+		return iBest;
+	}
+
+	public long getHits()
+	{
+		return m_cHits.get();
+	}
+
+	/**
+	 * 不在任何闭包内的查询次数
+	 */
+	public long getMisses()
+	{
+		return m_cMisses.get();
+	}
+
+	public String getStatistics()
+	{
+		long cQueries = m_cQueries.get();
+		return "Closure lookup: queries = " + cQueries + ", hits = " + m_cHits.get() + ", misses = " + m_cMisses.get()
+				+ ", trajectory cache hits = " + m_cCacheHits.get() + ", index queries = " + m_cIndexQueries.get()
+				+ ", tail scans = " + m_cTailScans.get()
+				+ ", avg scanned = " + (cQueries == 0 ? 0.0 : (double) m_cCandidates.get() / cQueries)
+				+ ", always-checked centres = " + m_cAlwaysCentres;
+	}
+}
@@ -0,0 +1,423 @@
+package pomdp.utilities.distance;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+import pomdp.utilities.BeliefState;
+
+/**
+ * 把一组信念点聚成直径不超过2*epsilon的簇，每个簇选一个代表点作为闭包中心点
+ *
+ * 完全链接层次聚类需要O(n^2)的距离矩阵，这里先用canopy把点集分成小块：按顺序取一个还没有分配的点，
+ * 它2*epsilon以内、还没有分配的点（最多MAX_CANOPY_SIZE个最近的）组成一个canopy。
+ * 每个canopy内部用最近邻链算法做完全链接聚类，在2*epsilon处切开，各canopy并行计算，
+ * 内存只与canopy的大小有关。不同canopy的点不会被聚到一起，这是相对于完整的完全链接聚类的近似。
+ *
+ * 每个簇的代表点是到簇内其他点最大距离最小的成员。簇按大小从大到小依次考虑，
+ * 与已选的代表点距离小于epsilon的代表点不选，使代表点两两距离不小于epsilon，与R-BFS的中心点一样。
+ * 距离所有已选代表点都不小于epsilon的点（簇的半径超过epsilon，或者它的代表点没有被选中）进入下一轮重新聚类，
+ * 直到每个点都在某个代表点的epsilon以内。每一轮至少选出一个代表点，所以一定会结束。
+ * 结果与线程数无关。
+ */
+public class CompleteLinkClustering
+{
+	public static final int MAX_CANOPY_SIZE = 1024;
+
+	protected DistanceMetric m_dmMetric;
+	protected ForkJoinPool m_fjPool;
+	protected int m_cRounds;
+	protected int m_cCanopies;
+	protected int m_cClusters;
+
+	public CompleteLinkClustering(DistanceMetric dmMetric)
+	{
+		m_dmMetric = dmMetric;
+		m_fjPool = ForkJoinPool.commonPool();
+		m_cRounds = 0;
+		m_cCanopies = 0;
+		m_cClusters = 0;
+	}
+
+	public void setPool(ForkJoinPool fjPool)
+	{
+		m_fjPool = fjPool;
+	}
+
+	/**
+	 * 一个簇：代表点和成员都是本轮点集中的编号
+	 */
+	private static class Cluster
+	{
+		int m_iRepresentative;
+		int m_iFirstMember;
+		int m_cMembers;
+
+		Cluster(int iRepresentative, int iFirstMember, int cMembers)
+		{
+			m_iRepresentative = iRepresentative;
+			m_iFirstMember = iFirstMember;
+			m_cMembers = cMembers;
+		}
+	}
+
+	/**
+	 * @param iFirst - 这个点一定作为第一个代表点，例如初始信念点；-1表示没有
+	 * @return 代表点在vBeliefs中的下标，按选出的顺序
+	 */
+	public int[] cluster(List<BeliefState> vBeliefs, double dEpsilon, int iFirst)
+	{
+		double dRadius = Math.nextDown(dEpsilon);
+		BeliefIndex biRepresentatives = DistanceMetricFactory.newExactIndex(m_dmMetric);
+		ArrayList<Integer> vRepresentatives = new ArrayList<Integer>();
+		if (iFirst >= 0)
+		{
+			biRepresentatives.add(vBeliefs.get(iFirst));
+			vRepresentatives.add(iFirst);
+		}
+
+		int[] aiPoints = new int[vBeliefs.size()];
+		for (int i = 0; i < aiPoints.length; i++)
+			aiPoints[i] = i;
+		if (iFirst >= 0)
+			aiPoints = uncovered(vBeliefs, aiPoints, biRepresentatives, dRadius);
+
+		while (aiPoints.length > 0)
+		{
+			m_cRounds++;
+			ArrayList<int[]> vCanopies = canopies(vBeliefs, aiPoints, 2 * dEpsilon);
+			m_cCanopies += vCanopies.size();
+			ArrayList<Cluster> vClusters = m_fjPool.invoke(new CanopyTask(vBeliefs, vCanopies, 0, vCanopies.size(), 2 * dEpsilon));
+			m_cClusters += vClusters.size();
+			Collections.sort(vClusters, new Comparator<Cluster>()
+			{
+				public int compare(Cluster c1, Cluster c2)
+				{
+					if (c1.m_cMembers != c2.m_cMembers)
+						return c2.m_cMembers - c1.m_cMembers;
+					return Integer.compare(c1.m_iFirstMember, c2.m_iFirstMember);
+				}
+			});
+			for (Cluster c : vClusters)
+			{
+				BeliefState bs = vBeliefs.get(c.m_iRepresentative);
+				if (!biRepresentatives.anyWithin(bs, dRadius))
+				{
+					biRepresentatives.add(bs);
+					vRepresentatives.add(c.m_iRepresentative);
+				}
+			}
+			aiPoints = uncovered(vBeliefs, aiPoints, biRepresentatives, dRadius);
+		}
+
+		int[] aiResult = new int[vRepresentatives.size()];
+		for (int i = 0; i < aiResult.length; i++)
+			aiResult[i] = vRepresentatives.get(i);
+		return aiResult;
+	}
+
+	public String getStatistics()
+	{
+		return "complete-link clustering: rounds = " + m_cRounds + ", canopies = " + m_cCanopies + ", clusters = "
+				+ m_cClusters;
+	}
+
+	/**
+	 * 按顺序划分canopy，种子是每个canopy中编号最小的点
+	 */
+	private ArrayList<int[]> canopies(List<BeliefState> vBeliefs, int[] aiPoints, double dCanopyRadius)
+	{
+		BeliefIndex biPoints = DistanceMetricFactory.newExactIndex(m_dmMetric);
+		for (int iPoint : aiPoints)
+			biPoints.add(vBeliefs.get(iPoint));
+		boolean[] abAssigned = new boolean[aiPoints.length];
+		ArrayList<int[]> vCanopies = new ArrayList<int[]>();
+		for (int iSeed = 0; iSeed < aiPoints.length; iSeed++)
+		{
+			if (abAssigned[iSeed])
+				continue;
+			final BeliefState bsSeed = vBeliefs.get(aiPoints[iSeed]);
+			ArrayList<Integer> vMembers = new ArrayList<Integer>();
+			for (int iPoint : biPoints.allWithin(bsSeed, dCanopyRadius))
+			{
+				if (!abAssigned[iPoint])
+					vMembers.add(iPoint);
+			}
+			if (vMembers.size() > MAX_CANOPY_SIZE)
+			{
+				// 只保留最近的MAX_CANOPY_SIZE个，距离相同时按编号，种子本身距离为0且编号最小，排在最前面
+				final HashMap<Integer, Double> mDistances = new HashMap<Integer, Double>();
+				for (int iPoint : vMembers)
+					mDistances.put(iPoint, m_dmMetric.distance(bsSeed, biPoints.get(iPoint)));
+				Collections.sort(vMembers, new Comparator<Integer>()
+				{
+					public int compare(Integer i1, Integer i2)
+					{
+						int iCompare = Double.compare(mDistances.get(i1), mDistances.get(i2));
+						return iCompare != 0 ? iCompare : Integer.compare(i1, i2);
+					}
+				});
+			}
+			int cMembers = Math.min(vMembers.size(), MAX_CANOPY_SIZE);
+			int[] aiCanopy = new int[cMembers];
+			for (int i = 0; i < cMembers; i++)
+			{
+				abAssigned[vMembers.get(i)] = true;
+				aiCanopy[i] = aiPoints[vMembers.get(i)];
+			}
+			vCanopies.add(aiCanopy);
+		}
+		return vCanopies;
+	}
+
+	/**
+	 * 与所有代表点距离都不小于epsilon的点，保持原来的顺序
+	 */
+	private int[] uncovered(List<BeliefState> vBeliefs, int[] aiPoints, BeliefIndex biRepresentatives, double dRadius)
+	{
+		boolean[] abCovered = new boolean[aiPoints.length];
+		m_fjPool.invoke(new CoverTask(vBeliefs, aiPoints, abCovered, biRepresentatives, dRadius, 0, aiPoints.length));
+		int cUncovered = 0;
+		for (boolean bCovered : abCovered)
+		{
+			if (!bCovered)
+				cUncovered++;
+		}
+		int[] aiUncovered = new int[cUncovered];
+		cUncovered = 0;
+		for (int i = 0; i < aiPoints.length; i++)
+		{
+			if (!abCovered[i])
+				aiUncovered[cUncovered++] = aiPoints[i];
+		}
+		return aiUncovered;
+	}
+
+	/**
+	 * 一个canopy内的完全链接聚类，用最近邻链算法，距离矩阵只存上三角
+	 *
+	 * 完全链接满足可约性，按互为最近邻的顺序合并得到的层次与标准算法相同，合并的高度单调，
+	 * 所以只要对高度不超过dMaxDiameter的合并做并查集，就得到在dMaxDiameter处切开的簇。
+	 */
+	private ArrayList<Cluster> clusterCanopy(List<BeliefState> vBeliefs, int[] aiCanopy, double dMaxDiameter)
+	{
+		int cPoints = aiCanopy.length;
+		ArrayList<Cluster> vClusters = new ArrayList<Cluster>();
+		if (cPoints == 1)
+		{
+			vClusters.add(new Cluster(aiCanopy[0], aiCanopy[0], 1));
+			return vClusters;
+		}
+
+		double[] adDistances = new double[cPoints * (cPoints - 1) / 2];
+		for (int i = 0; i < cPoints; i++)
+		{
+			BeliefState bs = vBeliefs.get(aiCanopy[i]);
+			for (int j = i + 1; j < cPoints; j++)
+				adDistances[offset(i, j, cPoints)] = m_dmMetric.distance(bs, vBeliefs.get(aiCanopy[j]));
+		}
+
+		int[] aiParent = new int[cPoints];
+		for (int i = 0; i < cPoints; i++)
+			aiParent[i] = i;
+		boolean[] abActive = new boolean[cPoints];
+		Arrays.fill(abActive, true);
+		int cActive = cPoints, cChain = 0, iNextStart = 0;
+		int[] aiChain = new int[cPoints];
+		while (cActive > 1)
+		{
+			if (cChain == 0)
+			{
+				while (!abActive[iNextStart])
+					iNextStart++;
+				aiChain[cChain++] = iNextStart;
+			}
+			int a = aiChain[cChain - 1];
+			int iPrevious = cChain >= 2 ? aiChain[cChain - 2] : -1;
+			// 距离相同时优先选链中的前一个，保证链一定会结束
+			int b = iPrevious;
+			double dBest = iPrevious >= 0 ? adDistances[offset(a, iPrevious, cPoints)] : Double.POSITIVE_INFINITY;
+			for (int k = 0; k < cPoints; k++)
+			{
+				if (k != a && abActive[k])
+				{
+					double d = adDistances[offset(a, k, cPoints)];
+					if (d < dBest)
+					{
+						dBest = d;
+						b = k;
+					}
+				}
+			}
+			if (b != iPrevious)
+			{
+				aiChain[cChain++] = b;
+				continue;
+			}
+			cChain -= 2;
+			int iKeep = Math.min(a, b), iRemove = Math.max(a, b);
+			for (int k = 0; k < cPoints; k++)
+			{
+				if (k != iKeep && k != iRemove && abActive[k])
+				{
+					int iOffset = offset(iKeep, k, cPoints);
+					adDistances[iOffset] = Math.max(adDistances[iOffset], adDistances[offset(iRemove, k, cPoints)]);
+				}
+			}
+			abActive[iRemove] = false;
+			cActive--;
+			if (dBest <= dMaxDiameter)
+				aiParent[find(aiParent, iRemove)] = find(aiParent, iKeep);
+		}
+
+		// 按根分组，簇按第一个成员的顺序排列
+		int[] aiClusterOf = new int[cPoints];
+		Arrays.fill(aiClusterOf, -1);
+		ArrayList<ArrayList<Integer>> vMembers = new ArrayList<ArrayList<Integer>>();
+		for (int i = 0; i < cPoints; i++)
+		{
+			int iRoot = find(aiParent, i);
+			if (aiClusterOf[iRoot] < 0)
+			{
+				aiClusterOf[iRoot] = vMembers.size();
+				vMembers.add(new ArrayList<Integer>());
+			}
+			vMembers.get(aiClusterOf[iRoot]).add(aiCanopy[i]);
+		}
+		for (ArrayList<Integer> vCluster : vMembers)
+		{
+			int iFirstMember = vCluster.get(0);
+			for (int iMember : vCluster)
+				iFirstMember = Math.min(iFirstMember, iMember);
+			vClusters.add(new Cluster(medoid(vBeliefs, vCluster), iFirstMember, vCluster.size()));
+		}
+		return vClusters;
+	}
+
+	/**
+	 * 到簇内其他点最大距离最小的成员，相同时取下标最小的
+	 */
+	private int medoid(List<BeliefState> vBeliefs, ArrayList<Integer> vCluster)
+	{
+		int iBest = -1;
+		double dBest = Double.POSITIVE_INFINITY;
+		for (int iCandidate : vCluster)
+		{
+			BeliefState bs = vBeliefs.get(iCandidate);
+			double dMax = 0.0;
+			for (int iMember : vCluster)
+			{
+				if (iMember != iCandidate)
+					dMax = Math.max(dMax, m_dmMetric.distance(bs, vBeliefs.get(iMember)));
+				if (dMax > dBest)
+					break;
+			}
+			if (dMax < dBest || (dMax == dBest && iCandidate < iBest))
+			{
+				dBest = dMax;
+				iBest = iCandidate;
+			}
+		}
+		return iBest;
+	}
+
+	private static int offset(int i, int j, int cPoints)
+	{
+		if (i > j)
+		{
+			int iTemp = i;
+			i = j;
+			j = iTemp;
+		}
+		return i * cPoints - i * (i + 1) / 2 + (j - i - 1);
+	}
+
+	private static int find(int[] aiParent, int i)
+	{
+		while (aiParent[i] != i)
+		{
+			aiParent[i] = aiParent[aiParent[i]];
+			i = aiParent[i];
+		}
+		return i;
+	}
+
+	private class CanopyTask extends RecursiveTask<ArrayList<Cluster>>
+	{
+		private static final long serialVersionUID = 1L;
+		private List<BeliefState> m_vBeliefs;
+		private ArrayList<int[]> m_vCanopies;
+		private int m_iBegin, m_iEnd;
+		private double m_dMaxDiameter;
+
+		CanopyTask(List<BeliefState> vBeliefs, ArrayList<int[]> vCanopies, int iBegin, int iEnd, double dMaxDiameter)
+		{
+			m_vBeliefs = vBeliefs;
+			m_vCanopies = vCanopies;
+			m_iBegin = iBegin;
+			m_iEnd = iEnd;
+			m_dMaxDiameter = dMaxDiameter;
+		}
+
+		protected ArrayList<Cluster> compute()
+		{
+			if (m_iEnd - m_iBegin <= 1)
+			{
+				ArrayList<Cluster> vClusters = new ArrayList<Cluster>();
+				if (m_iEnd > m_iBegin)
+					vClusters.addAll(clusterCanopy(m_vBeliefs, m_vCanopies.get(m_iBegin), m_dMaxDiameter));
+				return vClusters;
+			}
+			int iMiddle = (m_iBegin + m_iEnd) / 2;
+			CanopyTask tFirst = new CanopyTask(m_vBeliefs, m_vCanopies, m_iBegin, iMiddle, m_dMaxDiameter);
+			CanopyTask tSecond = new CanopyTask(m_vBeliefs, m_vCanopies, iMiddle, m_iEnd, m_dMaxDiameter);
+			tSecond.fork();
+			ArrayList<Cluster> vClusters = tFirst.compute();
+			vClusters.addAll(tSecond.join());
+			return vClusters;
+		}
+	}
+
+	private class CoverTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		private static final int POINTS_PER_TASK = 256;
+		private List<BeliefState> m_vBeliefs;
+		private int[] m_aiPoints;
+		private boolean[] m_abCovered;
+		private BeliefIndex m_biRepresentatives;
+		private double m_dRadius;
+		private int m_iBegin, m_iEnd;
+
+		CoverTask(List<BeliefState> vBeliefs, int[] aiPoints, boolean[] abCovered, BeliefIndex biRepresentatives,
+				double dRadius, int iBegin, int iEnd)
+		{
+			m_vBeliefs = vBeliefs;
+			m_aiPoints = aiPoints;
+			m_abCovered = abCovered;
+			m_biRepresentatives = biRepresentatives;
+			m_dRadius = dRadius;
+			m_iBegin = iBegin;
+			m_iEnd = iEnd;
+		}
+
+		protected void compute()
+		{
+			if (m_iEnd - m_iBegin <= POINTS_PER_TASK)
+			{
+				for (int i = m_iBegin; i < m_iEnd; i++)
+					m_abCovered[i] = m_biRepresentatives.anyWithin(m_vBeliefs.get(m_aiPoints[i]), m_dRadius);
+				return;
+			}
+			int iMiddle = (m_iBegin + m_iEnd) / 2;
+			invokeAll(new CoverTask(m_vBeliefs, m_aiPoints, m_abCovered, m_biRepresentatives, m_dRadius, m_iBegin, iMiddle),
+					new CoverTask(m_vBeliefs, m_aiPoints, m_abCovered, m_biRepresentatives, m_dRadius, iMiddle, m_iEnd));
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package pomdp.utilities.distance;
+
+import java.util.ArrayList;
+
+import pomdp.utilities.BeliefState;
+
+/**
+ * 统计距离计算次数的度量，其余行为与被包装的度量相同
+ *
+ * 次数按线程分别统计，调用者在查询前后各取一次getCount，差值就是这次查询在当前线程中计算距离的次数。
+ * 用在线程池中时，等各线程的计算结束后用getTotalCount取所有线程的总数。
+ */
+public class CountingDistanceMetric implements DistanceMetric
+{
+	private DistanceMetric m_dmMetric;
+	private ThreadLocal<long[]> m_tlCount;
+	private ArrayList<long[]> m_vCounts;
+
+	public CountingDistanceMetric(DistanceMetric dmMetric)
+	{
+		m_dmMetric = dmMetric;
+		m_vCounts = new ArrayList<long[]>();
+		m_tlCount = new ThreadLocal<long[]>()
+		{
+			protected long[] initialValue()
+			{
+				long[] acCount = new long[1];
+				synchronized (m_vCounts)
+				{
+					m_vCounts.add(acCount);
+				}
+				return acCount;
+			}
+		};
+	}
+
+	/**
+	 * 当前线程计算距离的次数
+	 */
+	public long getCount()
+	{
+		return m_tlCount.get()[0];
+	}
+
+	/**
+	 * 所有线程计算距离的次数，只在各线程的计算结束后（例如线程池的invoke返回后）才准确
+	 */
+	public long getTotalCount()
+	{
+		long cTotal = 0;
+		synchronized (m_vCounts)
+		{
+			for (long[] acCount : m_vCounts)
+				cTotal += acCount[0];
+		}
+		return cTotal;
+	}
+
+	public DistanceMetric getMetric()
+	{
+		return m_dmMetric;
+	}
+
+	public double distance(BeliefState bs1, BeliefState bs2)
+	{
+		m_tlCount.get()[0]++;
+		return m_dmMetric.distance(bs1, bs2);
+	}
+
+	public double distanceAtMost(BeliefState bs1, BeliefState bs2, double dBound)
+	{
+		m_tlCount.get()[0]++;
+		return m_dmMetric.distanceAtMost(bs1, bs2, dBound);
+	}
+
+	public String getName()
+	{
+		return m_dmMetric.getName();
+	}
+
+	public boolean satisfiesTriangleInequality()
+	{
+		return m_dmMetric.satisfiesTriangleInequality();
+	}
+
+	public boolean supportsEarlyExit()
+	{
+		return m_dmMetric.supportsEarlyExit();
+	}
+
+	public boolean boundsCoordinateDifference()
+	{
+		return m_dmMetric.boundsCoordinateDifference();
+	}
+}
@@ -2,7 +2,52 @@ package pomdp.utilities.distance;
 
 import pomdp.utilities.BeliefState;
 
+/**
+ * 信念点之间的距离
+ *
+ * 各个度量通过下面几个能力标志声明可以使用哪些加速方法：
+ * 满足三角不等式才能用VP树索引；支持提前停止时distanceAtMost比distance快；
+ * 距离不小于任一状态上的概率差时，ClosureLookup可以按最可能状态分桶排除中心点。
+ */
 public interface DistanceMetric 
 {
     double distance(BeliefState bs1, BeliefState bs2);
+
+    /**
+     * 配置中使用的名字，见DistanceMetricFactory
+     */
+    String getName();
+
+    /**
+     * 是否满足三角不等式，满足时可以用VPTreeIndex
+     */
+    default boolean satisfiesTriangleInequality()
+    {
+        return false;
+    }
+
+    /**
+     * distanceAtMost是否会提前停止
+     */
+    default boolean supportsEarlyExit()
+    {
+        return false;
+    }
+
+    /**
+     * 对任意状态s是否有 d(b1, b2) >= |b1(s) - b2(s)|
+     */
+    default boolean boundsCoordinateDifference()
+    {
+        return false;
+    }
+
+    /**
+     * 只关心距离是否不超过dBound时使用。
+     * 距离不超过dBound时返回精确的距离，否则返回某个大于dBound的值（可以提前停止计算）。
+     */
+    default double distanceAtMost(BeliefState bs1, BeliefState bs2, double dBound)
+    {
+        return distance(bs1, bs2);
+    }
 }
@@ -0,0 +1,35 @@
+package pomdp.utilities.distance;
+
+/**
+ * 按名字（不区分大小写）取得距离度量：L1、L2、LInf、Hellinger、SymmetricKL
+ */
+public class DistanceMetricFactory
+{
+	public static final String[] METRIC_NAMES = { "L1", "L2", "LInf", "Hellinger", "SymmetricKL" };
+
+	public static DistanceMetric getMetric(String sName)
+	{
+		if (sName.equalsIgnoreCase("L1"))
+			return L1Distance.getInstance();
+		if (sName.equalsIgnoreCase("L2"))
+			return L2Distance.getInstance();
+		if (sName.equalsIgnoreCase("LInf"))
+			return LInfDistance.getInstance();
+		if (sName.equalsIgnoreCase("Hellinger"))
+			return HellingerDistance.getInstance();
+		if (sName.equalsIgnoreCase("SymmetricKL"))
+			return SymmetricKLDistance.getInstance();
+		throw new IllegalArgumentException("Unknown distance metric " + sName + ", expected one of "
+				+ String.join(", ", METRIC_NAMES));
+	}
+
+	/**
+	 * 度量允许时用VP树，否则逐个比较
+	 */
+	public static BeliefIndex newExactIndex(DistanceMetric dmMetric)
+	{
+		if (dmMetric.satisfiesTriangleInequality())
+			return new VPTreeIndex(dmMetric);
+		return new LinearScanIndex(dmMetric);
+	}
+}
@@ -0,0 +1,61 @@
+package pomdp.utilities.distance;
+
+import pomdp.utilities.BeliefState;
+
+/**
+ * Hellinger距离 H(b1,b2) = sqrt( 1/2 * ∑_s (sqrt(b1(s)) - sqrt(b2(s)))^2 )，取值在[0,1]之间
+ */
+public class HellingerDistance extends LDistance
+{
+    protected static HellingerDistance m_hellingerDistance;
+    // 支撑集不相交时距离为1，留出浮点误差的余量
+    protected static final double DISJOINT_SUPPORT_DISTANCE = 1.0 - 1.0E-6;
+    protected static final double BOUND_SLACK = 1.0 + 1.0E-12;
+	
+	public HellingerDistance()
+	{
+		super();
+	}
+	
+	public static DistanceMetric getInstance()
+	{
+		if( m_hellingerDistance == null )
+		{
+			m_hellingerDistance = new HellingerDistance();
+		}
+		return m_hellingerDistance;
+	}
+	
+	public String getName()
+	{
+		return "Hellinger";
+	}
+	
+	public boolean satisfiesTriangleInequality()
+	{
+		return true;
+	}
+	
+	protected double applyDistanceMetric(double dAccumulated, double dValue1, double dValue2) 
+	{
+		double dDiff = Math.sqrt( dValue1 ) - Math.sqrt( dValue2 );
+		return dAccumulated + dDiff * dDiff;
+	}
+
+	protected double applyFinal(double dAccumulated) 
+	{
+		return Math.sqrt( 0.5 * dAccumulated );
+	}
+	
+	protected double getAccumulatedBound(double dBound)
+	{
+		return 2.0 * dBound * dBound * BOUND_SLACK;
+	}
+	
+	protected double lowerBound(BeliefState bs1, BeliefState bs2)
+	{
+		if( disjointSupports( bs1, bs2 ) )
+			return DISJOINT_SUPPORT_DISTANCE;
+		return 0.0;
+	}
+}
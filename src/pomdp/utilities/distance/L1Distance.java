@@ -1,8 +1,15 @@
 package pomdp.utilities.distance;
 
+import pomdp.utilities.BeliefState;
+import pomdp.utilities.datastructures.DenseKernels;
+
 public class L1Distance extends LDistance
 {
     protected static L1Distance m_l1Distance;
+    // 支撑集不相交时距离约为2，留出浮点误差的余量
+    protected static final double DISJOINT_SUPPORT_DISTANCE = 2.0 - 1.0E-6;
+    // 稠密-稠密时每段交给DenseKernels计算，段之间检查上界
+    protected static final int DENSE_BLOCK_SIZE = 256;
 	
 	public L1Distance()
 	{
@@ -18,6 +25,21 @@ public class L1Distance extends LDistance
 		return m_l1Distance;
 	}
     
+	public String getName()
+	{
+		return "L1";
+	}
+	
+	public boolean satisfiesTriangleInequality()
+	{
+		return true;
+	}
+	
+	public boolean boundsCoordinateDifference()
+	{
+		return true;
+	}
+	
 	protected double applyDistanceMetric(double dAccumulated, double dValue1, double dValue2) 
 	{
 		return dAccumulated + Math.abs( dValue1 - dValue2 );
@@ -27,5 +49,50 @@ public class L1Distance extends LDistance
 	{
 		return dAccumulated;
 	}
+	
+	//L1的累加值就是距离，而且只增不减，超过上界即可停止
+	protected double getAccumulatedBound(double dBound)
+	{
+		return dBound;
+	}
+	
+	/**
+	 * 两边都是稠密数组时不需要判断0项，按段用向量化的L1计算，每段之后检查是否已超过上界
+	 */
+	protected double distanceDenseDense( double dDistance, double[] adValues1, double[] adValues2, double dAccumulatedBound )
+	{
+		DenseKernels dkKernels = DenseKernels.getInstance();
+		int cStates = Math.min( adValues1.length, adValues2.length );
+		for( int iFrom = 0 ; iFrom < cStates && dDistance <= dAccumulatedBound ; iFrom += DENSE_BLOCK_SIZE )
+		{
+			dDistance += dkKernels.l1( adValues1, adValues2, iFrom, Math.min( iFrom + DENSE_BLOCK_SIZE, cStates ) );
+		}
+		return dDistance;
+	}
+	
+	/**
+	 * 不归并就能得到的L1下界：
+	 * 1. 两个信念点的支撑集下标范围不相交时，距离等于两者概率和，约为2
+	 * 2. 在两个最可能状态上的差：|b1(s1)-b2(s1)| + |b1(s2)-b2(s2)|，s1、s2分别是b1、b2的最可能状态；
+	 *    只用最大概率时|max1-max2|不超过其中一项，可以不查表先判断
+	 * 这些项都是归并时会累加的项本身，浮点舍入下也不会超过distance的结果
+	 */
+	protected double lowerBound(BeliefState bs1, BeliefState bs2)
+	{
+		if( bs1.nnz() == 0 || bs2.nnz() == 0 )
+			return 0.0;
+		if( disjointSupports( bs1, bs2 ) )
+			return DISJOINT_SUPPORT_DISTANCE;
+		if( !bs1.isMaxBeliefValid() || !bs2.isMaxBeliefValid() )
+			return 0.0;
+		
+		double dBound = Math.abs( bs1.getMaxBelief() - bs2.getMaxBelief() );
+		int iState1 = bs1.getMostLikelyState(), iState2 = bs2.getMostLikelyState();
+		double dDiff1 = Math.abs( bs1.valueAt( iState1 ) - bs2.valueAt( iState1 ) );
+		if( iState1 == iState2 )
+			return Math.max( dBound, dDiff1 );
+		double dDiff2 = Math.abs( bs1.valueAt( iState2 ) - bs2.valueAt( iState2 ) );
+		return Math.max( dBound, dDiff1 + dDiff2 );
+	}
     
 }
@@ -0,0 +1,61 @@
+package pomdp.utilities.distance;
+
+import pomdp.utilities.BeliefState;
+
+public class L2Distance extends LDistance
+{
+    protected static L2Distance m_l2Distance;
+    // 累加的是平方和，换算上界时放宽一点，保证提前停止时开方后的结果仍然大于上界
+    protected static final double BOUND_SLACK = 1.0 + 1.0E-12;
+	
+	public L2Distance()
+	{
+		super();
+	}
+	
+	public static DistanceMetric getInstance()
+	{
+		if( m_l2Distance == null )
+		{
+			m_l2Distance = new L2Distance();
+		}
+		return m_l2Distance;
+	}
+	
+	public String getName()
+	{
+		return "L2";
+	}
+	
+	public boolean satisfiesTriangleInequality()
+	{
+		return true;
+	}
+	
+	public boolean boundsCoordinateDifference()
+	{
+		return true;
+	}
+	
+	protected double applyDistanceMetric(double dAccumulated, double dValue1, double dValue2) 
+	{
+		double dDiff = dValue1 - dValue2;
+		return dAccumulated + dDiff * dDiff;
+	}
+
+	protected double applyFinal(double dAccumulated) 
+	{
+		return Math.sqrt( dAccumulated );
+	}
+	
+	protected double getAccumulatedBound(double dBound)
+	{
+		return dBound * dBound * BOUND_SLACK;
+	}
+	
+	//任一状态上的概率差都不超过L2距离
+	protected double lowerBound(BeliefState bs1, BeliefState bs2)
+	{
+		return maxCoordinateDifference( bs1, bs2 );
+	}
+}
@@ -1,10 +1,9 @@
 package pomdp.utilities.distance;
 
-import java.util.Iterator;
-import java.util.Map.Entry;
 import java.util.TreeMap;
 
 import pomdp.utilities.BeliefState;
+import pomdp.utilities.datastructures.SparseVector;
 
 public abstract class LDistance implements DistanceMetric
 {
@@ -21,6 +20,7 @@ public abstract class LDistance implements DistanceMetric
 	}
 	
 	//求两个信念点之间的距离
+	//按两个信念点各自的表示方式选择实现，都按状态下标从小到大累加
 	public double distance(BeliefState bs1, BeliefState bs2)
     {
     	double dDistance = -1.0;
@@ -31,87 +31,166 @@ public abstract class LDistance implements DistanceMetric
 		}
 		else
 		{
-			Iterator<Entry<Integer, Double>> itFirstNonZero = bs1.getNonZeroEntries().iterator();
-			Iterator<Entry<Integer, Double>> itSecondNonZero = bs2.getNonZeroEntries().iterator();
-			
-			int iState1 = -1, iState2 = -1;
-			
-			double dValue1 = 0.0, dValue2 = 0.0;
-			Belief b = null;
-			
 			dDistance = getInitialDistance();//先获得初始距离
 			
 			//|(|b_1-b_2 |)|_1=∑_(s∈S)|b_1 (s)-b_2 (s)|
-			while((iState1<Integer.MAX_VALUE) || (iState2<Integer.MAX_VALUE))
-			{
-				if( iState1 == iState2 )
-				{					
-					dDistance = applyDistanceMetric( dDistance, dValue1, dValue2 );//dDistance+Math.abs(dValue1, dValue2)
-					
-					b = new Belief(itFirstNonZero);
-					iState1 = b.iState;
-					dValue1 = b.dValue;
-					b = new Belief( itSecondNonZero );
-					iState2 = b.iState;
-					dValue2 = b.dValue;
-				}
-				else if( iState1 < iState2 )
-				{
-					dDistance = applyDistanceMetric( dDistance, dValue1, 0 );
-
-					b = new Belief( itFirstNonZero );
-					iState1 = b.iState;
-					dValue1 = b.dValue;				
-				}
-				else if( iState2 < iState1 )
-				{
-					dDistance = applyDistanceMetric( dDistance, dValue2, 0 );
-
-					b = new Belief( itSecondNonZero );
-					iState2 = b.iState;
-					dValue2 = b.dValue;	
-				}
-			}
+			dDistance = accumulate( dDistance, bs1, bs2, Double.POSITIVE_INFINITY );
 		}
 		dDistance = applyFinal(dDistance);
     	
     	return dDistance;
     }
 	
-	protected abstract double applyDistanceMetric( double dAccumulated, double dValue1, double dValue2 );
+	/**
+	 * 带上界的距离：先用lowerBound排除，再在归并过程中累加值一超过上界就停止。
+	 * 距离不超过dBound时结果与distance完全相同。
+	 */
+	public double distanceAtMost(BeliefState bs1, BeliefState bs2, double dBound)
+	{
+		if( bs1 == bs2 )
+			return distance( bs1, bs2 );
+		
+		double dLowerBound = lowerBound( bs1, bs2 );
+		if( dLowerBound > dBound )
+			return dLowerBound;
+		
+		double dAccumulatedBound = getAccumulatedBound( dBound );
+		if( dAccumulatedBound == Double.POSITIVE_INFINITY )
+			return distance( bs1, bs2 );
+		
+		return applyFinal( accumulate( getInitialDistance(), bs1, bs2, dAccumulatedBound ) );
+	}
 	
-	protected abstract double applyFinal( double dAccumulated );
+	/**
+	 * 按两个信念点各自的表示方式选择实现，都按状态下标从小到大累加，
+	 * 累加值超过dAccumulatedBound时停止
+	 */
+	protected double accumulate( double dDistance, BeliefState bs1, BeliefState bs2, double dAccumulatedBound )
+	{
+		double[] adValues1 = bs1.getDenseValues(), adValues2 = bs2.getDenseValues();
+		if( adValues1 != null && adValues2 != null )
+			return distanceDenseDense( dDistance, adValues1, adValues2, dAccumulatedBound );
+		else if( adValues1 != null )
+			return distanceDenseSparse( dDistance, adValues1, bs2, dAccumulatedBound );
+		else if( adValues2 != null )
+			return distanceDenseSparse( dDistance, adValues2, bs1, dAccumulatedBound );
+		return distanceSparseSparse( dDistance, bs1, bs2, dAccumulatedBound );
+	}
 	
+	/**
+	 * 不需要归并就能得到的距离下界，默认没有下界
+	 */
+	protected double lowerBound( BeliefState bs1, BeliefState bs2 )
+	{
+		return 0.0;
+	}
 	
+	/**
+	 * 在两个信念点各自的最可能状态上的概率差，以及最大概率之差，取最大的一个。
+	 * 这些都是某个状态上的概率差（或者不超过它），对L2、L∞可以直接作为下界。
+	 */
+	protected double maxCoordinateDifference( BeliefState bs1, BeliefState bs2 )
+	{
+		if( !bs1.isMaxBeliefValid() || !bs2.isMaxBeliefValid() )
+			return 0.0;
+		double dBound = Math.abs( bs1.getMaxBelief() - bs2.getMaxBelief() );
+		int iState1 = bs1.getMostLikelyState(), iState2 = bs2.getMostLikelyState();
+		if( iState1 >= 0 )
+			dBound = Math.max( dBound, Math.abs( bs1.valueAt( iState1 ) - bs2.valueAt( iState1 ) ) );
+		if( iState2 >= 0 && iState2 != iState1 )
+			dBound = Math.max( dBound, Math.abs( bs1.valueAt( iState2 ) - bs2.valueAt( iState2 ) ) );
+		return dBound;
+	}
 	
 	/**
-	 * 状态--概率
+	 * 两个信念点的非零项下标范围不相交
 	 */
-	public class Belief
+	protected boolean disjointSupports( BeliefState bs1, BeliefState bs2 )
 	{
-		public int iState;
-		public double dValue;
+		int cNonZero1 = bs1.nnz(), cNonZero2 = bs2.nnz();
+		if( cNonZero1 == 0 || cNonZero2 == 0 )
+			return false;
+		return bs1.index( cNonZero1 - 1 ) < bs2.index( 0 ) || bs2.index( cNonZero2 - 1 ) < bs1.index( 0 );
+	}
+	
+	public boolean supportsEarlyExit()
+	{
+		return getAccumulatedBound( 1.0 ) != Double.POSITIVE_INFINITY;
+	}
+	
+	/**
+	 * 距离上界换算成累加值的上界，累加值超过它时距离一定超过dBound。
+	 * 返回正无穷表示该度量不支持提前停止。
+	 */
+	protected double getAccumulatedBound( double dBound )
+	{
+		return Double.POSITIVE_INFINITY;
+	}
+	
+	protected double distanceDenseDense( double dDistance, double[] adValues1, double[] adValues2, double dAccumulatedBound )
+	{
+		for( int iState = 0 ; iState < adValues1.length && dDistance <= dAccumulatedBound ; iState++ )
+		{
+			if( adValues1[iState] != 0.0 || adValues2[iState] != 0.0 )
+				dDistance = applyDistanceMetric( dDistance, adValues1[iState], adValues2[iState] );
+		}
+		return dDistance;
+	}
+	
+	//稠密一侧按下标顺序扫描，稀疏一侧用游标跟随
+	protected double distanceDenseSparse( double dDistance, double[] adDense, SparseVector vSparse, double dAccumulatedBound )
+	{
+		int cNonZero = vSparse.nnz(), i = 0;
+		int iNextSparse = ( cNonZero > 0 ) ? vSparse.index( 0 ) : Integer.MAX_VALUE;
+		double dSparse = 0.0;
 		
-		public Belief( Iterator<Entry<Integer, Double>> it )
+		for( int iState = 0 ; iState < adDense.length && dDistance <= dAccumulatedBound ; iState++ )
 		{
-			if( it.hasNext() )
+			dSparse = 0.0;
+			if( iState == iNextSparse )
 			{
-				Entry<Integer, Double> e = (Entry<Integer, Double>)it.next();
-				iState = ((Integer) e.getKey()).intValue();
-				dValue = ((Double) e.getValue()).doubleValue();
+				dSparse = vSparse.value( i );
+				i++;
+				iNextSparse = ( i < cNonZero ) ? vSparse.index( i ) : Integer.MAX_VALUE;
+			}
+			if( adDense[iState] != 0.0 || dSparse != 0.0 )
+				dDistance = applyDistanceMetric( dDistance, adDense[iState], dSparse );
+		}
+		return dDistance;
+	}
+	
+	//按状态下标归并两个信念点的非零项，不分配任何对象
+	protected double distanceSparseSparse( double dDistance, SparseVector v1, SparseVector v2, double dAccumulatedBound )
+	{
+		int cNonZero1 = v1.nnz(), cNonZero2 = v2.nnz();
+		int i1 = 0, i2 = 0;
+		int iState1 = 0, iState2 = 0;
+		
+		while( ( ( i1 < cNonZero1 ) || ( i2 < cNonZero2 ) ) && dDistance <= dAccumulatedBound )
+		{
+			iState1 = ( i1 < cNonZero1 ) ? v1.index( i1 ) : Integer.MAX_VALUE;
+			iState2 = ( i2 < cNonZero2 ) ? v2.index( i2 ) : Integer.MAX_VALUE;
+			if( iState1 == iState2 )
+			{
+				dDistance = applyDistanceMetric( dDistance, v1.value( i1 ), v2.value( i2 ) );//dDistance+Math.abs(dValue1, dValue2)
+				i1++;
+				i2++;
+			}
+			else if( iState1 < iState2 )
+			{
+				dDistance = applyDistanceMetric( dDistance, v1.value( i1 ), 0 );
+				i1++;
 			}
 			else
 			{
-				iState = Integer.MAX_VALUE;
-				dValue = -1.0;
+				dDistance = applyDistanceMetric( dDistance, v2.value( i2 ), 0 );
+				i2++;
 			}
 		}
+		return dDistance;
 	}
+	
+	protected abstract double applyDistanceMetric( double dAccumulated, double dValue1, double dValue2 );
+	
+	protected abstract double applyFinal( double dAccumulated );
 }
-
-
-
-
-
-
-
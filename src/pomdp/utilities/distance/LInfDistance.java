@@ -0,0 +1,58 @@
+package pomdp.utilities.distance;
+
+import pomdp.utilities.BeliefState;
+
+public class LInfDistance extends LDistance
+{
+    protected static LInfDistance m_lInfDistance;
+	
+	public LInfDistance()
+	{
+		super();
+	}
+	
+	public static DistanceMetric getInstance()
+	{
+		if( m_lInfDistance == null )
+		{
+			m_lInfDistance = new LInfDistance();
+		}
+		return m_lInfDistance;
+	}
+	
+	public String getName()
+	{
+		return "LInf";
+	}
+	
+	public boolean satisfiesTriangleInequality()
+	{
+		return true;
+	}
+	
+	public boolean boundsCoordinateDifference()
+	{
+		return true;
+	}
+	
+	protected double applyDistanceMetric(double dAccumulated, double dValue1, double dValue2) 
+	{
+		return Math.max( dAccumulated, Math.abs( dValue1 - dValue2 ) );
+	}
+
+	protected double applyFinal(double dAccumulated) 
+	{
+		return dAccumulated;
+	}
+	
+	//累加值就是当前的最大差，只增不减
+	protected double getAccumulatedBound(double dBound)
+	{
+		return dBound;
+	}
+	
+	protected double lowerBound(BeliefState bs1, BeliefState bs2)
+	{
+		return maxCoordinateDifference( bs1, bs2 );
+	}
+}
@@ -0,0 +1,98 @@
+package pomdp.utilities.distance;
+
+import java.util.ArrayList;
+
+import pomdp.utilities.BeliefState;
+
+/**
+ * 逐个计算距离的索引，与原来在Vector上循环的做法相同
+ * 点集很小或者度量不满足三角不等式时使用
+ */
+public class LinearScanIndex implements BeliefIndex
+{
+	protected DistanceMetric m_dmMetric;
+	protected ArrayList<BeliefState> m_vBeliefs;
+
+	public LinearScanIndex()
+	{
+		this(L1Distance.getInstance());
+	}
+
+	public LinearScanIndex(DistanceMetric dmMetric)
+	{
+		m_dmMetric = dmMetric;
+		m_vBeliefs = new ArrayList<BeliefState>();
+	}
+
+	public void add(BeliefState bs)
+	{
+		m_vBeliefs.add(bs);
+	}
+
+	public BeliefState get(int iIndex)
+	{
+		return m_vBeliefs.get(iIndex);
+	}
+
+	public int size()
+	{
+		return m_vBeliefs.size();
+	}
+
+	public DistanceMetric getMetric()
+	{
+		return m_dmMetric;
+	}
+
+	public boolean anyWithin(BeliefState bs, double dRadius)
+	{
+		return firstWithin(bs, dRadius) >= 0;
+	}
+
+	public int firstWithin(BeliefState bs, double dRadius)
+	{
+		return firstWithin(bs, dRadius, null);
+	}
+
+	public int firstWithin(BeliefState bs, double dRadius, double[] adDistance)
+	{
+		for (int i = 0; i < m_vBeliefs.size(); i++)
+		{
+			double dDist = m_dmMetric.distanceAtMost(bs, m_vBeliefs.get(i), dRadius);
+			if (dDist <= dRadius)
+			{
+				if (adDistance != null)
+					adDistance[0] = dDist;
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	public ArrayList<Integer> allWithin(BeliefState bs, double dRadius)
+	{
+		ArrayList<Integer> vResult = new ArrayList<Integer>();
+		for (int i = 0; i < m_vBeliefs.size(); i++)
+		{
+			if (m_dmMetric.distanceAtMost(bs, m_vBeliefs.get(i), dRadius) <= dRadius)
+				vResult.add(i);
+		}
+		return vResult;
+	}
+
+	public int nearest(BeliefState bs)
+	{
+		int iNearest = -1;
+		double dMinDist = Double.POSITIVE_INFINITY, dDist = 0.0;
+		for (int i = 0; i < m_vBeliefs.size(); i++)
+		{
+			dDist = m_dmMetric.distanceAtMost(bs, m_vBeliefs.get(i), dMinDist);
+			if (dDist < dMinDist)
+			{
+				dMinDist = dDist;
+				iNearest = i;
+			}
+		}
+		return iNearest;
+	}
+}
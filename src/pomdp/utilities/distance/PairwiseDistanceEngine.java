@@ -0,0 +1,299 @@
+package pomdp.utilities.distance;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import pomdp.utilities.BeliefState;
+
+/**
+ * 信念点集合上的两两距离计算，用于检查闭包是否相交
+ *
+ * 点按编号分成TILE_SIZE大小的块，块对(iTile, jTile)（iTile <= jTile）是一个任务，由ForkJoinPool并行计算，
+ * 同一个块内的点在缓存中反复使用。每对点只算一次（i < j），结果与顺序计算相同，与线程数无关。
+ *
+ * 报告所有距离小于半径的点对、最小距离及其点对、距离直方图。
+ * 不需要直方图时用distanceAtMost按当前最小距离提前停止；
+ * 给出度量索引时只用索引查找相交的点对，不再两两计算，此时最小距离只在相交的点对中统计。
+ */
+public class PairwiseDistanceEngine
+{
+	public static final int TILE_SIZE = 64;
+	// 每个任务至少处理这么多个块对，再少就不再拆分
+	protected static final int MIN_TILES_PER_TASK = 4;
+
+	protected List<BeliefState> m_vBeliefs;
+	protected DistanceMetric m_dmMetric;
+	protected ForkJoinPool m_fjPool;
+
+	public PairwiseDistanceEngine(List<BeliefState> vBeliefs)
+	{
+		this(vBeliefs, L1Distance.getInstance());
+	}
+
+	public PairwiseDistanceEngine(List<BeliefState> vBeliefs, DistanceMetric dmMetric)
+	{
+		m_vBeliefs = vBeliefs;
+		m_dmMetric = dmMetric;
+		m_fjPool = ForkJoinPool.commonPool();
+	}
+
+	public void setPool(ForkJoinPool fjPool)
+	{
+		m_fjPool = fjPool;
+	}
+
+	/**
+	 * 计算结果。点对按(i, j)字典序排列，i < j。
+	 */
+	public static class Result
+	{
+		protected double m_dRadius;
+		protected ArrayList<int[]> m_vOverlaps;
+		protected double m_dMinDistance;
+		protected int m_iMin1, m_iMin2;
+		protected long[] m_acHistogram;
+		protected double m_dHistogramMax;
+		protected long m_cPairs;
+
+		protected Result(double dRadius, int cBins, double dHistogramMax)
+		{
+			m_dRadius = dRadius;
+			m_vOverlaps = new ArrayList<int[]>();
+			m_dMinDistance = Double.POSITIVE_INFINITY;
+			m_iMin1 = -1;
+			m_iMin2 = -1;
+			m_acHistogram = new long[cBins];
+			m_dHistogramMax = dHistogramMax;
+			m_cPairs = 0;
+		}
+
+		protected void add(int i, int j, double dDist)
+		{
+			m_cPairs++;
+			if (dDist < m_dRadius)
+				m_vOverlaps.add(new int[] { i, j });
+			if (dDist < m_dMinDistance || (dDist == m_dMinDistance && before(i, j, m_iMin1, m_iMin2)))
+			{
+				m_dMinDistance = dDist;
+				m_iMin1 = i;
+				m_iMin2 = j;
+			}
+			if (m_acHistogram.length > 0)
+			{
+				int iBin = (int) (dDist / m_dHistogramMax * m_acHistogram.length);
+				m_acHistogram[Math.max(0, Math.min(iBin, m_acHistogram.length - 1))]++;
+			}
+		}
+
+		/**
+		 * 合并另一部分点对的结果，other中的点对都排在本结果之后
+		 */
+		protected void merge(Result other)
+		{
+			m_cPairs += other.m_cPairs;
+			m_vOverlaps.addAll(other.m_vOverlaps);
+			if (other.m_dMinDistance < m_dMinDistance
+					|| (other.m_dMinDistance == m_dMinDistance && before(other.m_iMin1, other.m_iMin2, m_iMin1, m_iMin2)))
+			{
+				m_dMinDistance = other.m_dMinDistance;
+				m_iMin1 = other.m_iMin1;
+				m_iMin2 = other.m_iMin2;
+			}
+			for (int iBin = 0; iBin < m_acHistogram.length; iBin++)
+				m_acHistogram[iBin] += other.m_acHistogram[iBin];
+		}
+
+		private static boolean before(int i1, int j1, int i2, int j2)
+		{
+			return i2 < 0 || i1 < i2 || (i1 == i2 && j1 < j2);
+		}
+
+		public ArrayList<int[]> getOverlaps()
+		{
+			return m_vOverlaps;
+		}
+
+		/**
+		 * @return 最小距离；只用索引查找且没有相交的点对时为正无穷，表示最小距离不小于半径
+		 */
+		public double getMinDistance()
+		{
+			return m_dMinDistance;
+		}
+
+		public int[] getMinPair()
+		{
+			return new int[] { m_iMin1, m_iMin2 };
+		}
+
+		/**
+		 * 第k个桶统计距离在[k*max/cBins, (k+1)*max/cBins)内的点对数，超出范围的计入两端的桶
+		 */
+		public long[] getHistogram()
+		{
+			return m_acHistogram;
+		}
+
+		/**
+		 * 计算了距离的点对数，只用索引查找时只包括相交的点对
+		 */
+		public long getPairCount()
+		{
+			return m_cPairs;
+		}
+
+		public String toString()
+		{
+			String sResult = "pairs = " + m_cPairs + ", overlaps = " + m_vOverlaps.size() + ", min distance = "
+					+ m_dMinDistance + " (" + m_iMin1 + ", " + m_iMin2 + ")";
+			if (m_acHistogram.length > 0)
+			{
+				sResult += ", histogram [0, " + m_dHistogramMax + "]:";
+				for (long cPairs : m_acHistogram)
+					sResult += " " + cPairs;
+			}
+			return sResult;
+		}
+	}
+
+	/**
+	 * 两两计算所有点对
+	 * @param dRadius - 距离小于它的点对算作相交
+	 * @param cBins - 直方图的桶数，0表示不统计直方图
+	 * @param dHistogramMax - 直方图的上界，L1距离不超过2
+	 */
+	public Result computeAllPairs(double dRadius, int cBins, double dHistogramMax)
+	{
+		int cTiles = (m_vBeliefs.size() + TILE_SIZE - 1) / TILE_SIZE;
+		ArrayList<int[]> vTilePairs = new ArrayList<int[]>();
+		for (int iTile = 0; iTile < cTiles; iTile++)
+			for (int jTile = iTile; jTile < cTiles; jTile++)
+				vTilePairs.add(new int[] { iTile, jTile });
+		Result r = m_fjPool.invoke(new TileTask(vTilePairs, 0, vTilePairs.size(), dRadius, cBins, dHistogramMax));
+		sortOverlaps(r.m_vOverlaps);
+		return r;
+	}
+
+	/**
+	 * 用度量索引查找相交的点对，每个点一次allWithin查询，并行执行
+	 * @param biIndex - 按相同编号加入了所有信念点的索引，例如扩张时建立的闭包中心点索引
+	 */
+	public Result computeOverlaps(BeliefIndex biIndex, double dRadius)
+	{
+		Result r = m_fjPool.invoke(new IndexTask(biIndex, 0, m_vBeliefs.size(), dRadius));
+		sortOverlaps(r.m_vOverlaps);
+		return r;
+	}
+
+	private static void sortOverlaps(ArrayList<int[]> vOverlaps)
+	{
+		Collections.sort(vOverlaps, new Comparator<int[]>()
+		{
+			public int compare(int[] a1, int[] a2)
+			{
+				return a1[0] != a2[0] ? Integer.compare(a1[0], a2[0]) : Integer.compare(a1[1], a2[1]);
+			}
+		});
+	}
+
+	private class TileTask extends RecursiveTask<Result>
+	{
+		private static final long serialVersionUID = 1L;
+		private ArrayList<int[]> m_vTilePairs;
+		private int m_iBegin, m_iEnd;
+		private double m_dRadius;
+		private int m_cBins;
+		private double m_dHistogramMax;
+
+		TileTask(ArrayList<int[]> vTilePairs, int iBegin, int iEnd, double dRadius, int cBins, double dHistogramMax)
+		{
+			m_vTilePairs = vTilePairs;
+			m_iBegin = iBegin;
+			m_iEnd = iEnd;
+			m_dRadius = dRadius;
+			m_cBins = cBins;
+			m_dHistogramMax = dHistogramMax;
+		}
+
+		protected Result compute()
+		{
+			if (m_iEnd - m_iBegin <= MIN_TILES_PER_TASK)
+			{
+				Result r = new Result(m_dRadius, m_cBins, m_dHistogramMax);
+				for (int iPair = m_iBegin; iPair < m_iEnd; iPair++)
+					computeTile(m_vTilePairs.get(iPair)[0], m_vTilePairs.get(iPair)[1], r);
+				return r;
+			}
+			int iMiddle = (m_iBegin + m_iEnd) / 2;
+			TileTask tFirst = new TileTask(m_vTilePairs, m_iBegin, iMiddle, m_dRadius, m_cBins, m_dHistogramMax);
+			TileTask tSecond = new TileTask(m_vTilePairs, iMiddle, m_iEnd, m_dRadius, m_cBins, m_dHistogramMax);
+			tSecond.fork();
+			Result r = tFirst.compute();
+			r.merge(tSecond.join());
+			return r;
+		}
+
+		private void computeTile(int iTile, int jTile, Result r)
+		{
+			int cBeliefs = m_vBeliefs.size();
+			int iEnd = Math.min((iTile + 1) * TILE_SIZE, cBeliefs), jEnd = Math.min((jTile + 1) * TILE_SIZE, cBeliefs);
+			boolean bHistogram = m_cBins > 0;
+			for (int i = iTile * TILE_SIZE; i < iEnd; i++)
+			{
+				BeliefState bs1 = m_vBeliefs.get(i);
+				for (int j = Math.max(jTile * TILE_SIZE, i + 1); j < jEnd; j++)
+				{
+					// 不统计直方图时只需要知道是否小于半径、是否小于当前最小值
+					double dDist = bHistogram ? m_dmMetric.distance(bs1, m_vBeliefs.get(j))
+							: m_dmMetric.distanceAtMost(bs1, m_vBeliefs.get(j), Math.max(m_dRadius, r.m_dMinDistance));
+					r.add(i, j, dDist);
+				}
+			}
+		}
+	}
+
+	private class IndexTask extends RecursiveTask<Result>
+	{
+		private static final long serialVersionUID = 1L;
+		private BeliefIndex m_biIndex;
+		private int m_iBegin, m_iEnd;
+		private double m_dRadius;
+
+		IndexTask(BeliefIndex biIndex, int iBegin, int iEnd, double dRadius)
+		{
+			m_biIndex = biIndex;
+			m_iBegin = iBegin;
+			m_iEnd = iEnd;
+			m_dRadius = dRadius;
+		}
+
+		protected Result compute()
+		{
+			if (m_iEnd - m_iBegin <= TILE_SIZE)
+			{
+				Result r = new Result(m_dRadius, 0, 0.0);
+				for (int i = m_iBegin; i < m_iEnd; i++)
+				{
+					BeliefState bs = m_vBeliefs.get(i);
+					for (int j : m_biIndex.allWithin(bs, Math.nextDown(m_dRadius)))
+					{
+						if (j > i)
+							r.add(i, j, m_dmMetric.distance(bs, m_vBeliefs.get(j)));
+					}
+				}
+				return r;
+			}
+			int iMiddle = (m_iBegin + m_iEnd) / 2;
+			IndexTask tFirst = new IndexTask(m_biIndex, m_iBegin, iMiddle, m_dRadius);
+			IndexTask tSecond = new IndexTask(m_biIndex, iMiddle, m_iEnd, m_dRadius);
+			tSecond.fork();
+			Result r = tFirst.compute();
+			r.merge(tSecond.join());
+			return r;
+		}
+	}
+}
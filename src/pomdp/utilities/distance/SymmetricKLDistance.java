@@ -0,0 +1,47 @@
+package pomdp.utilities.distance;
+
+/**
+ * 对称KL散度 J(b1,b2) = KL(b1||b2) + KL(b2||b1) = ∑_s (b1(s) - b2(s)) * (ln b1(s) - ln b2(s))
+ *
+ * 只有一边非零的状态会使散度为无穷大，所以两边的概率都先加上SMOOTHING再取对数。
+ * 每一项都非负，可以提前停止；但不满足三角不等式，不能用VP树索引。
+ */
+public class SymmetricKLDistance extends LDistance
+{
+    protected static SymmetricKLDistance m_symmetricKLDistance;
+    public static final double SMOOTHING = 1.0E-6;
+	
+	public SymmetricKLDistance()
+	{
+		super();
+	}
+	
+	public static DistanceMetric getInstance()
+	{
+		if( m_symmetricKLDistance == null )
+		{
+			m_symmetricKLDistance = new SymmetricKLDistance();
+		}
+		return m_symmetricKLDistance;
+	}
+	
+	public String getName()
+	{
+		return "SymmetricKL";
+	}
+	
+	protected double applyDistanceMetric(double dAccumulated, double dValue1, double dValue2) 
+	{
+		return dAccumulated + ( dValue1 - dValue2 ) * ( Math.log( dValue1 + SMOOTHING ) - Math.log( dValue2 + SMOOTHING ) );
+	}
+
+	protected double applyFinal(double dAccumulated) 
+	{
+		return dAccumulated;
+	}
+	
+	protected double getAccumulatedBound(double dBound)
+	{
+		return dBound;
+	}
+}
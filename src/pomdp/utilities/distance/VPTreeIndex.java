@@ -0,0 +1,351 @@
+package pomdp.utilities.distance;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+import pomdp.utilities.BeliefState;
+
+/**
+ * 支持增量插入的VP树（vantage point tree）
+ *
+ * 叶子是最多LEAF_SIZE个点的桶，桶满了以第一个点为vantage point，按到它的距离的中位数分成内外两棵子树。
+ * 每个内部结点记录两棵子树中的点到vantage point的距离范围，查询时用三角不等式
+ * |d(q,v) - d(x,v)| <= d(q,x) 剪掉不可能命中的子树。
+ * 度量必须满足三角不等式（L1满足）。剪枝时留了TOLERANCE的余量，
+ * 浮点舍入不会让结果与LinearScanIndex不同。
+ */
+public class VPTreeIndex implements BeliefIndex
+{
+	protected static final int LEAF_SIZE = 32;
+	protected static final double TOLERANCE = 1.0E-9;
+
+	protected DistanceMetric m_dmMetric;
+	protected ArrayList<BeliefState> m_vBeliefs;
+	protected Node m_nRoot;
+
+	public VPTreeIndex()
+	{
+		this(L1Distance.getInstance());
+	}
+
+	public VPTreeIndex(DistanceMetric dmMetric)
+	{
+		m_dmMetric = dmMetric;
+		m_vBeliefs = new ArrayList<BeliefState>();
+		m_nRoot = new Node();
+	}
+
+	public void add(BeliefState bs)
+	{
+		int iIndex = m_vBeliefs.size();
+		m_vBeliefs.add(bs);
+		insert(m_nRoot, iIndex);
+	}
+
+	public BeliefState get(int iIndex)
+	{
+		return m_vBeliefs.get(iIndex);
+	}
+
+	public int size()
+	{
+		return m_vBeliefs.size();
+	}
+
+	public DistanceMetric getMetric()
+	{
+		return m_dmMetric;
+	}
+
+	protected double distance(BeliefState bs, int iIndex)
+	{
+		return m_dmMetric.distance(bs, m_vBeliefs.get(iIndex));
+	}
+
+	/**
+	 * 距离不超过dBound时是精确距离，否则是某个大于dBound的值（仍然是距离的下界）
+	 */
+	protected double distanceAtMost(BeliefState bs, int iIndex, double dBound)
+	{
+		return m_dmMetric.distanceAtMost(bs, m_vBeliefs.get(iIndex), dBound);
+	}
+
+	/**
+	 * 查询点到vantage point的距离超过这个值时两棵子树都可以剪掉，不需要精确距离
+	 */
+	private static double vantageBound(Node n, double dRadius)
+	{
+		return Math.max(n.m_dInnerMax, n.m_dOuterMax) + dRadius + TOLERANCE;
+	}
+
+	private void insert(Node n, int iIndex)
+	{
+		while (!n.isLeaf())
+		{
+			double dDist = distance(m_vBeliefs.get(iIndex), n.m_iVantage);
+			if (dDist < n.m_dMedian)
+			{
+				n.m_dInnerMin = Math.min(n.m_dInnerMin, dDist);
+				n.m_dInnerMax = Math.max(n.m_dInnerMax, dDist);
+				if (n.m_nInner == null)
+					n.m_nInner = new Node();
+				n = n.m_nInner;
+			}
+			else
+			{
+				n.m_dOuterMin = Math.min(n.m_dOuterMin, dDist);
+				n.m_dOuterMax = Math.max(n.m_dOuterMax, dDist);
+				if (n.m_nOuter == null)
+					n.m_nOuter = new Node();
+				n = n.m_nOuter;
+			}
+			n.m_iMinIndex = Math.min(n.m_iMinIndex, iIndex);
+		}
+		n.m_iMinIndex = Math.min(n.m_iMinIndex, iIndex);
+		n.m_vBucket.add(iIndex);
+		if (n.m_vBucket.size() > LEAF_SIZE)
+			split(n);
+	}
+
+	/**
+	 * 把满了的桶变成内部结点，桶中编号最小的点作为vantage point
+	 */
+	private void split(Node n)
+	{
+		ArrayList<Integer> vBucket = n.m_vBucket;
+		int iVantage = vBucket.get(0);
+		int cOthers = vBucket.size() - 1;
+		double[] adDists = new double[cOthers];
+		for (int i = 0; i < cOthers; i++)
+			adDists[i] = distance(m_vBeliefs.get(vBucket.get(i + 1)), iVantage);
+		double[] adSorted = adDists.clone();
+		Arrays.sort(adSorted);
+
+		n.m_vBucket = null;
+		n.m_iVantage = iVantage;
+		n.m_dMedian = adSorted[cOthers / 2];
+		for (int i = 0; i < cOthers; i++)
+		{
+			int iIndex = vBucket.get(i + 1);
+			Node nChild = null;
+			if (adDists[i] < n.m_dMedian)
+			{
+				n.m_dInnerMin = Math.min(n.m_dInnerMin, adDists[i]);
+				n.m_dInnerMax = Math.max(n.m_dInnerMax, adDists[i]);
+				if (n.m_nInner == null)
+					n.m_nInner = new Node();
+				nChild = n.m_nInner;
+			}
+			else
+			{
+				n.m_dOuterMin = Math.min(n.m_dOuterMin, adDists[i]);
+				n.m_dOuterMax = Math.max(n.m_dOuterMax, adDists[i]);
+				if (n.m_nOuter == null)
+					n.m_nOuter = new Node();
+				nChild = n.m_nOuter;
+			}
+			nChild.m_iMinIndex = Math.min(nChild.m_iMinIndex, iIndex);
+			nChild.m_vBucket.add(iIndex);
+		}
+	}
+
+	/**
+	 * 子树中的点到vantage point的距离在[dMin, dMax]内，查询点到vantage point距离为dQueryDist，
+	 * 子树中的点到查询点的距离至少是这个下界
+	 */
+	private static double lowerBound(double dQueryDist, double dMin, double dMax)
+	{
+		if (dQueryDist < dMin)
+			return dMin - dQueryDist;
+		if (dQueryDist > dMax)
+			return dQueryDist - dMax;
+		return 0.0;
+	}
+
+	public boolean anyWithin(BeliefState bs, double dRadius)
+	{
+		return firstWithin(m_nRoot, bs, dRadius, Integer.MAX_VALUE, true, null) != Integer.MAX_VALUE;
+	}
+
+	public int firstWithin(BeliefState bs, double dRadius)
+	{
+		return firstWithin(bs, dRadius, null);
+	}
+
+	public int firstWithin(BeliefState bs, double dRadius, double[] adDistance)
+	{
+		int iFirst = firstWithin(m_nRoot, bs, dRadius, Integer.MAX_VALUE, false, adDistance);
+		return iFirst == Integer.MAX_VALUE ? -1 : iFirst;
+	}
+
+	/**
+	 * @param iBest - 目前找到的最小编号，子树中的编号都不小于它时不用再找
+	 * @param bAny - 找到任意一个就返回
+	 * @param adDistance - 不为null时，iBest更新时把它与bs的距离写入adDistance[0]
+	 */
+	private int firstWithin(Node n, BeliefState bs, double dRadius, int iBest, boolean bAny, double[] adDistance)
+	{
+		if (n == null || n.m_iMinIndex >= iBest)
+			return iBest;
+		if (n.isLeaf())
+		{
+			for (int iIndex : n.m_vBucket)
+			{
+				if (iIndex >= iBest)
+					continue;
+				double dDist = distanceAtMost(bs, iIndex, dRadius);
+				if (dDist <= dRadius)
+				{
+					iBest = iIndex;
+					if (adDistance != null)
+						adDistance[0] = dDist;
+					if (bAny)
+						return iBest;
+				}
+			}
+			return iBest;
+		}
+
+		double dDist = distanceAtMost(bs, n.m_iVantage, Math.max(dRadius, vantageBound(n, dRadius)));
+		if (dDist <= dRadius && n.m_iVantage < iBest)
+		{
+			iBest = n.m_iVantage;
+			if (adDistance != null)
+				adDistance[0] = dDist;
+			if (bAny)
+				return iBest;
+		}
+		boolean bInner = lowerBound(dDist, n.m_dInnerMin, n.m_dInnerMax) <= dRadius + TOLERANCE;
+		boolean bOuter = lowerBound(dDist, n.m_dOuterMin, n.m_dOuterMax) <= dRadius + TOLERANCE;
+		// 先找编号小的子树，找到后可以剪掉另一棵
+		Node nFirst = n.m_nInner, nSecond = n.m_nOuter;
+		boolean bFirst = bInner, bSecond = bOuter;
+		if (n.m_nInner != null && n.m_nOuter != null && n.m_nOuter.m_iMinIndex < n.m_nInner.m_iMinIndex)
+		{
+			nFirst = n.m_nOuter;
+			nSecond = n.m_nInner;
+			bFirst = bOuter;
+			bSecond = bInner;
+		}
+		if (bFirst)
+		{
+			iBest = firstWithin(nFirst, bs, dRadius, iBest, bAny, adDistance);
+			if (bAny && iBest != Integer.MAX_VALUE)
+				return iBest;
+		}
+		if (bSecond)
+			iBest = firstWithin(nSecond, bs, dRadius, iBest, bAny, adDistance);
+		return iBest;
+	}
+
+	public ArrayList<Integer> allWithin(BeliefState bs, double dRadius)
+	{
+		ArrayList<Integer> vResult = new ArrayList<Integer>();
+		allWithin(m_nRoot, bs, dRadius, vResult);
+		Collections.sort(vResult);
+		return vResult;
+	}
+
+	private void allWithin(Node n, BeliefState bs, double dRadius, ArrayList<Integer> vResult)
+	{
+		if (n == null)
+			return;
+		if (n.isLeaf())
+		{
+			for (int iIndex : n.m_vBucket)
+			{
+				if (distanceAtMost(bs, iIndex, dRadius) <= dRadius)
+					vResult.add(iIndex);
+			}
+			return;
+		}
+		double dDist = distanceAtMost(bs, n.m_iVantage, Math.max(dRadius, vantageBound(n, dRadius)));
+		if (dDist <= dRadius)
+			vResult.add(n.m_iVantage);
+		if (lowerBound(dDist, n.m_dInnerMin, n.m_dInnerMax) <= dRadius + TOLERANCE)
+			allWithin(n.m_nInner, bs, dRadius, vResult);
+		if (lowerBound(dDist, n.m_dOuterMin, n.m_dOuterMax) <= dRadius + TOLERANCE)
+			allWithin(n.m_nOuter, bs, dRadius, vResult);
+	}
+
+	public int nearest(BeliefState bs)
+	{
+		double[] adBest = new double[] { Double.POSITIVE_INFINITY };
+		int[] aiBest = new int[] { -1 };
+		nearest(m_nRoot, bs, adBest, aiBest);
+		return aiBest[0];
+	}
+
+	private void nearest(Node n, BeliefState bs, double[] adBest, int[] aiBest)
+	{
+		if (n == null)
+			return;
+		if (n.isLeaf())
+		{
+			for (int iIndex : n.m_vBucket)
+				updateNearest(iIndex, distanceAtMost(bs, iIndex, adBest[0]), adBest, aiBest);
+			return;
+		}
+		double dDist = distanceAtMost(bs, n.m_iVantage, Math.max(adBest[0], vantageBound(n, adBest[0])));
+		updateNearest(n.m_iVantage, dDist, adBest, aiBest);
+		double dInnerBound = lowerBound(dDist, n.m_dInnerMin, n.m_dInnerMax);
+		double dOuterBound = lowerBound(dDist, n.m_dOuterMin, n.m_dOuterMax);
+		// 先找更可能包含最近点的子树，缩小搜索半径
+		if (dInnerBound <= dOuterBound)
+		{
+			if (dInnerBound <= adBest[0] + TOLERANCE)
+				nearest(n.m_nInner, bs, adBest, aiBest);
+			if (dOuterBound <= adBest[0] + TOLERANCE)
+				nearest(n.m_nOuter, bs, adBest, aiBest);
+		}
+		else
+		{
+			if (dOuterBound <= adBest[0] + TOLERANCE)
+				nearest(n.m_nOuter, bs, adBest, aiBest);
+			if (dInnerBound <= adBest[0] + TOLERANCE)
+				nearest(n.m_nInner, bs, adBest, aiBest);
+		}
+	}
+
+	private static void updateNearest(int iIndex, double dDist, double[] adBest, int[] aiBest)
+	{
+		if (dDist < adBest[0] || (dDist == adBest[0] && iIndex < aiBest[0]))
+		{
+			adBest[0] = dDist;
+			aiBest[0] = iIndex;
+		}
+	}
+
+	protected static class Node
+	{
+		// 叶子结点的桶，内部结点为null
+		protected ArrayList<Integer> m_vBucket;
+		protected int m_iVantage;
+		protected double m_dMedian;
+		protected Node m_nInner;
+		protected Node m_nOuter;
+		protected double m_dInnerMin, m_dInnerMax;
+		protected double m_dOuterMin, m_dOuterMax;
+		// 子树中最小的编号，用于firstWithin剪枝
+		protected int m_iMinIndex;
+
+		public Node()
+		{
+			m_vBucket = new ArrayList<Integer>();
+			m_iVantage = -1;
+			m_nInner = null;
+			m_nOuter = null;
+			m_dInnerMin = Double.POSITIVE_INFINITY;
+			m_dInnerMax = Double.NEGATIVE_INFINITY;
+			m_dOuterMin = Double.POSITIVE_INFINITY;
+			m_dOuterMax = Double.NEGATIVE_INFINITY;
+			m_iMinIndex = Integer.MAX_VALUE;
+		}
+
+		public boolean isLeaf()
+		{
+			return m_vBucket != null;
+		}
+	}
+}